@@ -0,0 +1,133 @@
+package com.chanytime.baseproject.bench;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Benchmark runs an operation on a number of threads for a fixed time and
+ * prints the average cost of one call and the throughput of all threads
+ * together. It is a stand-in for JMH, which the build does not ship: every
+ * measurement is preceded by a warm-up of the same length, and the results
+ * of the operation are consumed so the JIT cannot drop the calls. The numbers
+ * are good for comparing thread counts or inputs within one run, not across
+ * machines. Each warm-up and each measurement lasts for the milliseconds in
+ * the bench.millis system property, half a second by default.
+ * <p>
+ * The following is a sample calling sequence:
+ *
+ * <pre>
+ * {@code
+ * Benchmark benchmark = new Benchmark("getLogger()");
+ * for (int threads : Benchmark.THREAD_COUNTS) {
+ *    benchmark.run(threads, () -> Logger.getLogger());
+ * }
+ * }
+ * </pre>
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+public final class Benchmark {
+
+   /**
+    * Operation is the code under measurement. It returns a value so that the
+    * call has an observable result.
+    */
+   @FunctionalInterface
+   public interface Operation {
+      Object run() throws Exception;
+   }
+
+   /**
+    * The thread counts the concurrency benchmarks step through.
+    */
+   public final static int[] THREAD_COUNTS = { 1, 2, 4, 8, 16, 32, 64 };
+
+   private final static long MILLIS = Long.getLong("bench.millis", 500);
+
+   private final String m_name;
+   private final Object[] m_sinks = new Object[THREAD_COUNTS[THREAD_COUNTS.length - 1]];
+   private volatile boolean m_running;
+
+   /**
+    * Constructs a benchmark.
+    *
+    * @param _name
+    *           the name printed in front of every result
+    */
+   public Benchmark(String _name) {
+      m_name = _name;
+   }
+
+   /**
+    * Warms up and then measures an operation on a number of threads, and
+    * prints the result.
+    *
+    * @param _threads
+    *           the number of threads calling the operation
+    * @param _operation
+    *           the operation
+    * @return the average cost of one call in nanoseconds, counting only the
+    *         time of the processors that were busy
+    * @throws InterruptedException
+    *            if the current thread is interrupted while waiting
+    */
+   public double run(int _threads, Operation _operation) throws InterruptedException {
+      measure(_threads, _operation);
+      long[] result = measure(_threads, _operation);
+      int busy = Math.min(_threads, Runtime.getRuntime().availableProcessors());
+      double nanosPerCall = (double) result[1] * busy / Math.max(1, result[0]);
+      System.out.println(String.format("%-40s threads %3d  %12.1f ns/op  %14.0f ops/s", m_name, _threads,
+                                       nanosPerCall, result[0] * 1e9 / result[1]));
+      return nanosPerCall;
+   }
+
+   /**
+    * Calls an operation on a number of threads for the measurement time.
+    *
+    * @param _threads
+    *           the number of threads calling the operation
+    * @param _operation
+    *           the operation
+    * @return the number of calls and the elapsed nanoseconds
+    * @throws InterruptedException
+    *            if the current thread is interrupted while waiting
+    */
+   private long[] measure(int _threads, Operation _operation) throws InterruptedException {
+      LongAdder calls = new LongAdder();
+      CountDownLatch ready = new CountDownLatch(_threads);
+      CountDownLatch start = new CountDownLatch(1);
+      Thread[] threads = new Thread[_threads];
+      for (int i = 0; i < _threads; i++) {
+         Object[] sink = new Object[1];
+         m_sinks[i % m_sinks.length] = sink;
+         threads[i] = new Thread(() -> {
+            long count = 0;
+            ready.countDown();
+            try {
+               start.await();
+               while (m_running) {
+                  sink[0] = _operation.run();
+                  count++;
+               }
+            }
+            catch (Exception _e) {
+               throw new IllegalStateException("Benchmark " + m_name + " failed!", _e);
+            }
+            calls.add(count);
+         });
+         threads[i].setDaemon(true);
+         threads[i].start();
+      }
+      ready.await();
+      m_running = true;
+      long begin = System.nanoTime();
+      start.countDown();
+      Thread.sleep(MILLIS);
+      m_running = false;
+      for (Thread thread : threads) {
+         thread.join();
+      }
+      return new long[] { calls.sum(), System.nanoTime() - begin };
+   }
+}
@@ -0,0 +1,79 @@
+package com.chanytime.baseproject.bench;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.chanytime.baseproject.mail.EmailTemplates;
+
+/**
+ * EmailTemplatesBenchmark measures EmailTemplates.render from 1 to 64 threads
+ * with the templates the application ships: the exception email, and a digest
+ * of DIGEST_ROWS exceptions. Both templates are parsed during the warm-up, so
+ * the measurement is of merging cached templates. The templates are found the
+ * same way as for the application, e.g., through -Dproject.email_template_dir.
+ * If Velocity cannot be initialized, the benchmark says so and measures
+ * nothing.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+public final class EmailTemplatesBenchmark {
+
+   private final static int DIGEST_ROWS = 20;
+
+   private EmailTemplatesBenchmark() {
+   }
+
+   public static void main(String[] _args) throws InterruptedException {
+      EmailTemplates templates = EmailTemplates.getInstance();
+      if (!templates.isAvailable()) {
+         System.out.println("EmailTemplates are not available, nothing to measure");
+         return;
+      }
+      Map<String, Object> exception = new HashMap<String, Object>();
+      exception.put("stackTrace", stackTrace("java.lang.IllegalStateException: Benchmark"));
+      exception.put("recent", "GET /index<br/>POST /login");
+      Benchmark exceptionBenchmark = new Benchmark("EmailTemplates.render(exception.vm)");
+      for (int threads : Benchmark.THREAD_COUNTS) {
+         exceptionBenchmark.run(threads, () -> templates.render("exception.vm", exception));
+      }
+      List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+      List<String> samples = new ArrayList<String>();
+      for (int i = 0; i < DIGEST_ROWS; i++) {
+         Map<String, Object> row = new HashMap<String, Object>();
+         row.put("count", Integer.valueOf(i + 1));
+         row.put("description", "java.lang.IllegalStateException: Benchmark " + i);
+         row.put("firstSeen", "2026-10-16 09:00:00");
+         row.put("lastSeen", "2026-10-16 09:05:00");
+         row.put("session", "session-" + i);
+         rows.add(row);
+         samples.add(stackTrace("java.lang.IllegalStateException: Benchmark " + i));
+      }
+      Map<String, Object> digest = new HashMap<String, Object>();
+      digest.put("rows", rows);
+      digest.put("rejected", Integer.valueOf(3));
+      digest.put("samples", samples);
+      Benchmark digestBenchmark = new Benchmark("EmailTemplates.render(digest.vm)");
+      for (int threads : Benchmark.THREAD_COUNTS) {
+         digestBenchmark.run(threads, () -> templates.render("digest.vm", digest));
+      }
+   }
+
+   /**
+    * Builds a stack trace of a typical depth, with HTML line breaks.
+    *
+    * @param _message
+    *           the first line
+    * @return the stack trace
+    */
+   private static String stackTrace(String _message) {
+      StringBuilder trace = new StringBuilder(_message);
+      for (int i = 0; i < 30; i++) {
+         trace.append("<br/>\tat com.chanytime.baseproject.Example.method").append(i).append("(Example.java:")
+               .append(100 + i).append(')');
+      }
+      return trace.toString();
+   }
+}
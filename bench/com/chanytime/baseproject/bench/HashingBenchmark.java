@@ -0,0 +1,107 @@
+package com.chanytime.baseproject.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+import com.chanytime.baseproject.util.HashAlgorithm;
+import com.chanytime.baseproject.util.Hashing;
+import com.chanytime.baseproject.util.MiscUtil;
+
+/**
+ * HashingBenchmark measures Hashing.hash of files from 64 KB, which are read
+ * through a buffer, to 256 MB, which are mapped one region at a time, on one
+ * thread, and prints the throughput in MB/s. The files are written to a
+ * temporary directory with random contents and are in the page cache, so the
+ * numbers are of hashing and copying, not of the disk.
+ * <p>
+ * It then hashes a short token, as sessions and passwords do, from 1 to 64
+ * threads: first with MiscUtil.getShaHash, which reuses a digest per thread,
+ * then the way getShaHash used to, with a new MessageDigest per call and the
+ * token encoded in the platform charset.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+public final class HashingBenchmark {
+
+   private final static int[] SIZES_KB = { 64, 1024, 16 * 1024, 256 * 1024 };
+   private final static String TOKEN = "3f9a1c2e7b5d4e60a8b1c9d2e3f4a5b6";
+
+   private HashingBenchmark() {
+   }
+
+   public static void main(String[] _args) throws IOException, InterruptedException {
+      Path directory = Files.createTempDirectory("hashing-benchmark");
+      try {
+         for (int sizeKb : SIZES_KB) {
+            Path file = createFile(directory, sizeKb);
+            try {
+               double nanos = new Benchmark("Hashing.hash(SHA256, " + sizeKb + " KB file)").run(1, () -> Hashing
+                     .hash(HashAlgorithm.SHA256, file));
+               System.out.println(String.format("%-40s %12.1f MB/s", "", sizeKb * 1024 * 1e3 / nanos));
+            }
+            finally {
+               Files.delete(file);
+            }
+         }
+      }
+      finally {
+         Files.delete(directory);
+      }
+      Benchmark current = new Benchmark("MiscUtil.getShaHash(token)");
+      for (int threads : Benchmark.THREAD_COUNTS) {
+         current.run(threads, () -> MiscUtil.getShaHash(TOKEN));
+      }
+      Benchmark previous = new Benchmark("MessageDigest.getInstance(token)");
+      for (int threads : Benchmark.THREAD_COUNTS) {
+         previous.run(threads, () -> previousShaHash(TOKEN));
+      }
+   }
+
+   /**
+    * Hashes a string the way MiscUtil.getShaHash did before it used Hashing.
+    *
+    * @param _in
+    *           the string to hash
+    * @return the SHA-1 hash in hex
+    */
+   private static String previousShaHash(String _in) {
+      try {
+         MessageDigest md = MessageDigest.getInstance("SHA1");
+         md.update(_in.getBytes());
+         return MiscUtil.bytesToHex(md.digest());
+      }
+      catch (NoSuchAlgorithmException _e) {
+         throw new IllegalStateException("No such algorithm SHA1!", _e);
+      }
+   }
+
+   /**
+    * Writes a file of random bytes.
+    *
+    * @param _directory
+    *           the directory of the file
+    * @param _sizeKb
+    *           the size of the file in kilobytes
+    * @return the file
+    * @throws IOException
+    *            if the file cannot be written
+    */
+   private static Path createFile(Path _directory, int _sizeKb) throws IOException {
+      Path file = _directory.resolve(_sizeKb + "kb.bin");
+      byte[] block = new byte[1024];
+      Random random = new Random(_sizeKb);
+      try (OutputStream out = Files.newOutputStream(file)) {
+         for (int i = 0; i < _sizeKb; i++) {
+            random.nextBytes(block);
+            out.write(block);
+         }
+      }
+      return file;
+   }
+}
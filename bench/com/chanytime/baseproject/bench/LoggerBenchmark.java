@@ -0,0 +1,29 @@
+package com.chanytime.baseproject.bench;
+
+import com.chanytime.baseproject.log.Logger;
+
+/**
+ * LoggerBenchmark measures Logger.getLogger() and Logger.getLogger(String)
+ * from 1 to 64 threads. Every log statement looks up its logger, so the cost
+ * per call should stay flat as threads are added.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+public final class LoggerBenchmark {
+
+   private LoggerBenchmark() {
+   }
+
+   public static void main(String[] _args) throws InterruptedException {
+      Logger.getLogger();
+      Benchmark main = new Benchmark("Logger.getLogger()");
+      for (int threads : Benchmark.THREAD_COUNTS) {
+         main.run(threads, Logger::getLogger);
+      }
+      Benchmark named = new Benchmark("Logger.getLogger(String)");
+      for (int threads : Benchmark.THREAD_COUNTS) {
+         named.run(threads, () -> Logger.getLogger("benchmark"));
+      }
+   }
+}
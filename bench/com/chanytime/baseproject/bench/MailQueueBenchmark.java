@@ -0,0 +1,82 @@
+package com.chanytime.baseproject.bench;
+
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.chanytime.baseproject.mail.Email;
+import com.chanytime.baseproject.mail.MailQueue;
+import com.chanytime.baseproject.mail.SmtpStandIn;
+
+/**
+ * MailQueueBenchmark measures MailQueue against an SmtpStandIn: how long the
+ * caller spends in submit, and how many emails per second reach the server.
+ * Emails are submitted in rounds of ROUND_SIZE, each waiting for the previous
+ * one to be accepted, after a warm-up round, for the milliseconds in the
+ * bench.millis system property. The stand-in waits for the milliseconds in
+ * the bench.smtp.delay.millis system property, 1 by default, before every
+ * reply, as a nearby server would.
+ * <p>
+ * Emails are spooled to a temporary directory unless the project.mail_spool_dir
+ * system property is set; set it to an empty value to measure without
+ * spooling.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+public final class MailQueueBenchmark {
+
+   private final static int ROUND_SIZE = 200;
+   private final static long MILLIS = Long.getLong("bench.millis", 500);
+   private final static long DELAY_MILLIS = Long.getLong("bench.smtp.delay.millis", 1);
+
+   private MailQueueBenchmark() {
+   }
+
+   public static void main(String[] _args) throws Exception {
+      if (System.getProperty("project.mail_spool_dir") == null) {
+         System.setProperty("project.mail_spool_dir", Files.createTempDirectory("mail-spool").toString());
+      }
+      try (SmtpStandIn server = new SmtpStandIn()) {
+         server.setReplyDelayMillis(DELAY_MILLIS);
+         System.setProperty("project.smtp_host", InetAddress.getLoopbackAddress().getHostAddress());
+         System.setProperty("project.smtp_port", Integer.toString(server.getPort()));
+         MailQueue queue = MailQueue.getInstance();
+         round(queue);
+         long submitNanos = 0;
+         int emails = 0;
+         long begin = System.nanoTime();
+         long end = begin + TimeUnit.MILLISECONDS.toNanos(MILLIS);
+         do {
+            submitNanos += round(queue);
+            emails += ROUND_SIZE;
+         } while (System.nanoTime() < end);
+         long elapsed = System.nanoTime() - begin;
+         String spoolDir = System.getProperty("project.mail_spool_dir");
+         System.out.println(String.format("MailQueue %-28s %8.1f us/submit  %8.0f emails/s  %d emails  %d connections",
+                                          spoolDir.isEmpty() ? "without spooling" : "with spooling",
+                                          submitNanos / 1000.0 / emails, emails * 1e9 / elapsed, emails,
+                                          server.getConnections()));
+      }
+   }
+
+   /**
+    * Submits a round of emails and waits for the server to accept them all.
+    *
+    * @param _queue
+    *           the queue
+    * @return the nanoseconds spent in submit
+    */
+   private static long round(MailQueue _queue) {
+      CompletableFuture<?>[] futures = new CompletableFuture<?>[ROUND_SIZE];
+      long start = System.nanoTime();
+      for (int i = 0; i < ROUND_SIZE; i++) {
+         futures[i] = _queue.submit(new Email("someone@example.com", "Benchmark " + i, "Body of benchmark " + i,
+               System.currentTimeMillis()));
+      }
+      long submitNanos = System.nanoTime() - start;
+      CompletableFuture.allOf(futures).join();
+      return submitNanos;
+   }
+}
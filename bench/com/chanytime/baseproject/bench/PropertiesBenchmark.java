@@ -0,0 +1,39 @@
+package com.chanytime.baseproject.bench;
+
+import com.chanytime.baseproject.configuration.Properties;
+
+/**
+ * PropertiesBenchmark measures the typed getters of Properties from 1 to 64
+ * threads, both for well-known keys and for keys looked up by name. The
+ * getters read an immutable snapshot, so the cost per call should stay flat
+ * as threads are added. The properties file is found the same way as for the
+ * application, e.g., through -Dproject.properties.file.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+public final class PropertiesBenchmark {
+
+   private PropertiesBenchmark() {
+   }
+
+   public static void main(String[] _args) throws InterruptedException {
+      Properties properties = Properties.getProperties();
+      Benchmark production = new Benchmark("Properties.getProduction()");
+      for (int threads : Benchmark.THREAD_COUNTS) {
+         production.run(threads, properties::getProduction);
+      }
+      Benchmark identifier = new Benchmark("Properties.getLoggerIdentifier()");
+      for (int threads : Benchmark.THREAD_COUNTS) {
+         identifier.run(threads, properties::getLoggerIdentifier);
+      }
+      Benchmark string = new Benchmark("Properties.getString(smtp_host)");
+      for (int threads : Benchmark.THREAD_COUNTS) {
+         string.run(threads, () -> properties.getString("smtp_host"));
+      }
+      Benchmark bool = new Benchmark("Properties.getBoolean(sql_trace_enabled)");
+      for (int threads : Benchmark.THREAD_COUNTS) {
+         bool.run(threads, () -> properties.getBoolean("sql_trace_enabled"));
+      }
+   }
+}
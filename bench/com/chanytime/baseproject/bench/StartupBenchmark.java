@@ -0,0 +1,126 @@
+package com.chanytime.baseproject.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * StartupBenchmark compares cold launches of the application without and with
+ * its class-data-sharing archive. Each variant is launched a number of times
+ * in a new JVM, and for each launch it records how long the process took
+ * from start to exit and how long after the JVM started Bootstrap reported
+ * it was ready. It prints every launch and then the minimum, median and mean
+ * of each variant.
+ *
+ * <pre>
+ * java com.chanytime.baseproject.bench.StartupBenchmark runs archive java-arguments...
+ * </pre>
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+public final class StartupBenchmark {
+
+   private final static Pattern READY = Pattern.compile("Started in [0-9.]+ ms, ([0-9]+) ms after the JVM started");
+   private final static String USAGE = "Usage: StartupBenchmark runs archive java-arguments...";
+
+   private StartupBenchmark() {
+   }
+
+   public static void main(String[] _args) throws IOException, InterruptedException {
+      if (_args.length < 3) {
+         System.err.println(USAGE);
+         System.exit(2);
+      }
+      int runs = Integer.parseInt(_args[0]);
+      String archive = _args[1];
+      List<String> arguments = Arrays.asList(_args).subList(2, _args.length);
+      List<String> shared = new ArrayList<String>();
+      shared.add("-XX:SharedArchiveFile=" + archive);
+      shared.add("-Xshare:auto");
+      shared.addAll(arguments);
+      long[][] without = measure("without the application archive", arguments, runs);
+      long[][] with = measure("with the application archive", shared, runs);
+      System.out.println();
+      summarize("without the application archive", without);
+      summarize("with the application archive", with);
+   }
+
+   /**
+    * Launches the application a number of times.
+    *
+    * @param _variant
+    *           the name of the variant
+    * @param _arguments
+    *           the arguments of the java command
+    * @param _runs
+    *           the number of launches
+    * @return the process times and the ready times in milliseconds, one row
+    *         per launch
+    * @throws IOException
+    *            if the JVM cannot be launched
+    * @throws InterruptedException
+    *            if the current thread is interrupted while waiting
+    */
+   private static long[][] measure(String _variant, List<String> _arguments, int _runs) throws IOException,
+         InterruptedException {
+      List<String> command = new ArrayList<String>();
+      command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+      command.addAll(_arguments);
+      long[][] times = new long[_runs][];
+      for (int i = 0; i < _runs; i++) {
+         long start = System.nanoTime();
+         Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+         long ready = -1;
+         try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+               Matcher matcher = READY.matcher(line);
+               if (matcher.find()) {
+                  ready = Long.parseLong(matcher.group(1));
+               }
+            }
+         }
+         int status = process.waitFor();
+         long total = (System.nanoTime() - start) / 1000000;
+         if (status != 0 || ready < 0) {
+            throw new IllegalStateException("Launch " + (i + 1) + " " + _variant + " failed with status " + status
+                  + (ready < 0 ? " and no startup time" : "") + "!");
+         }
+         times[i] = new long[] { total, ready };
+         System.out.println(String.format("%-34s launch %2d  process %5d ms  ready %5d ms", _variant, i + 1, total,
+                                          ready));
+      }
+      return times;
+   }
+
+   /**
+    * Prints the minimum, median and mean of the launches of one variant.
+    *
+    * @param _variant
+    *           the name of the variant
+    * @param _times
+    *           the process times and the ready times of the launches
+    */
+   private static void summarize(String _variant, long[][] _times) {
+      for (int column = 0; column < 2; column++) {
+         long[] values = new long[_times.length];
+         long sum = 0;
+         for (int i = 0; i < _times.length; i++) {
+            values[i] = _times[i][column];
+            sum += values[i];
+         }
+         Arrays.sort(values);
+         long median = (values[(values.length - 1) / 2] + values[values.length / 2]) / 2;
+         System.out.println(String.format("%-34s %-7s  min %5d ms  median %5d ms  mean %7.1f ms", _variant,
+                                          (column == 0) ? "process" : "ready", values[0], median,
+                                          (double) sum / values.length));
+      }
+   }
+}
@@ -0,0 +1,57 @@
+package com.chanytime.baseproject.bench;
+
+import com.chanytime.baseproject.util.TokenGenerator;
+
+/**
+ * TokenGeneratorBenchmark measures TokenGenerator.generate. It steps the token
+ * length from 8 to 1024 characters on one thread, where the cost should grow
+ * linearly with the length, i.e., the cost per character should stay flat;
+ * then generates 32-character tokens from 1 to 64 threads, which share
+ * nothing; and then compares character sets that take one, two and four
+ * random bytes per character.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+public final class TokenGeneratorBenchmark {
+
+   private final static int[] LENGTHS = { 8, 16, 32, 64, 128, 256, 512, 1024 };
+   private final static int TOKEN_LENGTH = 32;
+
+   private TokenGeneratorBenchmark() {
+   }
+
+   public static void main(String[] _args) throws InterruptedException {
+      TokenGenerator generator = TokenGenerator.getDefault();
+      for (int length : LENGTHS) {
+         double nanos = new Benchmark("TokenGenerator.generate(" + length + ")").run(1, () -> generator
+               .generate(length));
+         System.out.println(String.format("%-40s %12.2f ns/char", "", nanos / length));
+      }
+      Benchmark threads = new Benchmark("TokenGenerator.generate(" + TOKEN_LENGTH + ")");
+      for (int count : Benchmark.THREAD_COUNTS) {
+         threads.run(count, () -> generator.generate(TOKEN_LENGTH));
+      }
+      for (int size : new int[] { 62, 300, 70000 }) {
+         TokenGenerator sized = new TokenGenerator(characterSet(size));
+         new Benchmark(size + " characters, generate(" + TOKEN_LENGTH + ")").run(1, () -> sized
+               .generate(TOKEN_LENGTH));
+      }
+   }
+
+   /**
+    * Builds a character set of a given size, repeating characters once the
+    * 65536 values of char are used up.
+    *
+    * @param _size
+    *           the number of characters
+    * @return the character set
+    */
+   private static String characterSet(int _size) {
+      char[] characters = new char[_size];
+      for (int i = 0; i < _size; i++) {
+         characters[i] = (char) ('!' + i);
+      }
+      return new String(characters);
+   }
+}
@@ -0,0 +1,326 @@
+package com.chanytime.baseproject;
+
+import java.lang.management.ManagementFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.helpers.LogLog;
+
+import com.chanytime.baseproject.configuration.Properties;
+import com.chanytime.baseproject.log.Logger;
+import com.chanytime.baseproject.log.SessionIDs;
+import com.chanytime.baseproject.metrics.Metrics;
+
+/**
+ * Bootstrap initializes the application in a defined order instead of leaving
+ * it to whichever class happens to be used first. The initialization that
+ * does not depend on anything else runs first, in parallel:
+ * <ul>
+ * <li>loading the properties
+ * <li>registering the metrics MBeans
+ * <li>resolving the host name and seeding the session ID generator
+ * <li>loading the mail classes
+ * <li>loading the message digest providers
+ * </ul>
+ * The logger is initialized next, and the properties files are watched for
+ * changes last, since the watcher logs its problems.
+ * <p>
+ * A phase that fails does not stop the others. The failure is logged and the
+ * class that failed tries again the next time it is used. The time taken by
+ * every phase is logged, along with the time since the JVM started. The
+ * following is the expected calling sequence:
+ *
+ * <pre>
+ * {@code
+ * public static void main(String args[]) {
+ *    Bootstrap.start();
+ *    ...
+ *    // once the application has served its first request
+ *    Bootstrap.requestServed();
+ * }
+ * }
+ * </pre>
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+public final class Bootstrap {
+
+   /**
+    * Phase is one named step of the initialization.
+    */
+   private static final class Phase {
+      final String m_name;
+      final Runnable m_task;
+
+      Phase(String _name, Runnable _task) {
+         m_name = _name;
+         m_task = _task;
+      }
+   }
+
+   private final static String THREAD_NAME = "bootstrap-";
+   private final static double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+   private static Bootstrap m_instance = null;
+   private static volatile long m_firstRequestUptime = -1;
+
+   private final Map<String, Long> m_phaseNanos = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+   private final Map<String, Throwable> m_failures = Collections.synchronizedMap(new LinkedHashMap<String, Throwable>());
+   private long m_totalNanos = 0;
+   private long m_uptimeMillis = 0;
+
+   private Bootstrap() {
+   }
+
+   /**
+    * Initializes the application, the first time this is called. Later calls
+    * return the result of the first one.
+    *
+    * @return the result of the initialization
+    */
+   public static synchronized Bootstrap start() {
+      if (m_instance == null) {
+         Bootstrap bootstrap = new Bootstrap();
+         bootstrap.run();
+         m_instance = bootstrap;
+      }
+      return m_instance;
+   }
+
+   /**
+    * Records that the application served its first request and logs how long
+    * after the JVM started that was. Only the first call has any effect, so
+    * this is cheap to call at every request.
+    */
+   public static void requestServed() {
+      if (m_firstRequestUptime < 0) {
+         synchronized (Bootstrap.class) {
+            if (m_firstRequestUptime < 0) {
+               m_firstRequestUptime = ManagementFactory.getRuntimeMXBean().getUptime();
+               Logger.getLogger().info("Served the first request %d ms after the JVM started", m_firstRequestUptime);
+            }
+         }
+      }
+   }
+
+   /**
+    * Retrieves how long after the JVM started the first request was served.
+    *
+    * @return the time in milliseconds, or -1 if no request was served yet
+    */
+   public static long getFirstRequestUptimeMillis() {
+      return m_firstRequestUptime;
+   }
+
+   /**
+    * Retrieves whether every phase succeeded.
+    *
+    * @return true if no phase failed false otherwise
+    */
+   public boolean isSuccessful() {
+      return m_failures.isEmpty();
+   }
+
+   /**
+    * Retrieves the phases that failed.
+    *
+    * @return the exception of every phase that failed, by phase name
+    */
+   public Map<String, Throwable> getFailures() {
+      synchronized (m_failures) {
+         return new LinkedHashMap<String, Throwable>(m_failures);
+      }
+   }
+
+   /**
+    * Retrieves the time taken by every phase. Phases that ran in parallel
+    * overlap, so the times may add up to more than the total.
+    *
+    * @return the time in milliseconds, by phase name in the order the phases
+    *         finished
+    */
+   public Map<String, Double> getPhaseMillis() {
+      Map<String, Double> millis = new LinkedHashMap<String, Double>();
+      synchronized (m_phaseNanos) {
+         for (Map.Entry<String, Long> entry : m_phaseNanos.entrySet()) {
+            millis.put(entry.getKey(), entry.getValue() / NANOS_PER_MILLI);
+         }
+      }
+      return millis;
+   }
+
+   /**
+    * Retrieves the time taken by the whole initialization.
+    *
+    * @return the time in milliseconds
+    */
+   public double getTotalMillis() {
+      return m_totalNanos / NANOS_PER_MILLI;
+   }
+
+   /**
+    * Retrieves how long after the JVM started the initialization finished.
+    *
+    * @return the time in milliseconds
+    */
+   public long getUptimeMillis() {
+      return m_uptimeMillis;
+   }
+
+   /**
+    * Runs the phases and logs the result.
+    */
+   private void run() {
+      long start = System.nanoTime();
+      List<Phase> phases = new ArrayList<Phase>();
+      phases.add(new Phase("properties", () -> Properties.getProperties()));
+      phases.add(new Phase("metrics", () -> Metrics.register()));
+      phases.add(new Phase("session-ids", () -> SessionIDs.generate()));
+      phases.add(new Phase("mail", () -> load("javax.mail.Session", "javax.mail.internet.MimeMessage",
+                                              "javax.mail.Transport")));
+      phases.add(new Phase("digests", () -> digests("SHA-1", "SHA-256", "SHA-512")));
+      runInParallel(phases);
+
+      run(new Phase("logging", () -> Logger.getLogger()));
+      if (!m_failures.containsKey("properties")) {
+         run(new Phase("watch", () -> Properties.getProperties().watch()));
+      }
+
+      m_totalNanos = System.nanoTime() - start;
+      m_uptimeMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+      report();
+   }
+
+   /**
+    * Runs a phase and records its time and its failure, if any.
+    *
+    * @param _phase
+    *           the phase
+    * @return true if the phase succeeded false otherwise
+    */
+   private boolean run(Phase _phase) {
+      long start = System.nanoTime();
+      try {
+         _phase.m_task.run();
+         return true;
+      }
+      catch (RuntimeException | LinkageError _e) {
+         m_failures.put(_phase.m_name, _e);
+         return false;
+      }
+      finally {
+         m_phaseNanos.put(_phase.m_name, System.nanoTime() - start);
+      }
+   }
+
+   /**
+    * Runs phases in parallel on daemon threads and waits for all of them.
+    *
+    * @param _phases
+    *           the phases
+    */
+   private void runInParallel(List<Phase> _phases) {
+      final AtomicInteger threads = new AtomicInteger();
+      ExecutorService executor = Executors.newFixedThreadPool(
+            Math.max(1, Math.min(_phases.size(), Runtime.getRuntime().availableProcessors())), new ThreadFactory() {
+               @Override
+               public Thread newThread(Runnable _runnable) {
+                  Thread thread = new Thread(_runnable, THREAD_NAME + threads.incrementAndGet());
+                  thread.setDaemon(true);
+                  return thread;
+               }
+            });
+      try {
+         List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+         for (Phase phase : _phases) {
+            tasks.add(() -> run(phase));
+         }
+         executor.invokeAll(tasks);
+      }
+      catch (InterruptedException _e) {
+         Thread.currentThread().interrupt();
+      }
+      finally {
+         executor.shutdown();
+      }
+   }
+
+   /**
+    * Logs the time taken by every phase and the failures. If the logger could
+    * not be initialized, the result is reported through log4j's internal
+    * logging instead.
+    */
+   private void report() {
+      boolean logging = !m_failures.containsKey("logging");
+      for (Map.Entry<String, Double> entry : getPhaseMillis().entrySet()) {
+         Throwable failure = m_failures.get(entry.getKey());
+         if (failure == null) {
+            if (logging) {
+               Logger.getLogger().debug("Startup phase %s took %.1f ms", entry.getKey(), entry.getValue());
+            }
+         }
+         else if (logging) {
+            Logger.getLogger().error("Startup phase %s failed after %.1f ms, message: %s", entry.getKey(),
+                                     entry.getValue(), failure.toString());
+         }
+         else {
+            LogLog.error("Startup phase " + entry.getKey() + " failed!", failure);
+         }
+      }
+      if (logging) {
+         Logger.getLogger().info("Started in %.1f ms, %d ms after the JVM started", getTotalMillis(), m_uptimeMillis);
+      }
+   }
+
+   /**
+    * Loads and initializes classes.
+    *
+    * @param _classNames
+    *           the names of the classes
+    */
+   private static void load(String... _classNames) {
+      try {
+         for (String className : _classNames) {
+            Class.forName(className, true, Bootstrap.class.getClassLoader());
+         }
+      }
+      catch (ClassNotFoundException _e) {
+         throw new IllegalStateException("Class " + _e.getMessage() + " is missing!", _e);
+      }
+   }
+
+   /**
+    * Loads the providers of message digest algorithms.
+    *
+    * @param _algorithms
+    *           the names of the algorithms
+    */
+   private static void digests(String... _algorithms) {
+      try {
+         for (String algorithm : _algorithms) {
+            MessageDigest.getInstance(algorithm);
+         }
+      }
+      catch (NoSuchAlgorithmException _e) {
+         throw new IllegalStateException(_e.getMessage(), _e);
+      }
+   }
+
+   @Override
+   public String toString() {
+      return "Bootstrap[total=" + getTotalMillis() + " ms, uptime=" + m_uptimeMillis + " ms, phases=" + getPhaseMillis()
+            + ", failures=" + getFailures().keySet() + "]";
+   }
+}
@@ -7,6 +7,7 @@ import com.chanytime.baseproject.util.MiscUtil;
 public class Driver {
 
    public static void main(String args[]) {
+      Bootstrap.start();
       Logger.getLogger().debug("this demonstrates a class logger -- this is the default");
       Logger.getLogger("CHANMAN").debug("this demonstrates a logger named CHANMAN");
       int i = 199291082;
@@ -1,129 +1,5 @@
 package com.chanytime.baseproject.configuration;
 
-import java.io.IOException;
-import java.net.URL;
-
-import org.apache.log4j.helpers.Loader;
-
-import com.chanytime.baseproject.log.Logger;
-
-/**
- * PropertiesBase is an abstract class that encapsulates the ability to read
- * properties from a properties file, project.properties, that is in the
- * classpath. This class supports the reading of arbitrary keys whose values are
- * strings, integers, or booleans.
- *
- * @author Bryant Chan
- * @version %I%, %G%
- */
-abstract class PropertiesBase {
-   private static final String DEFAULT_PROPERTIES_FILE = "project.properties";
-   private java.util.Properties m_properties;
-
-   /**
-    * Constructor that loads the default properties file.
-    * <p>
-    * 
-    * @return A constructed object of this class with the default properties
-    *         file
-    */
-   protected PropertiesBase() {
-      this(DEFAULT_PROPERTIES_FILE);
-   }
-
-   /**
-    * Constructor that loads the specified properties file.
-    * <p>
-    * 
-    * @param _file
-    *           The name of the file, which is in the classpath, from which to
-    *           load the properties
-    * @return A constructed object of this class with the default properties
-    *         file
-    */
-   protected PropertiesBase(String _file) {
-      URL url = Loader.getResource(_file);
-      if (url == null) {
-         Logger.getLogger().fatal("Cannot find %s!", DEFAULT_PROPERTIES_FILE);
-         throw new Error("Cannot open properties file " + DEFAULT_PROPERTIES_FILE + "!");
-      }
-      else {
-         try {
-            m_properties = new java.util.Properties();
-            m_properties.load(url.openStream());
-            if (!isValid()) {
-               throw new Error("Properties file " + url.toString() + " is not valid!");
-            }
-         }
-         catch (IOException e) {
-            Logger.getLogger().fatal("Cannot open %s!", url.toString());
-            throw new Error("Cannot open properties file " + url.toString() + "!");
-         }
-      }
-   }
-
-   /**
-    * Checks the integrity of values in the properties file. Any subclass of
-    * PropertiesBase will have knowledge of what combination of values are
-    * considered invalid and therefore should not be used.
-    *
-    * @return true if the properties are valid false otherwise
-    */
-   protected abstract boolean isValid();
-
-   /**
-    * Retrieves an integer value from the properties file with the specified
-    * key.
-    *
-    * @param _property
-    *           the name of the key to retrieve
-    * @return the value of the property with the named key
-    * @throws IllegalArgumentException
-    *            if the key doesn't exist
-    */
-   public int getInt(String _property) {
-      String value = m_properties.getProperty(_property);
-      if (value == null) {
-         throw new IllegalArgumentException("Property " + _property + " doesn't exist!");
-      }
-      return Integer.parseInt(value);
-   }
-
-   /**
-    * Retrieves a string value from the properties file with the specified key.
-    *
-    * @param _property
-    *           the name of the key to retrieve
-    * @return the value of the property with the named key
-    * @throws IllegalArgumentException
-    *            if the key doesn't exist
-    */
-   public String getString(String _property) {
-      String value = m_properties.getProperty(_property);
-      if (value == null) {
-         throw new IllegalArgumentException("Property " + _property + " doesn't exist!");
-      }
-      return value;
-   }
-
-   /**
-    * Retrieves a Boolean value from the properties file with the specified key.
-    *
-    * @param _property
-    *           the name of the key to retrieve
-    * @return the value of the property with the named key
-    * @throws IllegalArgumentException
-    *            if the key doesn't exist
-    */
-   public boolean getBoolean(String _property) {
-      String value = m_properties.getProperty(_property);
-      if (value == null) {
-         throw new IllegalArgumentException("Property " + _property + " doesn't exist!");
-      }
-      return value.equalsIgnoreCase("true");
-   }
-}
-
 /**
  * Properties encapsulates the ability to read properties from a properties
  * file, project.properties, that is in the classpath. Currently, only a handful
@@ -157,16 +33,17 @@ abstract class PropertiesBase {
  * Properties.getProperties().getInt("some_key");
  * }
  * </pre>
+ * <p>
+ * Once Bootstrap has started, project.properties is watched and reloaded when
+ * it changes, so values such as production, smtp_host or sql_trace_enabled
+ * take effect without a restart. Components that hold on to a value should
+ * subscribe to its key with addListener.
  *
  * @author Bryant Chan
  * @version %I%, %G%
  */
 public class Properties extends PropertiesBase {
-   private static Properties m_propertiesFile;
-
-   static {
-      m_propertiesFile = new Properties();
-   }
+   private static volatile Properties m_propertiesFile = null;
 
    /**
     * Constructor that loads the default properties file.
@@ -180,31 +57,56 @@ public class Properties extends PropertiesBase {
 
    /**
     * Retrieves the global, static instance of this class, which represents the
-    * properties file for this project.
+    * properties file for this project. The properties are loaded the first
+    * time this is called, unless Bootstrap loaded them already. If loading
+    * fails, the next call tries again.
     *
     * @return the global instance of the Properties object
+    * @throws IllegalStateException
+    *            if the properties cannot be read or are not valid
     */
    public static Properties getProperties() {
+      Properties properties = m_propertiesFile;
+      if (properties == null) {
+         properties = load();
+      }
+      return properties;
+   }
+
+   /**
+    * Loads the global instance if no other thread has loaded it yet.
+    *
+    * @return the global instance of the Properties object
+    */
+   private static synchronized Properties load() {
+      if (m_propertiesFile == null) {
+         m_propertiesFile = new Properties();
+      }
       return m_propertiesFile;
    }
 
    /**
-    * Checks the integrity of values in the properties file.
+    * Checks the integrity of values in a snapshot of the properties file.
     *
+    * @param _snapshot
+    *           the snapshot to check
     * @return true if the properties are valid false otherwise
     */
    @Override
-   protected boolean isValid() {
-      if (getLoggerIdentifier() == null || getLoggerIdentifier().isEmpty()) {
+   boolean isValid(PropertiesSnapshot _snapshot) {
+      if (_snapshot.m_loggerIdentifier == null || _snapshot.m_loggerIdentifier.isEmpty()) {
+         return false;
+      }
+      if (_snapshot.m_production == null || _snapshot.m_sqlTraceEnabled == null) {
          return false;
       }
-      if (getProduction()) {
-         if (getSqlTraceEnabled()) {
+      if (_snapshot.m_production) {
+         if (_snapshot.m_sqlTraceEnabled) {
             return false;
          }
       }
       else {
-         if (getNonproductionPrefix() == null || getNonproductionPrefix().isEmpty()) {
+         if (_snapshot.m_nonproductionPrefix == null || _snapshot.m_nonproductionPrefix.isEmpty()) {
             return false;
          }
       }
@@ -217,7 +119,7 @@ public class Properties extends PropertiesBase {
     * @return the database URL scheme
     */
    public String getDatabaseUrlScheme() {
-      return getString("database_url_scheme");
+      return PropertiesSnapshot.require(getSnapshot().m_databaseUrlScheme, "database_url_scheme");
    }
 
    /**
@@ -226,7 +128,7 @@ public class Properties extends PropertiesBase {
     * @return the database URL hostname
     */
    public String getDatabaseUrlHostname() {
-      return getString("database_url_hostname");
+      return PropertiesSnapshot.require(getSnapshot().m_databaseUrlHostname, "database_url_hostname");
    }
 
    /**
@@ -235,7 +137,7 @@ public class Properties extends PropertiesBase {
     * @return the username of the web user for database access
     */
    public String getWebDatabaseUsername() {
-      return getString("web_database_username");
+      return PropertiesSnapshot.require(getSnapshot().m_webDatabaseUsername, "web_database_username");
    }
 
    /**
@@ -244,7 +146,7 @@ public class Properties extends PropertiesBase {
     * @return the password of the web user for database access
     */
    public String getWebDatabasePassword() {
-      return getString("web_database_password");
+      return PropertiesSnapshot.require(getSnapshot().m_webDatabasePassword, "web_database_password");
    }
 
    /**
@@ -253,7 +155,7 @@ public class Properties extends PropertiesBase {
     * @return the username of the admin user for database access
     */
    public String getAdminDatabaseUsername() {
-      return getString("web_database_password");
+      return PropertiesSnapshot.require(getSnapshot().m_adminDatabaseUsername, "admin_database_username");
    }
 
    /**
@@ -262,7 +164,7 @@ public class Properties extends PropertiesBase {
     * @return the password of the admin user for database access
     */
    public String getAdminDatabasePassword() {
-      return getString("admin_database_password");
+      return PropertiesSnapshot.require(getSnapshot().m_adminDatabasePassword, "admin_database_password");
    }
 
    /**
@@ -271,7 +173,7 @@ public class Properties extends PropertiesBase {
     * @return the username of the batch user for database access
     */
    public String getBatchDatabaseUsername() {
-      return getString("batch_database_username");
+      return PropertiesSnapshot.require(getSnapshot().m_batchDatabaseUsername, "batch_database_username");
    }
 
    /**
@@ -280,7 +182,7 @@ public class Properties extends PropertiesBase {
     * @return the password of the batch user for database access
     */
    public String getBatchDatabasePassword() {
-      return getString("batch_database_password");
+      return PropertiesSnapshot.require(getSnapshot().m_batchDatabasePassword, "batch_database_password");
    }
 
    /**
@@ -291,7 +193,7 @@ public class Properties extends PropertiesBase {
     * @return the logger identifier
     */
    public String getLoggerIdentifier() {
-      return getString("logger_identifier");
+      return PropertiesSnapshot.require(getSnapshot().m_loggerIdentifier, "logger_identifier");
    }
 
    /**
@@ -302,7 +204,7 @@ public class Properties extends PropertiesBase {
     * @return true if this system is a production system false otherwise
     */
    public boolean getProduction() {
-      return getBoolean("production");
+      return PropertiesSnapshot.require(getSnapshot().m_production, "production").booleanValue();
    }
 
    /**
@@ -314,7 +216,7 @@ public class Properties extends PropertiesBase {
     * @return the prefix for this instance of the application
     */
    public String getNonproductionPrefix() {
-      return getString("nonproduction_prefix");
+      return PropertiesSnapshot.require(getSnapshot().m_nonproductionPrefix, "nonproduction_prefix");
    }
 
    /**
@@ -323,7 +225,7 @@ public class Properties extends PropertiesBase {
     * @return the SMTP host for outgoing mail
     */
    public String getSmtpHost() {
-      return getString("smtp_host");
+      return PropertiesSnapshot.require(getSnapshot().m_smtpHost, "smtp_host");
    }
 
    /**
@@ -333,7 +235,7 @@ public class Properties extends PropertiesBase {
     * @return the "From:" email for outgoing mail
     */
    public String getEmailFromField() {
-      return getString("email_from_field");
+      return PropertiesSnapshot.require(getSnapshot().m_emailFromField, "email_from_field");
    }
 
    /**
@@ -343,7 +245,7 @@ public class Properties extends PropertiesBase {
     * @return the destination email address for logger output
     */
    public String getLoggerEmailDestination() {
-      return getString("logger_email_destination");
+      return PropertiesSnapshot.require(getSnapshot().m_loggerEmailDestination, "logger_email_destination");
    }
 
    /**
@@ -353,6 +255,6 @@ public class Properties extends PropertiesBase {
     * @return true if SQL and other trace output is enabled false otherwise
     */
    public boolean getSqlTraceEnabled() {
-      return getBoolean("sql_trace_enabled");
+      return PropertiesSnapshot.require(getSnapshot().m_sqlTraceEnabled, "sql_trace_enabled").booleanValue();
    }
 }
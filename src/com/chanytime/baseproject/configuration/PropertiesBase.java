@@ -0,0 +1,473 @@
+package com.chanytime.baseproject.configuration;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.log4j.helpers.Loader;
+
+import com.chanytime.baseproject.jfr.ConfigurationLoadEvent;
+import com.chanytime.baseproject.jfr.Events;
+import com.chanytime.baseproject.log.Logger;
+
+/**
+ * PropertiesBase is an abstract class that encapsulates the ability to read
+ * properties from a properties file, project.properties, that is in the
+ * classpath. This class supports the reading of arbitrary keys whose values are
+ * strings, integers, or booleans.
+ * <p>
+ * The file is read into an immutable PropertiesSnapshot, so reading a property
+ * takes no lock and integer and boolean values are not parsed again at every
+ * call. When the file is reloaded, the new snapshot is validated and then
+ * replaces the old one as a whole, so a reader sees either all of the old
+ * values or all of the new ones. An invalid file is rejected and the last
+ * valid values stay in use. Listeners subscribed to a key are notified when its
+ * value changes.
+ * <p>
+ * A property can be set in four layers. A layer overrides the ones before it:
+ * <ol>
+ * <li>the properties file in the classpath, which holds the defaults
+ * <li>an external properties file, named by the system property
+ * project.properties.file or the environment variable
+ * PROJECT_PROPERTIES_FILE; if it is specified, the properties file in the
+ * classpath is optional
+ * <li>environment variables, where PROJECT_SMTP_HOST sets smtp_host
+ * <li>system properties, where -Dproject.smtp_host sets smtp_host
+ * </ol>
+ * The layers are resolved into a single table when the properties are loaded,
+ * so a lookup is one hash lookup no matter how many layers there are. This
+ * keeps secrets such as passwords out of the properties file in the
+ * classpath, and lets one build run in every deployment. The dump method shows
+ * which layer every value came from.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+abstract class PropertiesBase {
+   private static final String DEFAULT_PROPERTIES_FILE = "project.properties";
+   private static final String FILE_PROPERTY = "project.properties.file";
+   private static final String FILE_VARIABLE = "PROJECT_PROPERTIES_FILE";
+   private static final String SYSTEM_PREFIX = "project.";
+   private static final String ENVIRONMENT_PREFIX = "PROJECT_";
+   private static final String MASK = "********";
+   private final URL m_url;
+   private final Path m_file;
+   private final Map<String, List<PropertiesListener>> m_listeners = new ConcurrentHashMap<String, List<PropertiesListener>>();
+   private volatile PropertiesSnapshot m_snapshot;
+   private final List<PropertiesWatcher> m_watchers = new ArrayList<PropertiesWatcher>();
+
+   /**
+    * Constructor that loads the default properties file.
+    * <p>
+    * 
+    * @return A constructed object of this class with the default properties
+    *         file
+    */
+   protected PropertiesBase() {
+      this(DEFAULT_PROPERTIES_FILE);
+   }
+
+   /**
+    * Constructor that loads the specified properties file. This does not log,
+    * so that the properties can be loaded before the logger is initialized;
+    * a failure is reported by the exception.
+    * <p>
+    * 
+    * @param _file
+    *           The name of the file, which is in the classpath, from which to
+    *           load the properties
+    * @return A constructed object of this class with the default properties
+    *         file
+    * @throws IllegalStateException
+    *            if the properties cannot be read or are not valid
+    */
+   protected PropertiesBase(String _file) {
+      ConfigurationLoadEvent jfr = Events.isActive() ? new ConfigurationLoadEvent() : null;
+      if (jfr != null) {
+         jfr.begin();
+      }
+      m_url = Loader.getResource(_file);
+      m_file = externalFile();
+      int keys = 0;
+      boolean valid = false;
+      try {
+         if (m_url == null && m_file == null) {
+            throw new IllegalStateException("Cannot open properties file " + _file + "!");
+         }
+         else {
+            try {
+               PropertiesSnapshot snapshot = read();
+               keys = snapshot.getValues().size();
+               if (!isValid(snapshot)) {
+                  throw new IllegalStateException("Properties from " + describeSources() + " are not valid!");
+               }
+               m_snapshot = snapshot;
+               valid = true;
+            }
+            catch (IOException e) {
+               throw new IllegalStateException("Cannot open properties file " + describeSources() + "!", e);
+            }
+         }
+      }
+      finally {
+         if (jfr != null) {
+            commit(jfr, (m_url == null && m_file == null) ? _file : describeSources(), false, keys, valid);
+         }
+      }
+   }
+
+   /**
+    * Checks the integrity of values in a snapshot of the properties file. Any
+    * subclass of PropertiesBase will have knowledge of what combination of
+    * values are considered invalid and therefore should not be used.
+    *
+    * @param _snapshot
+    *           the snapshot to check, which is not yet in use
+    * @return true if the properties are valid false otherwise
+    */
+   abstract boolean isValid(PropertiesSnapshot _snapshot);
+
+   /**
+    * Retrieves the snapshot of the properties file.
+    *
+    * @return the current snapshot
+    */
+   PropertiesSnapshot getSnapshot() {
+      return m_snapshot;
+   }
+
+   /**
+    * Reads the properties file again and, if it is valid, makes its values
+    * current and notifies the listeners of the keys that changed. If the file
+    * cannot be read or is not valid, the current values are kept.
+    *
+    * @return true if the file was reloaded false otherwise
+    */
+   public synchronized boolean reload() {
+      ConfigurationLoadEvent jfr = Events.isActive() ? new ConfigurationLoadEvent() : null;
+      if (jfr != null) {
+         jfr.begin();
+      }
+      int keys = 0;
+      boolean valid = false;
+      try {
+         PropertiesSnapshot snapshot = read();
+         keys = snapshot.getValues().size();
+         if (!isValid(snapshot)) {
+            Logger.getLogger().error("Properties from %s are not valid, keeping the previous properties!", describeSources());
+            return false;
+         }
+         valid = true;
+         PropertiesSnapshot previous = m_snapshot;
+         if (snapshot.getValues().equals(previous.getValues())) {
+            return true;
+         }
+         m_snapshot = snapshot;
+         Logger.getLogger().info("Reloaded properties from %s", describeSources());
+         notifyListeners(previous, snapshot);
+         return true;
+      }
+      catch (IOException | IllegalArgumentException _e) {
+         Logger.getLogger().error("Cannot reload %s, keeping the previous properties, message: %s", describeSources(), _e.toString());
+         return false;
+      }
+      finally {
+         if (jfr != null) {
+            commit(jfr, describeSources(), true, keys, valid);
+         }
+      }
+   }
+
+   /**
+    * Starts reloading the properties whenever one of the properties files
+    * changes. Only files in the file system are watched, not a properties file
+    * in a jar. This has no effect if the properties are already watched.
+    *
+    * @return true if a properties file is watched false otherwise
+    */
+   public synchronized boolean watch() {
+      if (m_watchers.isEmpty()) {
+         if (m_url != null && "file".equals(m_url.getProtocol())) {
+            try {
+               watch(Paths.get(m_url.toURI()));
+            }
+            catch (URISyntaxException | RuntimeException _e) {
+               Logger.getLogger().warn("Cannot watch %s, message: %s", m_url.toString(), _e.toString());
+            }
+         }
+         if (m_file != null) {
+            watch(m_file);
+         }
+      }
+      return !m_watchers.isEmpty();
+   }
+
+   /**
+    * Retrieves the layer a property was resolved from.
+    *
+    * @param _property
+    *           the name of the key
+    * @return a description of the layer, e.g., "environment PROJECT_SMTP_HOST",
+    *         or null if the key doesn't exist
+    */
+   public String getOrigin(String _property) {
+      return m_snapshot.getOrigin(_property);
+   }
+
+   /**
+    * Describes every property, its value and the layer it came from, one per
+    * line and sorted by key, for debugging. The values of keys that contain
+    * "password" are masked.
+    *
+    * @return the description of the properties
+    */
+   public String dump() {
+      PropertiesSnapshot snapshot = m_snapshot;
+      StringBuilder sb = new StringBuilder();
+      for (Map.Entry<String, String> entry : new TreeMap<String, String>(snapshot.getValues()).entrySet()) {
+         String key = entry.getKey();
+         sb.append(key);
+         sb.append(" = ");
+         sb.append(key.contains("password") ? MASK : entry.getValue());
+         sb.append(" [");
+         sb.append(snapshot.getOrigin(key));
+         sb.append("]");
+         sb.append(System.lineSeparator());
+      }
+      return sb.toString();
+   }
+
+   /**
+    * Subscribes a listener to changes of the value of a key.
+    *
+    * @param _key
+    *           the key
+    * @param _listener
+    *           the listener
+    */
+   public void addListener(String _key, PropertiesListener _listener) {
+      m_listeners.computeIfAbsent(_key, k -> new CopyOnWriteArrayList<PropertiesListener>()).add(_listener);
+   }
+
+   /**
+    * Unsubscribes a listener from changes of the value of a key.
+    *
+    * @param _key
+    *           the key
+    * @param _listener
+    *           the listener
+    */
+   public void removeListener(String _key, PropertiesListener _listener) {
+      List<PropertiesListener> listeners = m_listeners.get(_key);
+      if (listeners != null) {
+         listeners.remove(_listener);
+      }
+   }
+
+   /**
+    * Reads every layer and resolves them into a new snapshot.
+    *
+    * @return the snapshot
+    * @throws IOException
+    *            if a properties file cannot be read
+    */
+   private PropertiesSnapshot read() throws IOException {
+      Map<String, String> values = new HashMap<String, String>();
+      Map<String, String> origins = new HashMap<String, String>();
+      if (m_url != null) {
+         try (InputStream in = m_url.openStream()) {
+            overlay(values, origins, in, "classpath " + m_url.toString());
+         }
+      }
+      if (m_file != null) {
+         try (InputStream in = Files.newInputStream(m_file)) {
+            overlay(values, origins, in, "file " + m_file.toString());
+         }
+      }
+      for (Map.Entry<String, String> entry : System.getenv().entrySet()) {
+         String name = entry.getKey();
+         if (name.startsWith(ENVIRONMENT_PREFIX) && !name.equals(FILE_VARIABLE)) {
+            String key = name.substring(ENVIRONMENT_PREFIX.length()).toLowerCase(Locale.ROOT);
+            values.put(key, entry.getValue());
+            origins.put(key, "environment " + name);
+         }
+      }
+      java.util.Properties system = System.getProperties();
+      for (String name : system.stringPropertyNames()) {
+         if (name.startsWith(SYSTEM_PREFIX) && !name.equals(FILE_PROPERTY)) {
+            String key = name.substring(SYSTEM_PREFIX.length());
+            values.put(key, system.getProperty(name));
+            origins.put(key, "system property " + name);
+         }
+      }
+      return new PropertiesSnapshot(values, origins);
+   }
+
+   /**
+    * Reads a properties file over the values read so far.
+    *
+    * @param _values
+    *           the values read so far
+    * @param _origins
+    *           the origins of the values read so far
+    * @param _in
+    *           the properties file
+    * @param _origin
+    *           the description of the properties file
+    * @throws IOException
+    *            if the file cannot be read
+    */
+   private static void overlay(Map<String, String> _values, Map<String, String> _origins, InputStream _in, String _origin)
+         throws IOException {
+      java.util.Properties properties = new java.util.Properties();
+      properties.load(_in);
+      for (String key : properties.stringPropertyNames()) {
+         _values.put(key, properties.getProperty(key));
+         _origins.put(key, _origin);
+      }
+   }
+
+   /**
+    * Finds the external properties file, if one is specified.
+    *
+    * @return the path of the file, or null
+    */
+   private static Path externalFile() {
+      String file = System.getProperty(FILE_PROPERTY);
+      if (file == null || file.isEmpty()) {
+         file = System.getenv(FILE_VARIABLE);
+      }
+      return (file == null || file.isEmpty()) ? null : Paths.get(file);
+   }
+
+   /**
+    * Describes the properties files the properties are read from.
+    *
+    * @return the description
+    */
+   private String describeSources() {
+      if (m_url == null) {
+         return m_file.toString();
+      }
+      return (m_file == null) ? m_url.toString() : m_url.toString() + " and " + m_file.toString();
+   }
+
+   private static void commit(ConfigurationLoadEvent _jfr, String _source, boolean _reload, int _keys, boolean _valid) {
+      _jfr.m_source = _source;
+      _jfr.m_reload = _reload;
+      _jfr.m_keys = _keys;
+      _jfr.m_valid = _valid;
+      _jfr.commit();
+   }
+
+   private void watch(Path _file) {
+      try {
+         m_watchers.add(new PropertiesWatcher(this, _file));
+      }
+      catch (IOException | RuntimeException _e) {
+         Logger.getLogger().warn("Cannot watch %s, message: %s", _file.toString(), _e.toString());
+      }
+   }
+
+   /**
+    * Notifies the listeners of every key whose value differs between two
+    * snapshots. A listener that throws does not keep the others from being
+    * notified.
+    *
+    * @param _previous
+    *           the snapshot that was replaced
+    * @param _current
+    *           the snapshot now in use
+    */
+   private void notifyListeners(PropertiesSnapshot _previous, PropertiesSnapshot _current) {
+      Map<String, String> previous = _previous.getValues();
+      Map<String, String> current = _current.getValues();
+      Set<String> keys = new HashSet<String>(previous.keySet());
+      keys.addAll(current.keySet());
+      for (String key : keys) {
+         String oldValue = previous.get(key);
+         String newValue = current.get(key);
+         List<PropertiesListener> listeners = m_listeners.get(key);
+         if (listeners == null || (oldValue == null ? newValue == null : oldValue.equals(newValue))) {
+            continue;
+         }
+         for (PropertiesListener listener : listeners) {
+            try {
+               listener.propertyChanged(key, oldValue, newValue);
+            }
+            catch (RuntimeException _e) {
+               Logger.getLogger().error("Listener for property %s failed, message: %s", key, _e.toString());
+            }
+         }
+      }
+   }
+
+   /**
+    * Retrieves an integer value from the properties file with the specified
+    * key.
+    *
+    * @param _property
+    *           the name of the key to retrieve
+    * @return the value of the property with the named key
+    * @throws IllegalArgumentException
+    *            if the key doesn't exist
+    */
+   public int getInt(String _property) {
+      return m_snapshot.getInt(_property);
+   }
+
+   /**
+    * Retrieves a string value from the properties file with the specified key.
+    *
+    * @param _property
+    *           the name of the key to retrieve
+    * @return the value of the property with the named key
+    * @throws IllegalArgumentException
+    *            if the key doesn't exist
+    */
+   public String getString(String _property) {
+      return m_snapshot.getString(_property);
+   }
+
+   /**
+    * Retrieves a string value from the properties file with the specified key,
+    * or a default value if the key doesn't exist.
+    *
+    * @param _property
+    *           the name of the key to retrieve
+    * @param _default
+    *           the value to return if the key doesn't exist
+    * @return the value of the property with the named key, or the default
+    */
+   public String getString(String _property, String _default) {
+      String value = m_snapshot.getValues().get(_property);
+      return (value == null) ? _default : value;
+   }
+
+   /**
+    * Retrieves a Boolean value from the properties file with the specified key.
+    *
+    * @param _property
+    *           the name of the key to retrieve
+    * @return the value of the property with the named key
+    * @throws IllegalArgumentException
+    *            if the key doesn't exist
+    */
+   public boolean getBoolean(String _property) {
+      return m_snapshot.getBoolean(_property);
+   }
+}
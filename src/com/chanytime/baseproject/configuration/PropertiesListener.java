@@ -0,0 +1,33 @@
+package com.chanytime.baseproject.configuration;
+
+/**
+ * PropertiesListener is notified when the properties file is reloaded and the
+ * value of a key it subscribed to has changed. The following is a sample
+ * subscription:
+ *
+ * <pre>
+ * {@code
+ * Properties.getProperties().addListener("smtp_host", (key, oldValue, newValue) -> reconnect(newValue));
+ * }
+ * </pre>
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ * @see Properties#addListener(String, PropertiesListener)
+ */
+@FunctionalInterface
+public interface PropertiesListener {
+
+   /**
+    * Called on the thread that reloaded the properties, after the new values
+    * are visible to the getters.
+    *
+    * @param _key
+    *           the key whose value changed
+    * @param _oldValue
+    *           the previous value, or null if the key was added
+    * @param _newValue
+    *           the new value, or null if the key was removed
+    */
+   void propertyChanged(String _key, String _oldValue, String _newValue);
+}
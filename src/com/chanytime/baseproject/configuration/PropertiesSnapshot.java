@@ -0,0 +1,167 @@
+package com.chanytime.baseproject.configuration;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PropertiesSnapshot is an immutable copy of the properties resolved from the
+ * configuration sources, with the layer each value came from. The well-known
+ * project properties are parsed once into final fields, and the remaining keys
+ * are kept in a map that is never modified after construction, so reading a
+ * property takes no lock. Integer and Boolean values of arbitrary keys are
+ * parsed the first time they are requested and cached.
+ * <p>
+ * A well-known property that is missing from the file is held as null, and
+ * the getters in Properties report it the same way as getString does.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+final class PropertiesSnapshot {
+
+   final String m_databaseUrlScheme;
+   final String m_databaseUrlHostname;
+   final String m_webDatabaseUsername;
+   final String m_webDatabasePassword;
+   final String m_adminDatabaseUsername;
+   final String m_adminDatabasePassword;
+   final String m_batchDatabaseUsername;
+   final String m_batchDatabasePassword;
+   final String m_loggerIdentifier;
+   final Boolean m_production;
+   final String m_nonproductionPrefix;
+   final String m_smtpHost;
+   final String m_emailFromField;
+   final String m_loggerEmailDestination;
+   final Boolean m_sqlTraceEnabled;
+
+   private final Map<String, String> m_values;
+   private final Map<String, String> m_origins;
+   private final ConcurrentHashMap<String, Integer> m_ints = new ConcurrentHashMap<String, Integer>();
+   private final ConcurrentHashMap<String, Boolean> m_booleans = new ConcurrentHashMap<String, Boolean>();
+
+   /**
+    * Constructs a snapshot of the specified properties.
+    *
+    * @param _values
+    *           the resolved value of every key
+    * @param _origins
+    *           a description of the source of every key
+    */
+   PropertiesSnapshot(Map<String, String> _values, Map<String, String> _origins) {
+      Map<String, String> values = new HashMap<String, String>(_values);
+      m_values = Collections.unmodifiableMap(values);
+      m_origins = Collections.unmodifiableMap(new HashMap<String, String>(_origins));
+
+      m_databaseUrlScheme = values.get("database_url_scheme");
+      m_databaseUrlHostname = values.get("database_url_hostname");
+      m_webDatabaseUsername = values.get("web_database_username");
+      m_webDatabasePassword = values.get("web_database_password");
+      m_adminDatabaseUsername = values.get("admin_database_username");
+      m_adminDatabasePassword = values.get("admin_database_password");
+      m_batchDatabaseUsername = values.get("batch_database_username");
+      m_batchDatabasePassword = values.get("batch_database_password");
+      m_loggerIdentifier = values.get("logger_identifier");
+      m_production = toBoolean(values.get("production"));
+      m_nonproductionPrefix = values.get("nonproduction_prefix");
+      m_smtpHost = values.get("smtp_host");
+      m_emailFromField = values.get("email_from_field");
+      m_loggerEmailDestination = values.get("logger_email_destination");
+      m_sqlTraceEnabled = toBoolean(values.get("sql_trace_enabled"));
+   }
+
+   /**
+    * Retrieves a string value.
+    *
+    * @param _property
+    *           the name of the key to retrieve
+    * @return the value of the property with the named key
+    * @throws IllegalArgumentException
+    *            if the key doesn't exist
+    */
+   String getString(String _property) {
+      return require(m_values.get(_property), _property);
+   }
+
+   /**
+    * Retrieves an integer value, parsing it only the first time.
+    *
+    * @param _property
+    *           the name of the key to retrieve
+    * @return the value of the property with the named key
+    * @throws IllegalArgumentException
+    *            if the key doesn't exist
+    * @throws NumberFormatException
+    *            if the value is not an integer
+    */
+   int getInt(String _property) {
+      Integer value = m_ints.get(_property);
+      if (value == null) {
+         value = Integer.valueOf(Integer.parseInt(getString(_property)));
+         m_ints.putIfAbsent(_property, value);
+      }
+      return value.intValue();
+   }
+
+   /**
+    * Retrieves a Boolean value, parsing it only the first time.
+    *
+    * @param _property
+    *           the name of the key to retrieve
+    * @return the value of the property with the named key
+    * @throws IllegalArgumentException
+    *            if the key doesn't exist
+    */
+   boolean getBoolean(String _property) {
+      Boolean value = m_booleans.get(_property);
+      if (value == null) {
+         value = toBoolean(getString(_property));
+         m_booleans.putIfAbsent(_property, value);
+      }
+      return value.booleanValue();
+   }
+
+   /**
+    * Retrieves every property in this snapshot.
+    *
+    * @return an unmodifiable map of keys to values
+    */
+   Map<String, String> getValues() {
+      return m_values;
+   }
+
+   /**
+    * Retrieves the source a property was resolved from.
+    *
+    * @param _property
+    *           the name of the key
+    * @return a description of the source, or null if the key doesn't exist
+    */
+   String getOrigin(String _property) {
+      return m_origins.get(_property);
+   }
+
+   /**
+    * Checks that a property exists.
+    *
+    * @param _value
+    *           the value of the property, or null if it is missing
+    * @param _property
+    *           the name of the key
+    * @return the value
+    * @throws IllegalArgumentException
+    *            if the value is null
+    */
+   static <T> T require(T _value, String _property) {
+      if (_value == null) {
+         throw new IllegalArgumentException("Property " + _property + " doesn't exist!");
+      }
+      return _value;
+   }
+
+   private static Boolean toBoolean(String _value) {
+      return (_value == null) ? null : Boolean.valueOf(_value.equalsIgnoreCase("true"));
+   }
+}
@@ -0,0 +1,103 @@
+package com.chanytime.baseproject.configuration;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+import com.chanytime.baseproject.log.Logger;
+
+/**
+ * PropertiesWatcher reloads the properties when the properties file changes on
+ * disk. It watches the directory of the file, since editors often replace a
+ * file instead of writing to it, and waits for the changes to settle before
+ * reloading so that a file being written is not read half way.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+final class PropertiesWatcher implements Runnable {
+
+   private final static String THREAD_NAME = "properties-watcher";
+   private final static long SETTLE_MILLIS = 200;
+
+   private final PropertiesBase m_properties;
+   private final Path m_file;
+   private final WatchService m_watchService;
+
+   /**
+    * Constructs the watcher and starts its background thread.
+    *
+    * @param _properties
+    *           the properties to reload
+    * @param _file
+    *           the properties file
+    * @throws IOException
+    *            if the directory of the file cannot be watched
+    */
+   PropertiesWatcher(PropertiesBase _properties, Path _file) throws IOException {
+      m_properties = _properties;
+      m_file = _file.toAbsolutePath();
+      m_watchService = m_file.getFileSystem().newWatchService();
+      try {
+         m_file.getParent().register(m_watchService, ENTRY_CREATE, ENTRY_MODIFY);
+      }
+      catch (IOException | RuntimeException _e) {
+         m_watchService.close();
+         throw _e;
+      }
+      Thread worker = new Thread(this, THREAD_NAME);
+      worker.setDaemon(true);
+      worker.start();
+   }
+
+   /**
+    * Waits for changes to the properties file and reloads it.
+    */
+   @Override
+   public void run() {
+      try {
+         while (true) {
+            if (changed(m_watchService.take())) {
+               Thread.sleep(SETTLE_MILLIS);
+               for (WatchKey key = m_watchService.poll(); key != null; key = m_watchService.poll()) {
+                  changed(key);
+               }
+               m_properties.reload();
+            }
+         }
+      }
+      catch (InterruptedException | ClosedWatchServiceException _e) {
+         return;
+      }
+      catch (RuntimeException _e) {
+         Logger.getLogger().error("Stopped watching %s, message: %s", m_file, _e.toString());
+      }
+   }
+
+   /**
+    * Consumes the events of a watch key and resets it.
+    *
+    * @param _key
+    *           the signalled watch key
+    * @return true if one of the events may be a change to the properties file
+    */
+   private boolean changed(WatchKey _key) {
+      boolean changed = false;
+      for (WatchEvent<?> event : _key.pollEvents()) {
+         if (event.kind() == OVERFLOW || m_file.getFileName().equals(event.context())) {
+            changed = true;
+         }
+      }
+      if (!_key.reset()) {
+         throw new IllegalStateException("Directory " + m_file.getParent() + " is no longer accessible!");
+      }
+      return changed;
+   }
+}
@@ -0,0 +1,36 @@
+package com.chanytime.baseproject.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * ConfigurationLoadEvent is the Java Flight Recorder event for loading or
+ * reloading the project properties.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+@Name("com.chanytime.baseproject.ConfigurationLoad")
+@Label("Configuration Load")
+@Category({ "Base Project", "Configuration" })
+@Description("The project properties were loaded or reloaded")
+public final class ConfigurationLoadEvent extends jdk.jfr.Event {
+
+   @Name("source")
+   @Label("Source")
+   public String m_source;
+
+   @Name("reload")
+   @Label("Reload")
+   public boolean m_reload;
+
+   @Name("keys")
+   @Label("Keys")
+   public int m_keys;
+
+   @Name("valid")
+   @Label("Valid")
+   public boolean m_valid;
+}
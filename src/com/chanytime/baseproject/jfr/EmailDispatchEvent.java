@@ -0,0 +1,30 @@
+package com.chanytime.baseproject.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * EmailDispatchEvent is the Java Flight Recorder event for an exception email
+ * sent by the logger. Its duration covers building the email and the SMTP
+ * round trip.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+@Name("com.chanytime.baseproject.EmailDispatch")
+@Label("Exception Email")
+@Category({ "Base Project", "Email" })
+@Description("An exception email sent to the logger email destination")
+public final class EmailDispatchEvent extends jdk.jfr.Event {
+
+   @Name("subject")
+   @Label("Subject")
+   public String m_subject;
+
+   @Name("outcome")
+   @Label("Outcome")
+   @Description("sent, failed or error")
+   public String m_outcome;
+}
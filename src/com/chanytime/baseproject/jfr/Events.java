@@ -0,0 +1,34 @@
+package com.chanytime.baseproject.jfr;
+
+import jdk.jfr.FlightRecorder;
+
+/**
+ * Events tells whether the Java Flight Recorder has been started in this JVM.
+ * Loading the first event class initializes the flight recorder, which takes
+ * a noticeable part of a second, so the event classes are used only once a
+ * recording has been started, from the command line or with jcmd. Callers
+ * check this before touching an event class:
+ *
+ * <pre>
+ * {@code
+ * LogStatementEvent jfr = Events.isActive() ? LogStatementEvent.start() : null;
+ * }
+ * </pre>
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+public final class Events {
+
+   private Events() {
+   }
+
+   /**
+    * Retrieves whether the flight recorder has been started.
+    *
+    * @return true if events can be recorded false otherwise
+    */
+   public static boolean isActive() {
+      return FlightRecorder.isInitialized();
+   }
+}
@@ -0,0 +1,93 @@
+package com.chanytime.baseproject.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import org.apache.log4j.Level;
+
+/**
+ * LogStatementEvent is the Java Flight Recorder event for a statement passed
+ * to the appenders. Its duration is the time spent in the appenders. When the
+ * event is not enabled in a recording, start returns null and no event object
+ * is created.
+ *
+ * <pre>
+ * {@code
+ * LogStatementEvent jfr = Events.isActive() ? LogStatementEvent.start() : null;
+ * callAppenders(event);
+ * if (jfr != null) {
+ *    jfr.end(event.getLevel(), event.getLoggerName(), caller, event.getRenderedMessage());
+ * }
+ * }
+ * </pre>
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+@Name("com.chanytime.baseproject.LogStatement")
+@Label("Log Statement")
+@Category({ "Base Project", "Logging" })
+@Description("A statement passed to the log4j appenders")
+@StackTrace(false)
+public final class LogStatementEvent extends jdk.jfr.Event {
+
+   private final static EventType m_type = EventType.getEventType(LogStatementEvent.class);
+
+   @Name("level")
+   @Label("Level")
+   String m_level;
+
+   @Name("logger")
+   @Label("Logger")
+   String m_logger;
+
+   @Name("callSite")
+   @Label("Call Site")
+   String m_callSite;
+
+   @Name("messageLength")
+   @Label("Message Length")
+   @Description("The number of characters in the rendered message")
+   int m_messageLength;
+
+   /**
+    * Starts timing a statement if the event is enabled.
+    *
+    * @return the started event, or null if the event is not enabled
+    */
+   public static LogStatementEvent start() {
+      if (!m_type.isEnabled()) {
+         return null;
+      }
+      LogStatementEvent event = new LogStatementEvent();
+      event.begin();
+      return event;
+   }
+
+   /**
+    * Ends the event and commits it if it passes the recording's threshold.
+    *
+    * @param _level
+    *           the level of the statement
+    * @param _logger
+    *           the name of the logger
+    * @param _callSite
+    *           the class and method that logged the statement, or null
+    * @param _message
+    *           the rendered message, or null
+    */
+   public void end(Level _level, String _logger, Object _callSite, String _message) {
+      end();
+      if (shouldCommit()) {
+         m_level = String.valueOf(_level);
+         m_logger = _logger;
+         m_callSite = (_callSite == null) ? null : _callSite.toString();
+         m_messageLength = (_message == null) ? 0 : _message.length();
+         commit();
+      }
+   }
+}
@@ -0,0 +1,478 @@
+package com.chanytime.baseproject.log;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Category;
+import org.apache.log4j.Level;
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.LoggingEvent;
+
+import com.chanytime.baseproject.jfr.Events;
+import com.chanytime.baseproject.jfr.LogStatementEvent;
+import com.chanytime.baseproject.metrics.Metrics;
+
+/**
+ * AsyncLogDispatcher moves the work of calling appenders off of the logging
+ * thread. Logging threads publish statements into a bounded ring buffer of
+ * pre-allocated slots without taking a lock, and a single background thread
+ * drains the buffer in batches and calls the appenders.
+ * <p>
+ * The session ID and the caller are captured when a statement is published
+ * and are handed to the appenders as the MDC of the event, so layouts that
+ * use %X{sessionID} and %X{classMethod} render the publishing thread's
+ * values. Other MDC keys are not captured.
+ * <p>
+ * If the background thread dies, for instance because an appender throws an
+ * Error it cannot recover from, the dispatcher stops accepting statements and
+ * callers log synchronously instead of waiting for room that never comes.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+final class AsyncLogDispatcher implements Runnable {
+
+   /**
+    * Slot holds one published statement until the consumer drains it. A slot
+    * published without a logger was cancelled by its producer and is skipped.
+    */
+   private static final class Slot {
+      Logger m_logger;
+      Level m_level;
+      long m_timestamp;
+      String m_threadName;
+      Object m_sessionID;
+      String m_classMethod;
+      Object m_message;
+
+      /**
+       * Builds the log4j event for this slot.
+       *
+       * @return the event with the captured MDC values
+       */
+      LoggingEvent toEvent() {
+         Hashtable<String, Object> mdc = new Hashtable<String, Object>(4);
+         if (m_sessionID != null) {
+            mdc.put(Logger.MDC_SESSION_ID_KEY, m_sessionID);
+         }
+         if (m_classMethod != null) {
+            mdc.put(Logger.MDC_CLASS_METHOD_KEY, m_classMethod);
+         }
+         return new LoggingEvent(Logger.FQCN, m_logger, m_timestamp, m_level, m_message, m_threadName, null, null, null, mdc);
+      }
+
+      /**
+       * Releases the references held by this slot.
+       */
+      void clear() {
+         m_logger = null;
+         m_level = null;
+         m_threadName = null;
+         m_sessionID = null;
+         m_classMethod = null;
+         m_message = null;
+      }
+   }
+
+   private final static String THREAD_NAME = "async-logger";
+   private final static int MAX_BATCH_SIZE = 256;
+   private final static int SPINS_BEFORE_YIELD = 64;
+   private final static int YIELDS_BEFORE_PARK = 128;
+   private final static long PRODUCER_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+   private final static long CONSUMER_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+   private final static long DROP_REPORT_INTERVAL_MILLIS = 1000;
+
+   private final Slot[] m_slots;
+   private final AtomicLongArray m_sequences;
+   private final int m_mask;
+   private final AtomicLong m_tail = new AtomicLong();
+   private volatile long m_head = 0;
+
+   private final Logger m_reporter;
+   private final AsyncOverflowPolicy m_policy;
+   private final int m_sampleRate;
+   private final AtomicLong m_overflowCount = new AtomicLong();
+   private final AtomicLong m_droppedCount = new AtomicLong();
+   private long m_lastDropReport = 0;
+   private final ArrayList<Logger> m_batchLoggers = new ArrayList<Logger>();
+
+   private final Thread m_consumer;
+   private final Thread m_shutdownHook;
+   private volatile boolean m_running = true;
+   private volatile boolean m_consumerParked = false;
+
+   /**
+    * Constructs and starts a dispatcher.
+    *
+    * @param _reporter
+    *           the logger used to report statements dropped on overflow
+    * @param _bufferSize
+    *           the number of slots in the ring buffer, rounded up to a power of
+    *           two
+    * @param _policy
+    *           what to do when the buffer is full
+    * @param _sampleRate
+    *           for the SAMPLE policy, one in this many statements below WARN is
+    *           kept when the buffer is full
+    */
+   AsyncLogDispatcher(Logger _reporter, int _bufferSize, AsyncOverflowPolicy _policy, int _sampleRate) {
+      if (_bufferSize < 2) {
+         throw new IllegalArgumentException("Buffer size must be at least 2!");
+      }
+      int capacity = Integer.highestOneBit(_bufferSize - 1) << 1;
+      m_slots = new Slot[capacity];
+      m_sequences = new AtomicLongArray(capacity);
+      for (int i = 0; i < capacity; i++) {
+         m_slots[i] = new Slot();
+         m_sequences.set(i, i);
+      }
+      m_mask = capacity - 1;
+      m_reporter = _reporter;
+      m_policy = (_policy == null) ? AsyncOverflowPolicy.BLOCK : _policy;
+      m_sampleRate = Math.max(1, _sampleRate);
+
+      m_consumer = new Thread(this, THREAD_NAME);
+      m_consumer.setDaemon(true);
+      m_consumer.start();
+
+      m_shutdownHook = new Thread(new Runnable() {
+         @Override
+         public void run() {
+            stop(TimeUnit.SECONDS.toMillis(5));
+         }
+      }, THREAD_NAME + "-shutdown");
+      Runtime.getRuntime().addShutdownHook(m_shutdownHook);
+   }
+
+   /**
+    * Publishes a statement to be passed to the appenders by the background
+    * thread.
+    *
+    * @param _logger
+    *           the logger whose appenders receive the statement
+    * @param _level
+    *           the level of the statement
+    * @param _sessionID
+    *           the session ID of the publishing thread, or null
+    * @param _classMethod
+    *           the caller of the logger, or null
+    * @param _message
+    *           the message
+    * @return true if the statement was published or deliberately dropped,
+    *         false if the caller must log it synchronously
+    */
+   boolean publish(Logger _logger, Level _level, Object _sessionID, String _classMethod, Object _message) {
+      if (!m_running || Thread.currentThread() == m_consumer) {
+         return false;
+      }
+      long timestamp = System.currentTimeMillis();
+      long position = claim(_level);
+      if (position < 0) {
+         return m_running;
+      }
+      int index = (int) position & m_mask;
+      if (!m_running) {
+         // stop() began after the check above, so the consumer may already
+         // have exited. The slot is released empty and the caller logs the
+         // statement itself.
+         m_sequences.set(index, position + 1);
+         return false;
+      }
+      Slot slot = m_slots[index];
+      slot.m_logger = _logger;
+      slot.m_level = _level;
+      slot.m_timestamp = timestamp;
+      slot.m_threadName = Thread.currentThread().getName();
+      slot.m_sessionID = _sessionID;
+      slot.m_classMethod = _classMethod;
+      slot.m_message = _message;
+      m_sequences.lazySet(index, position + 1);
+      if (m_consumerParked) {
+         LockSupport.unpark(m_consumer);
+      }
+      return true;
+   }
+
+   /**
+    * Waits until every statement published before this call has been passed
+    * to the appenders.
+    *
+    * @param _timeoutMillis
+    *           the maximum time to wait
+    * @return true if the buffer was flushed false if the wait timed out
+    */
+   boolean flush(long _timeoutMillis) {
+      long target = m_tail.get();
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(_timeoutMillis);
+      while (m_head < target) {
+         if (!m_consumer.isAlive() || System.nanoTime() - deadline > 0) {
+            return m_head >= target;
+         }
+         LockSupport.unpark(m_consumer);
+         LockSupport.parkNanos(this, PRODUCER_PARK_NANOS);
+      }
+      return true;
+   }
+
+   /**
+    * Stops the background thread after it drains the buffer. Statements
+    * published afterwards are rejected so that callers log them synchronously.
+    * A producer that claimed a slot before the dispatcher stopped either
+    * publishes into it, and the consumer waits for it, or sees the stop and
+    * logs its statement itself, so no statement is lost.
+    *
+    * @param _timeoutMillis
+    *           the maximum time to wait for the buffer to drain
+    */
+   void stop(long _timeoutMillis) {
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(_timeoutMillis);
+      m_running = false;
+      LockSupport.unpark(m_consumer);
+      try {
+         m_consumer.join(_timeoutMillis);
+      }
+      catch (InterruptedException _e) {
+         Thread.currentThread().interrupt();
+      }
+      if (!m_consumer.isAlive()) {
+         drain(Integer.MAX_VALUE);
+         while (m_head != m_tail.get() && System.nanoTime() - deadline < 0) {
+            LockSupport.parkNanos(this, PRODUCER_PARK_NANOS);
+            drain(Integer.MAX_VALUE);
+         }
+      }
+      try {
+         Runtime.getRuntime().removeShutdownHook(m_shutdownHook);
+      }
+      catch (IllegalStateException _e) {
+         // The JVM is already shutting down, possibly from this very hook.
+      }
+   }
+
+   /**
+    * Drains the buffer until the dispatcher is stopped and the buffer is
+    * empty. If the thread dies, the dispatcher stops accepting statements, and
+    * those left in the buffer are passed to the appenders by stop.
+    */
+   @Override
+   public void run() {
+      try {
+         while (true) {
+            if (drain(MAX_BATCH_SIZE) == 0) {
+               if (!m_running && m_head == m_tail.get()) {
+                  break;
+               }
+               m_consumerParked = true;
+               if (!isReadable(m_head)) {
+                  LockSupport.parkNanos(this, CONSUMER_PARK_NANOS);
+               }
+               m_consumerParked = false;
+            }
+            reportDropped();
+         }
+         reportDropped();
+      }
+      catch (Throwable _t) {
+         LogLog.error("Asynchronous logger stopped, logging synchronously from now on", _t);
+      }
+      finally {
+         m_running = false;
+      }
+   }
+
+   /**
+    * Claims the next position in the ring buffer, applying the overflow policy
+    * if the buffer is full.
+    *
+    * @param _level
+    *           the level of the statement being published
+    * @return the claimed position, or -1 if the statement is dropped
+    */
+   private long claim(Level _level) {
+      int attempts = 0;
+      while (true) {
+         long position = m_tail.get();
+         int index = (int) position & m_mask;
+         long difference = m_sequences.get(index) - position;
+         if (difference == 0) {
+            if (m_tail.compareAndSet(position, position + 1)) {
+               return position;
+            }
+         }
+         else if (difference < 0) {
+            if (attempts == 0 && shouldDrop(_level)) {
+               m_droppedCount.incrementAndGet();
+               Metrics.SUPPRESSED_EVENTS.increment(_level);
+               return -1;
+            }
+            if (!m_running) {
+               return -1;
+            }
+            backOff(++attempts);
+         }
+      }
+   }
+
+   /**
+    * Decides whether a statement is dropped because the buffer is full.
+    *
+    * @param _level
+    *           the level of the statement
+    * @return true if the statement is dropped false if it waits for room
+    */
+   private boolean shouldDrop(Level _level) {
+      if (m_policy == AsyncOverflowPolicy.BLOCK || _level.isGreaterOrEqual(Level.WARN)) {
+         return false;
+      }
+      if (m_policy == AsyncOverflowPolicy.DROP_BELOW_WARN) {
+         return true;
+      }
+      return m_overflowCount.incrementAndGet() % m_sampleRate != 0;
+   }
+
+   /**
+    * Waits for the consumer to make room, spinning first, then yielding and
+    * finally parking.
+    *
+    * @param _attempts
+    *           the number of times the caller has found the buffer full
+    */
+   private void backOff(int _attempts) {
+      if (_attempts < SPINS_BEFORE_YIELD) {
+         Thread.onSpinWait();
+      }
+      else if (_attempts < SPINS_BEFORE_YIELD + YIELDS_BEFORE_PARK) {
+         Thread.yield();
+      }
+      else {
+         LockSupport.unpark(m_consumer);
+         LockSupport.parkNanos(this, PRODUCER_PARK_NANOS);
+      }
+   }
+
+   /**
+    * Checks whether the slot at a position has been published.
+    *
+    * @param _position
+    *           the position to check
+    * @return true if the slot can be read false otherwise
+    */
+   private boolean isReadable(long _position) {
+      return m_sequences.get((int) _position & m_mask) == _position + 1;
+   }
+
+   /**
+    * Passes up to the specified number of published statements to their
+    * appenders.
+    *
+    * @param _maxBatchSize
+    *           the maximum number of statements to drain
+    * @return the number of statements drained
+    */
+   private int drain(int _maxBatchSize) {
+      long head = m_head;
+      int drained = 0;
+      try {
+         while (drained < _maxBatchSize && isReadable(head)) {
+            int index = (int) head & m_mask;
+            Slot slot = m_slots[index];
+            Logger logger = slot.m_logger;
+            LoggingEvent event = (logger == null) ? null : slot.toEvent();
+            slot.clear();
+            m_sequences.lazySet(index, head + m_slots.length);
+            head++;
+            drained++;
+            if (logger != null) {
+               dispatch(logger, event);
+               if (!m_batchLoggers.contains(logger)) {
+                  m_batchLoggers.add(logger);
+               }
+            }
+         }
+      }
+      finally {
+         m_head = head;
+      }
+      for (Logger logger : m_batchLoggers) {
+         endBatch(logger);
+      }
+      m_batchLoggers.clear();
+      return drained;
+   }
+
+   /**
+    * Tells every BatchAwareAppender that receives the events of a logger that
+    * a batch has ended.
+    *
+    * @param _logger
+    *           the logger whose events were in the batch
+    */
+   private void endBatch(Logger _logger) {
+      for (Category category = _logger; category != null; category = category.getParent()) {
+         for (Enumeration<?> e = category.getAllAppenders(); e.hasMoreElements();) {
+            Object appender = e.nextElement();
+            if (appender instanceof BatchAwareAppender) {
+               try {
+                  ((BatchAwareAppender) appender).endBatch();
+               }
+               catch (Throwable _e) {
+                  LogLog.error("Caught exception in asynchronous logger", _e);
+               }
+            }
+         }
+         if (!category.getAdditivity()) {
+            break;
+         }
+      }
+   }
+
+   /**
+    * Passes an event to the appenders of a logger, keeping the background
+    * thread alive if an appender fails, even with an Error such as a
+    * StackOverflowError from a layout.
+    *
+    * @param _logger
+    *           the logger whose appenders receive the event
+    * @param _event
+    *           the event
+    */
+   private void dispatch(Logger _logger, LoggingEvent _event) {
+      long start = System.nanoTime();
+      LogStatementEvent jfr = Events.isActive() ? LogStatementEvent.start() : null;
+      try {
+         _logger.callAppenders(_event);
+         if (jfr != null) {
+            jfr.end(_event.getLevel(), _event.getLoggerName(), _event.getMDC(Logger.MDC_CLASS_METHOD_KEY),
+                  _event.getRenderedMessage());
+         }
+         Metrics.LOGGED_EVENTS.increment(_event.getLevel());
+         Metrics.APPEND_TIME.recordSince(start);
+      }
+      catch (Throwable _e) {
+         LogLog.error("Caught exception in asynchronous logger", _e);
+      }
+   }
+
+   /**
+    * Logs, at most once per interval, how many statements were dropped because
+    * the buffer was full.
+    */
+   private void reportDropped() {
+      if (m_droppedCount.get() == 0) {
+         return;
+      }
+      long now = System.currentTimeMillis();
+      if (now - m_lastDropReport < DROP_REPORT_INTERVAL_MILLIS && m_running) {
+         return;
+      }
+      m_lastDropReport = now;
+      long dropped = m_droppedCount.getAndSet(0);
+      dispatch(m_reporter, new LoggingEvent(Logger.FQCN, m_reporter, now, Level.WARN, "Asynchronous logger dropped "
+            + dropped + " statements because its buffer was full", null));
+   }
+}
@@ -0,0 +1,30 @@
+package com.chanytime.baseproject.log;
+
+/**
+ * AsyncOverflowPolicy specifies what the asynchronous logger does when its
+ * buffer is full and a thread tries to log another statement.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ * @see Logger#startAsync(int, AsyncOverflowPolicy, int)
+ */
+public enum AsyncOverflowPolicy {
+
+   /**
+    * The logging thread waits until there is room in the buffer. No statements
+    * are lost.
+    */
+   BLOCK,
+
+   /**
+    * Statements below WARN are dropped; WARN and above wait for room in the
+    * buffer.
+    */
+   DROP_BELOW_WARN,
+
+   /**
+    * One in every N statements below WARN waits for room in the buffer and the
+    * rest are dropped; WARN and above always wait for room.
+    */
+   SAMPLE
+}
@@ -0,0 +1,21 @@
+package com.chanytime.baseproject.log;
+
+import org.apache.log4j.Appender;
+
+/**
+ * BatchAwareAppender is an appender that wants to know when the asynchronous
+ * logger has finished passing it a batch of events, e.g., to flush its output
+ * once per batch instead of once per event.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ * @see Logger#startAsync(int, AsyncOverflowPolicy, int)
+ */
+public interface BatchAwareAppender extends Appender {
+
+   /**
+    * Called by the asynchronous logger after it passes a batch of events to
+    * the appenders of a logger.
+    */
+   void endBatch();
+}
@@ -0,0 +1,253 @@
+package com.chanytime.baseproject.log;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Level;
+
+/**
+ * CallSiteLimiter applies CallSitePolicy objects to the statements logged from
+ * each call site, identified by the same "Class.method" string that the logger
+ * places in the MDC. When no policy is configured, checking costs a single
+ * volatile read and no call site is resolved.
+ * <p>
+ * A background thread logs how many statements each call site suppressed,
+ * once per summary interval of the call site's policy.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+final class CallSiteLimiter {
+
+   /**
+    * SiteState holds the counters of one call site.
+    */
+   private static final class SiteState {
+      final String m_callSite;
+      final CallSitePolicy m_policy;
+      final AtomicLong m_seen = new AtomicLong();
+      final AtomicLong m_suppressed = new AtomicLong();
+      volatile Logger m_logger = null;
+      volatile Level m_suppressedLevel = null;
+      volatile long m_periodStart;
+      private double m_tokens;
+      private long m_lastRefillNanos;
+
+      SiteState(String _callSite, CallSitePolicy _policy) {
+         m_callSite = _callSite;
+         m_policy = _policy;
+         m_periodStart = System.currentTimeMillis();
+         m_tokens = _policy.getCount();
+         m_lastRefillNanos = System.nanoTime();
+      }
+
+      /**
+       * Decides whether a statement may be logged, counting it as suppressed
+       * otherwise.
+       *
+       * @param _logger
+       *           the logger the statement was logged to
+       * @param _level
+       *           the level of the statement
+       * @return true if the statement may be logged false otherwise
+       */
+      boolean tryAcquire(Logger _logger, Level _level) {
+         boolean allowed;
+         switch (m_policy.getKind()) {
+         case SAMPLE:
+            allowed = m_seen.getAndIncrement() % m_policy.getCount() == 0;
+            break;
+         case RATE_LIMIT:
+            allowed = takeToken();
+            break;
+         default:
+            allowed = m_seen.incrementAndGet() <= m_policy.getCount();
+            break;
+         }
+         if (!allowed) {
+            m_logger = _logger;
+            m_suppressedLevel = _level;
+            m_suppressed.incrementAndGet();
+         }
+         return allowed;
+      }
+
+      private synchronized boolean takeToken() {
+         long now = System.nanoTime();
+         m_tokens = Math.min(m_policy.getCount(), m_tokens + (now - m_lastRefillNanos) * m_policy.getPermitsPerSecond()
+               / TimeUnit.SECONDS.toNanos(1));
+         m_lastRefillNanos = now;
+         if (m_tokens < 1) {
+            return false;
+         }
+         m_tokens -= 1;
+         return true;
+      }
+
+      /**
+       * Logs the number of suppressed statements if the summary interval has
+       * passed, and starts a new period.
+       *
+       * @param _now
+       *           the current time
+       */
+      void summarizeIfDue(long _now) {
+         long periodStart = m_periodStart;
+         if (_now - periodStart < m_policy.getSummaryIntervalMillis()) {
+            return;
+         }
+         m_periodStart = _now;
+         if (m_policy.getKind() == CallSitePolicy.Kind.FIRST_THEN_SUMMARIZE) {
+            m_seen.set(0);
+         }
+         long suppressed = m_suppressed.getAndSet(0);
+         Logger logger = m_logger;
+         if (suppressed > 0 && logger != null) {
+            logger.logSummary(m_suppressedLevel, "Suppressed " + suppressed + " statements from " + m_callSite
+                  + " in the last " + (_now - periodStart) + " ms", m_callSite);
+         }
+      }
+   }
+
+   private final static String THREAD_NAME = "call-site-limiter";
+   private final static long SUMMARY_TICK_MILLIS = 1000;
+
+   private final static ConcurrentHashMap<String, CallSitePolicy> m_policies = new ConcurrentHashMap<String, CallSitePolicy>();
+   private final static ConcurrentHashMap<String, SiteState> m_states = new ConcurrentHashMap<String, SiteState>();
+
+   private static volatile CallSitePolicy m_defaultPolicy = null;
+   private static volatile boolean m_active = false;
+   private static ScheduledExecutorService m_summarizer = null;
+
+   private CallSiteLimiter() {
+   }
+
+   /**
+    * Checks whether any policy is configured.
+    *
+    * @return true if statements may be limited false otherwise
+    */
+   static boolean isActive() {
+      return m_active;
+   }
+
+   /**
+    * Sets the policy for one call site.
+    *
+    * @param _callSite
+    *           the call site as "Class.method"
+    * @param _policy
+    *           the policy, or null to remove it
+    */
+   static synchronized void setPolicy(String _callSite, CallSitePolicy _policy) {
+      if (_policy == null) {
+         m_policies.remove(_callSite);
+      }
+      else {
+         m_policies.put(_callSite, _policy);
+      }
+      m_states.remove(_callSite);
+      updateActive();
+   }
+
+   /**
+    * Sets the policy for every call site without a policy of its own.
+    *
+    * @param _policy
+    *           the policy, or null to remove it
+    */
+   static synchronized void setDefaultPolicy(CallSitePolicy _policy) {
+      m_defaultPolicy = _policy;
+      m_states.clear();
+      updateActive();
+   }
+
+   /**
+    * Removes every policy.
+    */
+   static synchronized void clear() {
+      m_policies.clear();
+      m_defaultPolicy = null;
+      m_states.clear();
+      updateActive();
+   }
+
+   /**
+    * Decides whether a statement from a call site may be logged. Callers should
+    * check isActive() first.
+    *
+    * @param _logger
+    *           the logger the statement was logged to
+    * @param _callSite
+    *           the call site as "Class.method"
+    * @param _level
+    *           the level of the statement
+    * @return true if the statement may be logged false if it is suppressed
+    */
+   static boolean tryAcquire(Logger _logger, String _callSite, Level _level) {
+      SiteState state = m_states.get(_callSite);
+      if (state == null) {
+         CallSitePolicy policy = m_policies.get(_callSite);
+         if (policy == null) {
+            policy = m_defaultPolicy;
+            if (policy == null) {
+               return true;
+            }
+         }
+         state = new SiteState(_callSite, policy);
+         SiteState existing = m_states.putIfAbsent(_callSite, state);
+         if (existing != null) {
+            state = existing;
+         }
+      }
+      return state.tryAcquire(_logger, _level);
+   }
+
+   /**
+    * Logs the suppression counts of every call site that is due.
+    */
+   private static void summarize() {
+      long now = System.currentTimeMillis();
+      for (SiteState state : m_states.values()) {
+         try {
+            state.summarizeIfDue(now);
+         }
+         catch (RuntimeException _e) {
+            // Keep summarizing the remaining call sites.
+         }
+      }
+   }
+
+   /**
+    * Updates the active flag and starts or stops the background thread that
+    * logs suppression counts.
+    */
+   private static void updateActive() {
+      m_active = m_defaultPolicy != null || !m_policies.isEmpty();
+      if (m_active && m_summarizer == null) {
+         m_summarizer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable _runnable) {
+               Thread thread = new Thread(_runnable, THREAD_NAME);
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+         m_summarizer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+               summarize();
+            }
+         }, SUMMARY_TICK_MILLIS, SUMMARY_TICK_MILLIS, TimeUnit.MILLISECONDS);
+      }
+      else if (!m_active && m_summarizer != null) {
+         summarize();
+         m_summarizer.shutdown();
+         m_summarizer = null;
+      }
+   }
+}
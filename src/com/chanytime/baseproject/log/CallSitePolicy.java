@@ -0,0 +1,119 @@
+package com.chanytime.baseproject.log;
+
+/**
+ * CallSitePolicy limits how many statements a single call site may log. A
+ * policy is one of the following:
+ * <ul>
+ * <li>sampling, which logs one in every N statements
+ * <li>rate limiting, which logs statements as long as a token bucket refilled
+ * at a fixed rate has tokens
+ * <li>first-then-summarize, which logs the first K statements of each period
+ * </ul>
+ * The number of statements suppressed at a call site is logged periodically
+ * so that the information is not lost.
+ * <p>
+ * The following is a way to limit a noisy call site.
+ *
+ * <pre>
+ * {@code
+ * Logger.setCallSitePolicy("OrderPoller.poll", CallSitePolicy.rateLimit(10.0, 50));
+ * }
+ * </pre>
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ * @see Logger#setCallSitePolicy(String, CallSitePolicy)
+ */
+public final class CallSitePolicy {
+
+   /**
+    * Kind is the way a policy limits statements.
+    */
+   enum Kind {
+      SAMPLE, RATE_LIMIT, FIRST_THEN_SUMMARIZE
+   }
+
+   private final static long DEFAULT_SUMMARY_INTERVAL_MILLIS = 60000;
+
+   private final Kind m_kind;
+   private final long m_count;
+   private final double m_permitsPerSecond;
+   private final long m_summaryIntervalMillis;
+
+   private CallSitePolicy(Kind _kind, long _count, double _permitsPerSecond, long _summaryIntervalMillis) {
+      m_kind = _kind;
+      m_count = _count;
+      m_permitsPerSecond = _permitsPerSecond;
+      m_summaryIntervalMillis = _summaryIntervalMillis;
+   }
+
+   /**
+    * Creates a policy that logs one in every N statements.
+    *
+    * @param _oneIn
+    *           N, the sampling rate
+    * @return the policy
+    */
+   public static CallSitePolicy sample(int _oneIn) {
+      if (_oneIn < 1) {
+         throw new IllegalArgumentException("Sampling rate must be at least 1!");
+      }
+      return new CallSitePolicy(Kind.SAMPLE, _oneIn, 0, DEFAULT_SUMMARY_INTERVAL_MILLIS);
+   }
+
+   /**
+    * Creates a policy that logs at most the specified number of statements per
+    * second on average, allowing bursts up to the specified size.
+    *
+    * @param _permitsPerSecond
+    *           the rate at which the token bucket refills
+    * @param _burst
+    *           the size of the token bucket
+    * @return the policy
+    */
+   public static CallSitePolicy rateLimit(double _permitsPerSecond, int _burst) {
+      if (_permitsPerSecond <= 0 || _burst < 1) {
+         throw new IllegalArgumentException("Invalid parameters to rateLimit!");
+      }
+      return new CallSitePolicy(Kind.RATE_LIMIT, _burst, _permitsPerSecond, DEFAULT_SUMMARY_INTERVAL_MILLIS);
+   }
+
+   /**
+    * Creates a policy that logs the first statements of each period and
+    * summarizes the rest at the end of the period.
+    *
+    * @param _first
+    *           the number of statements logged in each period
+    * @param _periodMillis
+    *           the length of a period
+    * @return the policy
+    */
+   public static CallSitePolicy firstThenSummarize(int _first, long _periodMillis) {
+      if (_first < 0 || _periodMillis < 1) {
+         throw new IllegalArgumentException("Invalid parameters to firstThenSummarize!");
+      }
+      return new CallSitePolicy(Kind.FIRST_THEN_SUMMARIZE, _first, 0, _periodMillis);
+   }
+
+   Kind getKind() {
+      return m_kind;
+   }
+
+   /**
+    * Retrieves the sampling rate, the bucket size or the number of statements
+    * per period, depending on the kind of policy.
+    *
+    * @return the count for this policy
+    */
+   long getCount() {
+      return m_count;
+   }
+
+   double getPermitsPerSecond() {
+      return m_permitsPerSecond;
+   }
+
+   long getSummaryIntervalMillis() {
+      return m_summaryIntervalMillis;
+   }
+}
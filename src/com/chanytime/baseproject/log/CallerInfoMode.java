@@ -0,0 +1,37 @@
+package com.chanytime.baseproject.log;
+
+/**
+ * CallerInfoMode controls when the logger resolves the class and method that
+ * called it, which is the value placed in the MDC under the classMethod key.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ * @see Logger#setCallerInfoMode(CallerInfoMode)
+ */
+public enum CallerInfoMode {
+
+   /**
+    * Resolves the caller for every enabled log statement. This matches the
+    * original behavior of the logger.
+    */
+   EAGER,
+
+   /**
+    * Resolves the caller only when an appender's layout actually renders the
+    * classMethod key. Only appenders that render on the logging thread see the
+    * correct caller in this mode.
+    */
+   ON_WRITE,
+
+   /**
+    * Never resolves the caller.
+    */
+   DISABLED,
+
+   /**
+    * Behaves like EAGER for a logger if any layout its statements reach
+    * references the classMethod key and like DISABLED otherwise. Each logger
+    * is inspected separately. This is the default.
+    */
+   AUTO
+}
@@ -0,0 +1,271 @@
+package com.chanytime.baseproject.log;
+
+import java.lang.StackWalker.StackFrame;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.apache.log4j.Appender;
+import org.apache.log4j.Category;
+import org.apache.log4j.Layout;
+import org.apache.log4j.PatternLayout;
+import org.apache.log4j.spi.AppenderAttachable;
+
+import com.chanytime.baseproject.metrics.Metrics;
+
+/**
+ * CallerResolver finds the class and method that called the logger. Instead of
+ * filling in an entire stack trace, it walks the stack lazily and stops at the
+ * first frame outside of the logger. The formatted "Class.method" string is
+ * cached per call site so that repeated log statements do not allocate.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+final class CallerResolver {
+
+   private final static String UNKNOWN_CALLER = "?";
+   private final static String CLASS_METHOD_REFERENCE = "classMethod";
+
+   private final static StackWalker m_walker = StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+
+   /**
+    * Skips frames up to and including the logger's own frames, and those of
+    * the log4j classes it extends, and returns the first frame after them.
+    */
+   private final static Function<Stream<StackFrame>, StackFrame> m_callerFinder = _frames -> {
+      boolean seenLogger = false;
+      for (Iterator<StackFrame> i = _frames.iterator(); i.hasNext();) {
+         StackFrame frame = i.next();
+         Class<?> type = frame.getDeclaringClass();
+         if (type == Logger.class || (seenLogger && Category.class.isAssignableFrom(type))) {
+            seenLogger = true;
+         }
+         else if (seenLogger) {
+            return frame;
+         }
+      }
+      return null;
+   };
+
+   /**
+    * Caches the formatted call-site string by declaring class and then by
+    * method name.
+    */
+   private final static ClassValue<ConcurrentHashMap<String, String>> m_callSites = new ClassValue<ConcurrentHashMap<String, String>>() {
+      @Override
+      protected ConcurrentHashMap<String, String> computeValue(Class<?> _type) {
+         return new ConcurrentHashMap<String, String>();
+      }
+   };
+
+   /**
+    * A stateless value that resolves the caller when a layout renders it. It
+    * relies on rendering happening on the logging thread, while the logger's
+    * frames are still on the stack.
+    */
+   private final static Object m_lazyCaller = new Object() {
+      @Override
+      public String toString() {
+         return resolve();
+      }
+   };
+
+   private static volatile CallerInfoMode m_mode = CallerInfoMode.AUTO;
+
+   /**
+    * Caches what the AUTO mode resolves to for each logger, since loggers
+    * reach different appenders. The map is replaced rather than cleared when
+    * it is invalidated, so a result computed from the old configuration
+    * cannot be stored after the invalidation.
+    */
+   private static volatile ConcurrentHashMap<Category, CallerInfoMode> m_effectiveModes = new ConcurrentHashMap<Category, CallerInfoMode>();
+
+   private CallerResolver() {
+   }
+
+   /**
+    * Sets the mode for resolving callers.
+    *
+    * @param _mode
+    *           the new mode; null restores the default of AUTO
+    */
+   static void setMode(CallerInfoMode _mode) {
+      m_mode = (_mode == null) ? CallerInfoMode.AUTO : _mode;
+      invalidate();
+   }
+
+   /**
+    * Retrieves the configured mode for resolving callers.
+    *
+    * @return the configured mode
+    */
+   static CallerInfoMode getMode() {
+      return m_mode;
+   }
+
+   /**
+    * Forgets the result of inspecting the layouts for the AUTO mode so that it
+    * is recomputed on the next log statement. This should be called if the
+    * log4j configuration is changed at runtime.
+    */
+   static void invalidate() {
+      m_effectiveModes = new ConcurrentHashMap<Category, CallerInfoMode>();
+   }
+
+   /**
+    * Retrieves the value to hand to the appenders as the caller of a statement
+    * that is rendered on the current thread, according to the current mode.
+    *
+    * @param _logger
+    *           the logger whose appenders are inspected for the AUTO mode
+    * @param _caller
+    *           the caller if it has already been resolved, or null
+    * @return the caller, an object that resolves the caller when it is
+    *         rendered, or null if callers are disabled
+    */
+   static Object valueFor(Category _logger, String _caller) {
+      switch (getEffectiveMode(_logger)) {
+      case EAGER:
+         return (_caller == null) ? resolve() : _caller;
+      case ON_WRITE:
+         return (_caller == null) ? m_lazyCaller : _caller;
+      default:
+         return null;
+      }
+   }
+
+   /**
+    * Retrieves the caller for a statement that is rendered on another thread.
+    * Since the stack is not available there, ON_WRITE behaves like EAGER.
+    *
+    * @param _logger
+    *           the logger whose appenders are inspected for the AUTO mode
+    * @param _caller
+    *           the caller if it has already been resolved, or null
+    * @return the caller, or null if callers are not resolved
+    */
+   static String resolveFor(Category _logger, String _caller) {
+      if (getEffectiveMode(_logger) == CallerInfoMode.DISABLED) {
+         return null;
+      }
+      return (_caller == null) ? resolve() : _caller;
+   }
+
+   /**
+    * Retrieves the "Class.method" string of the first caller outside of the
+    * logger.
+    *
+    * @return the caller, or "?" if it cannot be determined
+    */
+   static String resolve() {
+      long start = System.nanoTime();
+      StackFrame frame = m_walker.walk(m_callerFinder);
+      String caller = (frame == null) ? UNKNOWN_CALLER : format(frame.getDeclaringClass(), frame.getMethodName());
+      Metrics.CALLER_RESOLUTION_TIME.recordSince(start);
+      return caller;
+   }
+
+   /**
+    * Retrieves the cached "Class.method" string for a call site, creating it
+    * the first time the call site is seen.
+    *
+    * @param _class
+    *           the declaring class of the call site
+    * @param _methodName
+    *           the method name of the call site
+    * @return the formatted call site
+    */
+   static String format(Class<?> _class, String _methodName) {
+      ConcurrentHashMap<String, String> methods = m_callSites.get(_class);
+      String classMethod = methods.get(_methodName);
+      if (classMethod == null) {
+         String className = _class.getName();
+         classMethod = className.substring(className.lastIndexOf('.') + 1) + "." + _methodName;
+         String existing = methods.putIfAbsent(_methodName, classMethod);
+         if (existing != null) {
+            classMethod = existing;
+         }
+      }
+      return classMethod;
+   }
+
+   /**
+    * Resolves the AUTO mode into EAGER or DISABLED for a logger, caching the
+    * result per logger.
+    *
+    * @param _logger
+    *           the logger whose appenders are inspected
+    * @return the mode in effect
+    */
+   private static CallerInfoMode getEffectiveMode(Category _logger) {
+      CallerInfoMode mode = m_mode;
+      if (mode != CallerInfoMode.AUTO) {
+         return mode;
+      }
+      ConcurrentHashMap<Category, CallerInfoMode> effectiveModes = m_effectiveModes;
+      mode = effectiveModes.get(_logger);
+      if (mode == null) {
+         mode = layoutsUseCaller(_logger) ? CallerInfoMode.EAGER : CallerInfoMode.DISABLED;
+         effectiveModes.put(_logger, mode);
+      }
+      return mode;
+   }
+
+   /**
+    * Checks whether any appender reachable from the logger has a layout that
+    * may render the caller. Layouts other than PatternLayout are assumed to
+    * need it.
+    *
+    * @param _logger
+    *           the logger whose appenders are inspected
+    * @return true if the caller may be rendered false otherwise
+    */
+   private static boolean layoutsUseCaller(Category _logger) {
+      for (Category c = _logger; c != null; c = c.getParent()) {
+         if (appendersUseCaller(c.getAllAppenders())) {
+            return true;
+         }
+         if (!c.getAdditivity()) {
+            break;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Checks whether any of the appenders, or any appender attached to them,
+    * has a layout that may render the caller. The journal always keeps the
+    * caller.
+    *
+    * @param _appenders
+    *           the appenders to inspect
+    * @return true if the caller may be rendered false otherwise
+    */
+   private static boolean appendersUseCaller(Enumeration<?> _appenders) {
+      while (_appenders != null && _appenders.hasMoreElements()) {
+         Appender appender = (Appender) _appenders.nextElement();
+         if (appender instanceof JournalAppender) {
+            return true;
+         }
+         Layout layout = appender.getLayout();
+         if (layout instanceof PatternLayout || layout instanceof FastPatternLayout) {
+            String pattern = (layout instanceof PatternLayout) ? ((PatternLayout) layout).getConversionPattern()
+                  : ((FastPatternLayout) layout).getConversionPattern();
+            if (pattern != null && pattern.contains(CLASS_METHOD_REFERENCE)) {
+               return true;
+            }
+         }
+         else if (layout != null) {
+            return true;
+         }
+         if (appender instanceof AppenderAttachable
+               && appendersUseCaller(((AppenderAttachable) appender).getAllAppenders())) {
+            return true;
+         }
+      }
+      return false;
+   }
+}
@@ -0,0 +1,233 @@
+package com.chanytime.baseproject.log;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.Formattable;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CompiledFormat is a format string for the logger's sprintf-style methods
+ * that has been parsed once into literal text and conversions. Formats are
+ * cached by their string so that each call site is parsed only the first time
+ * it logs.
+ * <p>
+ * The plain %s, %d, %f, %n and %% conversions are rendered directly into a
+ * StringBuilder and produce the same output as String.format. Any other
+ * conversion, flag, width or precision, as well as arguments that String.format
+ * treats specially, fall back to String.format.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+final class CompiledFormat {
+
+   private final static int MAX_CACHED_FORMATS = 4096;
+   private final static int DEFAULT_FLOAT_PRECISION = 6;
+
+   /**
+    * Beyond this magnitude, the digits chosen for a double may differ between
+    * BigDecimal and String.format, so larger values fall back.
+    */
+   private final static double MAX_FAST_FLOAT = 1e9;
+
+   private final static char CONVERSION_STRING = 's';
+   private final static char CONVERSION_DECIMAL = 'd';
+   private final static char CONVERSION_FLOAT = 'f';
+
+   private final static ConcurrentHashMap<String, CompiledFormat> m_cache = new ConcurrentHashMap<String, CompiledFormat>();
+
+   private static volatile Locale m_plainLocale = null;
+
+   private final String m_format;
+   private final String[] m_literals;
+   private final char[] m_conversions;
+   private final boolean m_fallback;
+
+   /**
+    * Parses a format string.
+    *
+    * @param _format
+    *           the format string
+    */
+   private CompiledFormat(String _format) {
+      m_format = _format;
+      List<String> literals = new ArrayList<String>();
+      StringBuilder conversions = new StringBuilder();
+      StringBuilder literal = new StringBuilder();
+      boolean fallback = false;
+      int length = _format.length();
+      for (int i = 0; i < length && !fallback; i++) {
+         char c = _format.charAt(i);
+         if (c != '%') {
+            literal.append(c);
+            continue;
+         }
+         char conversion = (i + 1 < length) ? _format.charAt(++i) : 0;
+         switch (conversion) {
+         case '%':
+            literal.append('%');
+            break;
+         case 'n':
+            literal.append(System.lineSeparator());
+            break;
+         case CONVERSION_STRING:
+         case CONVERSION_DECIMAL:
+         case CONVERSION_FLOAT:
+            literals.add(literal.toString());
+            literal.setLength(0);
+            conversions.append(conversion);
+            break;
+         default:
+            fallback = true;
+            break;
+         }
+      }
+      literals.add(literal.toString());
+      m_literals = literals.toArray(new String[literals.size()]);
+      m_conversions = conversions.toString().toCharArray();
+      m_fallback = fallback;
+   }
+
+   /**
+    * Retrieves the compiled form of a format string, parsing and caching it
+    * the first time it is seen. Once the cache is full, new formats are parsed
+    * on every call but not cached.
+    *
+    * @param _format
+    *           the format string
+    * @return the compiled format
+    */
+   static CompiledFormat compile(String _format) {
+      CompiledFormat compiled = m_cache.get(_format);
+      if (compiled == null) {
+         compiled = new CompiledFormat(_format);
+         if (m_cache.size() < MAX_CACHED_FORMATS) {
+            CompiledFormat existing = m_cache.putIfAbsent(_format, compiled);
+            if (existing != null) {
+               compiled = existing;
+            }
+         }
+      }
+      return compiled;
+   }
+
+   /**
+    * Retrieves the format string this was compiled from.
+    *
+    * @return the format string
+    */
+   String getFormat() {
+      return m_format;
+   }
+
+   /**
+    * Renders the format with the specified arguments.
+    *
+    * @param _sb
+    *           the buffer to append to
+    * @param _args
+    *           arguments to the format
+    */
+   void appendTo(StringBuilder _sb, Object[] _args) {
+      int start = _sb.length();
+      if (m_fallback || !appendFast(_sb, _args)) {
+         _sb.setLength(start);
+         _sb.append(String.format(m_format, _args));
+      }
+   }
+
+   /**
+    * Renders the format without String.format.
+    *
+    * @param _sb
+    *           the buffer to append to
+    * @param _args
+    *           arguments to the format
+    * @return true if the format was rendered false if String.format is needed
+    */
+   private boolean appendFast(StringBuilder _sb, Object[] _args) {
+      int argCount = (_args == null) ? 0 : _args.length;
+      if (m_conversions.length > argCount || (m_conversions.length > 0 && !isPlainLocale())) {
+         return false;
+      }
+      for (int i = 0; i < m_conversions.length; i++) {
+         _sb.append(m_literals[i]);
+         Object arg = _args[i];
+         if (arg == null) {
+            _sb.append("null");
+            continue;
+         }
+         switch (m_conversions[i]) {
+         case CONVERSION_STRING:
+            if (arg instanceof Formattable) {
+               return false;
+            }
+            _sb.append(arg.toString());
+            break;
+         case CONVERSION_DECIMAL:
+            if (arg instanceof Integer || arg instanceof Long || arg instanceof Short || arg instanceof Byte) {
+               _sb.append(((Number) arg).longValue());
+            }
+            else if (arg instanceof BigInteger) {
+               _sb.append(arg.toString());
+            }
+            else {
+               return false;
+            }
+            break;
+         default:
+            if (!(arg instanceof Double || arg instanceof Float) || !appendFloat(_sb, ((Number) arg).doubleValue())) {
+               return false;
+            }
+            break;
+         }
+      }
+      _sb.append(m_literals[m_conversions.length]);
+      return true;
+   }
+
+   /**
+    * Renders a double the way %f does.
+    *
+    * @param _sb
+    *           the buffer to append to
+    * @param _value
+    *           the value
+    * @return true if the value was rendered false if String.format is needed
+    */
+   private static boolean appendFloat(StringBuilder _sb, double _value) {
+      if (Double.isNaN(_value) || Math.abs(_value) >= MAX_FAST_FLOAT) {
+         return false;
+      }
+      BigDecimal rounded = BigDecimal.valueOf(_value).setScale(DEFAULT_FLOAT_PRECISION, RoundingMode.HALF_UP);
+      if (rounded.signum() == 0 && (_value < 0 || Double.doubleToRawLongBits(_value) == Long.MIN_VALUE)) {
+         _sb.append('-');
+      }
+      _sb.append(rounded.toPlainString());
+      return true;
+   }
+
+   /**
+    * Checks whether the default format locale uses ASCII digits and a period
+    * as the decimal separator, which the fast path assumes.
+    *
+    * @return true if the locale is plain false otherwise
+    */
+   private static boolean isPlainLocale() {
+      Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+      if (locale == m_plainLocale) {
+         return true;
+      }
+      DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
+      if (symbols.getZeroDigit() == '0' && symbols.getDecimalSeparator() == '.') {
+         m_plainLocale = locale;
+         return true;
+      }
+      return false;
+   }
+}
@@ -0,0 +1,375 @@
+package com.chanytime.baseproject.log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import com.chanytime.baseproject.configuration.Properties;
+import com.chanytime.baseproject.jfr.EmailDispatchEvent;
+import com.chanytime.baseproject.jfr.Events;
+import com.chanytime.baseproject.log.SessionFlightRecorder.FlightRecording;
+import com.chanytime.baseproject.mail.EmailTemplates;
+import com.chanytime.baseproject.metrics.Metrics;
+import com.chanytime.baseproject.util.MiscUtil;
+
+/**
+ * ExceptionMailer sends exception emails from a background thread so that the
+ * thread that logged the exception never waits on SMTP. Exceptions are
+ * fingerprinted by their type and top stack frames. The first occurrence of a
+ * fingerprint is emailed right away while the send budget for the current
+ * window allows it; repeats, and anything over budget, are collapsed into a
+ * single digest email with counts at the end of the window.
+ * <p>
+ * Exceptions are handed over through a bounded queue. If the queue is full,
+ * the exception is counted and reported in the next digest instead of being
+ * queued.
+ * <p>
+ * The bodies are rendered from the exception.vm and digest.vm email templates.
+ * If the templates cannot be rendered, the same bodies are built in code.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+final class ExceptionMailer implements Runnable {
+
+   /**
+    * Report is an exception waiting to be processed by the background thread.
+    */
+   private static final class Report {
+      final Throwable m_throwable;
+      final Object m_sessionID;
+      final FlightRecording m_recent;
+      final long m_timestamp;
+
+      Report(Throwable _throwable, Object _sessionID, FlightRecording _recent, long _timestamp) {
+         m_throwable = _throwable;
+         m_sessionID = _sessionID;
+         m_recent = _recent;
+         m_timestamp = _timestamp;
+      }
+   }
+
+   /**
+    * Occurrences keeps the counts for one fingerprint.
+    */
+   private static final class Occurrences {
+      final String m_description;
+      final String m_sample;
+      long m_firstSeen;
+      long m_lastSeen;
+      Object m_lastSessionID;
+      int m_unreported = 0;
+
+      Occurrences(String _description, String _sample, long _timestamp) {
+         m_description = _description;
+         m_sample = _sample;
+         m_firstSeen = _timestamp;
+         m_lastSeen = _timestamp;
+      }
+   }
+
+   private final static String THREAD_NAME = "exception-mailer";
+   private final static String HTML_LINE_SEPARATOR = "<br/>";
+   private final static String EXCEPTION_TEMPLATE = "exception.vm";
+   private final static String DIGEST_TEMPLATE = "digest.vm";
+   private final static int QUEUE_CAPACITY = 1024;
+   private final static int FINGERPRINT_FRAMES = 3;
+   private final static int MAX_FINGERPRINTS = 1000;
+   private final static int EMAILS_PER_WINDOW = 10;
+   private final static long WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+   private final static ExceptionMailer m_instance = new ExceptionMailer();
+
+   private final BlockingQueue<Report> m_queue = new ArrayBlockingQueue<Report>(QUEUE_CAPACITY);
+   private final AtomicLong m_rejected = new AtomicLong();
+   private final Map<String, Occurrences> m_occurrences = new LinkedHashMap<String, Occurrences>();
+   private long m_windowStart = System.currentTimeMillis();
+   private int m_sentInWindow = 0;
+
+   /**
+    * Constructs the mailer and starts its background thread.
+    */
+   private ExceptionMailer() {
+      Thread worker = new Thread(this, THREAD_NAME);
+      worker.setDaemon(true);
+      worker.start();
+   }
+
+   /**
+    * Retrieves the global instance of the mailer.
+    *
+    * @return the global instance of the mailer
+    */
+   static ExceptionMailer getInstance() {
+      return m_instance;
+   }
+
+   /**
+    * Queues an exception to be emailed. This never blocks.
+    *
+    * @param _t
+    *           the exception
+    * @param _sessionID
+    *           the session ID of the logging thread, or null
+    * @param _recent
+    *           the recent activity of the session, or null
+    */
+   void submit(Throwable _t, Object _sessionID, FlightRecording _recent) {
+      if (!m_queue.offer(new Report(_t, _sessionID, _recent, System.currentTimeMillis()))) {
+         m_rejected.incrementAndGet();
+         Metrics.EXCEPTION_EMAILS.suppressed();
+      }
+   }
+
+   /**
+    * Processes queued exceptions and sends a digest at the end of every window
+    * that had unreported exceptions.
+    */
+   @Override
+   public void run() {
+      while (true) {
+         try {
+            long wait = m_windowStart + WINDOW_MILLIS - System.currentTimeMillis();
+            Report report = (wait > 0) ? m_queue.poll(wait, TimeUnit.MILLISECONDS) : null;
+            if (report != null) {
+               process(report);
+            }
+            if (System.currentTimeMillis() - m_windowStart >= WINDOW_MILLIS) {
+               sendDigest();
+               m_windowStart = System.currentTimeMillis();
+               m_sentInWindow = 0;
+            }
+         }
+         catch (InterruptedException _e) {
+            return;
+         }
+         catch (RuntimeException | LinkageError _e) {
+            Logger.getLogger().error("Caught exception trying to send exception email, message: %s", _e.toString());
+         }
+      }
+   }
+
+   /**
+    * Emails an exception right away if its fingerprint is new and the budget
+    * allows it; otherwise counts it for the digest.
+    *
+    * @param _report
+    *           the exception to process
+    */
+   private void process(Report _report) {
+      String fingerprint = fingerprint(_report.m_throwable);
+      Occurrences occurrences = m_occurrences.get(fingerprint);
+      if (occurrences == null) {
+         if (m_occurrences.size() >= MAX_FINGERPRINTS) {
+            m_rejected.incrementAndGet();
+            Metrics.EXCEPTION_EMAILS.suppressed();
+            return;
+         }
+         occurrences = new Occurrences(_report.m_throwable.toString(),
+               Logger.getStackTrace(_report.m_throwable, HTML_LINE_SEPARATOR), _report.m_timestamp);
+         m_occurrences.put(fingerprint, occurrences);
+         if (m_sentInWindow < EMAILS_PER_WINDOW) {
+            m_sentInWindow++;
+            occurrences.m_lastSessionID = _report.m_sessionID;
+            String recent = (_report.m_recent == null) ? null : _report.m_recent.render(HTML_LINE_SEPARATOR);
+            Map<String, Object> context = new HashMap<String, Object>();
+            context.put("stackTrace", occurrences.m_sample);
+            context.put("recent", recent);
+            String body = render(EXCEPTION_TEMPLATE, context);
+            if (body == null) {
+               body = occurrences.m_sample;
+               if (recent != null) {
+                  body += HTML_LINE_SEPARATOR + HTML_LINE_SEPARATOR + recent;
+               }
+            }
+            send("Session (" + sessionToString(_report.m_sessionID) + ") on " + MiscUtil.getComputerName()
+                  + " encountered an exception at " + new DateTime(_report.m_timestamp, DateTimeZone.UTC).toString()
+                  + "!", body);
+            return;
+         }
+      }
+      occurrences.m_unreported++;
+      Metrics.EXCEPTION_EMAILS.suppressed();
+      occurrences.m_lastSeen = _report.m_timestamp;
+      occurrences.m_lastSessionID = _report.m_sessionID;
+   }
+
+   /**
+    * Sends one email summarizing the exceptions that were not emailed
+    * individually during the window. Fingerprints that were quiet for the
+    * whole window are forgotten, so their next occurrence is emailed right
+    * away.
+    */
+   private void sendDigest() {
+      long rejected = m_rejected.getAndSet(0);
+      List<Occurrences> unreported = new ArrayList<Occurrences>();
+      long total = rejected;
+      for (Iterator<Occurrences> i = m_occurrences.values().iterator(); i.hasNext();) {
+         Occurrences occurrences = i.next();
+         if (occurrences.m_unreported > 0) {
+            unreported.add(occurrences);
+            total += occurrences.m_unreported;
+         }
+         else if (occurrences.m_lastSeen < m_windowStart) {
+            i.remove();
+         }
+      }
+      if (total == 0) {
+         return;
+      }
+
+      List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+      List<String> samples = new ArrayList<String>();
+      for (Occurrences occurrences : unreported) {
+         Map<String, Object> row = new HashMap<String, Object>();
+         row.put("count", occurrences.m_unreported);
+         row.put("description", occurrences.m_description);
+         row.put("firstSeen", new DateTime(occurrences.m_firstSeen, DateTimeZone.UTC).toString());
+         row.put("lastSeen", new DateTime(occurrences.m_lastSeen, DateTimeZone.UTC).toString());
+         row.put("session", sessionToString(occurrences.m_lastSessionID));
+         rows.add(row);
+         samples.add(occurrences.m_sample);
+         occurrences.m_unreported = 0;
+      }
+      Map<String, Object> context = new HashMap<String, Object>();
+      context.put("rows", rows);
+      context.put("rejected", rejected);
+      context.put("samples", samples);
+      String body = render(DIGEST_TEMPLATE, context);
+      if (body == null) {
+         body = digestBody(rows, rejected, samples);
+      }
+      send(MiscUtil.getComputerName() + " encountered " + total + " further exceptions between "
+            + new DateTime(m_windowStart, DateTimeZone.UTC).toString() + " and "
+            + DateTime.now(DateTimeZone.UTC).toString() + "!", body);
+   }
+
+   /**
+    * Builds the body of a digest in code, for when the digest template cannot
+    * be rendered.
+    *
+    * @param _rows
+    *           the columns of every exception, by name
+    * @param _rejected
+    *           the number of exceptions dropped because the queue was full
+    * @param _samples
+    *           the stack trace of every exception
+    * @return the HTML body
+    */
+   private static String digestBody(List<Map<String, Object>> _rows, long _rejected, List<String> _samples) {
+      StringBuilder body = new StringBuilder();
+      body.append("<table border=\"1\"><tr><th>Count</th><th>Exception</th><th>First seen</th>"
+            + "<th>Last seen</th><th>Last session</th></tr>");
+      for (Map<String, Object> row : _rows) {
+         body.append("<tr><td>").append(row.get("count"));
+         body.append("</td><td>").append(row.get("description"));
+         body.append("</td><td>").append(row.get("firstSeen"));
+         body.append("</td><td>").append(row.get("lastSeen"));
+         body.append("</td><td>").append(row.get("session"));
+         body.append("</td></tr>");
+      }
+      body.append("</table>");
+      if (_rejected > 0) {
+         body.append(HTML_LINE_SEPARATOR).append(_rejected)
+               .append(" further exceptions were dropped because the mailer was overloaded.");
+      }
+      for (String sample : _samples) {
+         body.append(HTML_LINE_SEPARATOR).append(HTML_LINE_SEPARATOR).append(sample);
+      }
+      return body.toString();
+   }
+
+   /**
+    * Renders an email template.
+    *
+    * @param _template
+    *           the name of the template
+    * @param _context
+    *           the values the template refers to, by name
+    * @return the HTML body, or null if the template cannot be rendered
+    */
+   private static String render(String _template, Map<String, Object> _context) {
+      try {
+         EmailTemplates templates = EmailTemplates.getInstance();
+         return templates.isAvailable() ? templates.render(_template, _context) : null;
+      }
+      catch (RuntimeException | LinkageError _e) {
+         Logger.getLogger().warn("Caught exception trying to render email template %s, message: %s", _template,
+                                 _e.toString());
+         return null;
+      }
+   }
+
+   /**
+    * Sends an exception email to the logger email destination.
+    *
+    * @param _subject
+    *           the subject-line text
+    * @param _body
+    *           the HTML body
+    */
+   private static void send(String _subject, String _body) {
+      EmailDispatchEvent jfr = Events.isActive() ? new EmailDispatchEvent() : null;
+      if (jfr != null) {
+         jfr.begin();
+      }
+      String outcome = "error";
+      try {
+         boolean sent = MiscUtil.sendHtmlEmail(Properties.getProperties().getLoggerEmailDestination(), _subject,
+               _body, DateTime.now(DateTimeZone.UTC));
+         outcome = sent ? "sent" : "failed";
+      }
+      finally {
+         if (outcome.equals("sent")) {
+            Metrics.EXCEPTION_EMAILS.sent();
+         }
+         else {
+            Metrics.EXCEPTION_EMAILS.failed();
+         }
+         if (jfr != null) {
+            jfr.m_subject = _subject;
+            jfr.m_outcome = outcome;
+            jfr.commit();
+         }
+      }
+   }
+
+   /**
+    * Builds the fingerprint of an exception from its type and top stack
+    * frames.
+    *
+    * @param _t
+    *           the exception
+    * @return the fingerprint
+    */
+   private static String fingerprint(Throwable _t) {
+      StringBuilder sb = new StringBuilder(_t.getClass().getName());
+      StackTraceElement[] frames = _t.getStackTrace();
+      for (int i = 0; i < frames.length && i < FINGERPRINT_FRAMES; i++) {
+         sb.append('|').append(frames[i].getClassName()).append('.').append(frames[i].getMethodName()).append(':')
+               .append(frames[i].getLineNumber());
+      }
+      return sb.toString();
+   }
+
+   /**
+    * Renders a session ID, which may not be set, for an email.
+    *
+    * @param _sessionID
+    *           the session ID or null
+    * @return the session ID as a string
+    */
+   private static String sessionToString(Object _sessionID) {
+      return (_sessionID == null) ? "null" : _sessionID.toString();
+   }
+}
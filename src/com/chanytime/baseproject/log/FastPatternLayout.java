@@ -0,0 +1,274 @@
+package com.chanytime.baseproject.log;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+
+import org.apache.log4j.Layout;
+import org.apache.log4j.PatternLayout;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * FastPatternLayout renders the same output as PatternLayout for the
+ * conversion patterns this project uses, e.g.,
+ * "%d{ISO8601} - %p - %X{sessionID} - %X{classMethod}() - %m%n", but compiles
+ * the pattern once into a list of instructions instead of walking a chain of
+ * converters for every event. The date up to the second is rendered once per
+ * second and reused, and events are rendered into a reusable buffer.
+ * <p>
+ * The pattern may contain %d or %d{ISO8601}, %p, %c, %t, %X{key}, %m, %n and
+ * %%, without format modifiers. Any other pattern is handed to a PatternLayout
+ * so that the output is always the same as PatternLayout's.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+public class FastPatternLayout extends Layout {
+
+   /**
+    * SecondPrefix is the rendered date of one second, up to and including the
+    * comma before the milliseconds.
+    */
+   private static final class SecondPrefix {
+      final long m_second;
+      final String m_prefix;
+
+      SecondPrefix(long _second, String _prefix) {
+         m_second = _second;
+         m_prefix = _prefix;
+      }
+   }
+
+   private final static int LITERAL = 0;
+   private final static int DATE = 1;
+   private final static int LEVEL = 2;
+   private final static int LOGGER = 3;
+   private final static int THREAD = 4;
+   private final static int MDC = 5;
+   private final static int MESSAGE = 6;
+
+   private final static String SECOND_PATTERN = "yyyy-MM-dd HH:mm:ss,";
+   private final static int BUFFER_SIZE = 256;
+   private final static int MAX_BUFFER_SIZE = 1024;
+
+   private String m_pattern = PatternLayout.DEFAULT_CONVERSION_PATTERN;
+   private int[] m_opcodes = null;
+   private String[] m_operands = null;
+   private PatternLayout m_fallback = null;
+   private StringBuilder m_buffer = new StringBuilder(BUFFER_SIZE);
+
+   private final SimpleDateFormat m_secondFormat = new SimpleDateFormat(SECOND_PATTERN);
+   private SecondPrefix m_secondPrefix = new SecondPrefix(Long.MIN_VALUE, null);
+
+   /**
+    * Constructs a layout with PatternLayout's default pattern.
+    */
+   public FastPatternLayout() {
+      compile();
+   }
+
+   /**
+    * Constructs a layout with the specified pattern.
+    *
+    * @param _pattern
+    *           the conversion pattern
+    */
+   public FastPatternLayout(String _pattern) {
+      m_pattern = (_pattern == null) ? PatternLayout.DEFAULT_CONVERSION_PATTERN : _pattern;
+      compile();
+   }
+
+   public void setConversionPattern(String _pattern) {
+      m_pattern = _pattern;
+      compile();
+   }
+
+   public String getConversionPattern() {
+      return m_pattern;
+   }
+
+   @Override
+   public void activateOptions() {
+   }
+
+   /**
+    * Renders an event. Like PatternLayout, a layout must not be used by more
+    * than one thread at a time, which appenders ensure by holding their lock.
+    *
+    * @param _event
+    *           the event to render
+    * @return the rendered event
+    */
+   @Override
+   public String format(LoggingEvent _event) {
+      if (m_fallback != null) {
+         return m_fallback.format(_event);
+      }
+      StringBuilder sb = m_buffer;
+      if (sb.capacity() > MAX_BUFFER_SIZE) {
+         sb = new StringBuilder(BUFFER_SIZE);
+         m_buffer = sb;
+      }
+      else {
+         sb.setLength(0);
+      }
+      int[] opcodes = m_opcodes;
+      String[] operands = m_operands;
+      for (int i = 0; i < opcodes.length; i++) {
+         switch (opcodes[i]) {
+         case LITERAL:
+            sb.append(operands[i]);
+            break;
+         case DATE:
+            appendDate(sb, _event.timeStamp);
+            break;
+         case LEVEL:
+            sb.append(_event.getLevel().toString());
+            break;
+         case LOGGER:
+            sb.append(_event.getLoggerName());
+            break;
+         case THREAD:
+            sb.append(_event.getThreadName());
+            break;
+         case MDC:
+            Object value = _event.getMDC(operands[i]);
+            if (value != null) {
+               sb.append(value.toString());
+            }
+            break;
+         default:
+            String message = _event.getRenderedMessage();
+            if (message != null) {
+               sb.append(message);
+            }
+            break;
+         }
+      }
+      return sb.toString();
+   }
+
+   @Override
+   public boolean ignoresThrowable() {
+      return true;
+   }
+
+   /**
+    * Appends a timestamp the way ISO8601DateFormat renders it, rendering the
+    * part up to the second only when the second changes. Unlike
+    * ISO8601DateFormat, whose cache is shared by every instance, the cache is
+    * private to this layout.
+    *
+    * @param _sb
+    *           the buffer
+    * @param _timestamp
+    *           the timestamp in milliseconds
+    */
+   private void appendDate(StringBuilder _sb, long _timestamp) {
+      long second = Math.floorDiv(_timestamp, 1000L);
+      SecondPrefix prefix = m_secondPrefix;
+      if (prefix.m_second != second) {
+         prefix = new SecondPrefix(second, m_secondFormat.format(new Date(second * 1000L)));
+         m_secondPrefix = prefix;
+      }
+      int millis = (int) Math.floorMod(_timestamp, 1000L);
+      _sb.append(prefix.m_prefix);
+      _sb.append((char) ('0' + millis / 100));
+      _sb.append((char) ('0' + millis / 10 % 10));
+      _sb.append((char) ('0' + millis % 10));
+   }
+
+   /**
+    * Compiles the pattern into instructions, or into a PatternLayout if the
+    * pattern uses anything this layout does not render itself.
+    */
+   private void compile() {
+      ArrayList<Integer> opcodes = new ArrayList<Integer>();
+      ArrayList<String> operands = new ArrayList<String>();
+      StringBuilder literal = new StringBuilder();
+      String pattern = m_pattern;
+      boolean supported = true;
+      int i = 0;
+      while (supported && i < pattern.length()) {
+         char c = pattern.charAt(i++);
+         if (c != '%' || i == pattern.length()) {
+            literal.append(c);
+            continue;
+         }
+         char conversion = pattern.charAt(i++);
+         String option = null;
+         if (i < pattern.length() && pattern.charAt(i) == '{') {
+            int end = pattern.indexOf('}', i);
+            if (end < 0) {
+               supported = false;
+               break;
+            }
+            option = pattern.substring(i + 1, end);
+            i = end + 1;
+         }
+         if (conversion == '%' || conversion == 'n') {
+            if (option != null) {
+               supported = false;
+               break;
+            }
+            literal.append((conversion == '%') ? "%" : Layout.LINE_SEP);
+            continue;
+         }
+         int opcode;
+         switch (conversion) {
+         case 'd':
+            opcode = DATE;
+            supported = option == null || option.equalsIgnoreCase("ISO8601");
+            break;
+         case 'p':
+            opcode = LEVEL;
+            supported = option == null;
+            break;
+         case 'c':
+            opcode = LOGGER;
+            supported = option == null;
+            break;
+         case 't':
+            opcode = THREAD;
+            supported = option == null;
+            break;
+         case 'X':
+            opcode = MDC;
+            supported = option != null;
+            break;
+         case 'm':
+            opcode = MESSAGE;
+            supported = option == null;
+            break;
+         default:
+            opcode = LITERAL;
+            supported = false;
+            break;
+         }
+         if (literal.length() > 0) {
+            opcodes.add(Integer.valueOf(LITERAL));
+            operands.add(literal.toString());
+            literal.setLength(0);
+         }
+         opcodes.add(Integer.valueOf(opcode));
+         operands.add(option);
+      }
+      if (!supported) {
+         m_fallback = new PatternLayout(pattern);
+         m_opcodes = null;
+         m_operands = null;
+         return;
+      }
+      if (literal.length() > 0) {
+         opcodes.add(Integer.valueOf(LITERAL));
+         operands.add(literal.toString());
+      }
+      int[] compiled = new int[opcodes.size()];
+      for (int j = 0; j < compiled.length; j++) {
+         compiled[j] = opcodes.get(j).intValue();
+      }
+      m_fallback = null;
+      m_opcodes = compiled;
+      m_operands = operands.toArray(new String[operands.size()]);
+   }
+}
@@ -0,0 +1,114 @@
+package com.chanytime.baseproject.log;
+
+import java.util.IllegalFormatException;
+
+import com.chanytime.baseproject.metrics.Metrics;
+
+/**
+ * FormattedMessage is the message passed to log4j by the logger's
+ * sprintf-style methods. It holds the compiled format and its arguments and
+ * renders them only when an appender asks for the message, which happens on
+ * the background thread when logging asynchronously. Because of this, the
+ * arguments should not be modified after they are logged.
+ * <p>
+ * Messages are rendered into a buffer that is reused by each thread, unless
+ * an argument logs a formatted message of its own while it is rendered, in
+ * which case the inner message gets a buffer of its own.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+final class FormattedMessage {
+
+   /**
+    * Buffer is the builder a thread renders into, and whether a message on
+    * that thread is being rendered into it.
+    */
+   private static final class Buffer {
+      final StringBuilder m_builder = new StringBuilder(INITIAL_BUFFER_SIZE);
+      boolean m_inUse = false;
+   }
+
+   private final static int INITIAL_BUFFER_SIZE = 256;
+   private final static int MAX_REUSED_BUFFER_SIZE = 16 * 1024;
+
+   private final static ThreadLocal<Buffer> m_buffers = new ThreadLocal<Buffer>() {
+      @Override
+      protected Buffer initialValue() {
+         return new Buffer();
+      }
+   };
+
+   private final CompiledFormat m_format;
+   private final Object[] m_args;
+   private String m_rendered = null;
+
+   /**
+    * Constructs a message from a format string and its arguments.
+    *
+    * @param _format
+    *           the format string
+    * @param _args
+    *           arguments to the format
+    */
+   FormattedMessage(String _format, Object[] _args) {
+      m_format = CompiledFormat.compile(_format);
+      m_args = _args;
+   }
+
+   /**
+    * Retrieves the format string of this message.
+    *
+    * @return the format string
+    */
+   String getFormat() {
+      return m_format.getFormat();
+   }
+
+   /**
+    * Retrieves the arguments of this message.
+    *
+    * @return the arguments to the format
+    */
+   Object[] getArgs() {
+      return m_args;
+   }
+
+   /**
+    * Renders the message, remembering the result for subsequent calls. A
+    * format that String.format rejects is rendered as the format followed by
+    * the reason instead of throwing from inside an appender.
+    *
+    * @return the rendered message
+    */
+   @Override
+   public String toString() {
+      String rendered = m_rendered;
+      if (rendered == null) {
+         long start = System.nanoTime();
+         Buffer buffer = m_buffers.get();
+         boolean reused = !buffer.m_inUse;
+         StringBuilder sb = reused ? buffer.m_builder : new StringBuilder(INITIAL_BUFFER_SIZE);
+         sb.setLength(0);
+         buffer.m_inUse = true;
+         try {
+            m_format.appendTo(sb, m_args);
+            rendered = sb.toString();
+         }
+         catch (IllegalFormatException _e) {
+            rendered = m_format.getFormat() + " (unable to format: " + _e.toString() + ")";
+         }
+         finally {
+            if (reused) {
+               buffer.m_inUse = false;
+               if (sb.capacity() > MAX_REUSED_BUFFER_SIZE) {
+                  m_buffers.remove();
+               }
+            }
+         }
+         m_rendered = rendered;
+         Metrics.FORMATTING_TIME.recordSince(start);
+      }
+      return rendered;
+   }
+}
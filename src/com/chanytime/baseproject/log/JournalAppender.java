@@ -0,0 +1,526 @@
+package com.chanytime.baseproject.log;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.ErrorCode;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * JournalAppender appends log events to a compact binary journal instead of
+ * formatting them as text. Messages logged through the logger's sprintf-style
+ * methods are written as the id of their format string and their raw
+ * arguments, so the cost of formatting is paid only when the journal is
+ * decoded. Messages with an argument whose formatting the journal cannot
+ * reproduce exactly, e.g., a Date or a Formattable, are written as text.
+ * Format strings, logger names, thread names, session IDs and callers are
+ * written once into an inline dictionary and referenced by id afterwards. See
+ * JournalFormat for the layout of the file.
+ * <p>
+ * The following is a sample configuration in log4j.properties.
+ *
+ * <pre>
+ * log4j.appender.journal=com.chanytime.baseproject.log.JournalAppender
+ * log4j.appender.journal.File=logs/project.journal
+ * log4j.appender.journal.ImmediateFlush=false
+ * </pre>
+ *
+ * Journals are rendered back to text with JournalDecoder.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ * @see JournalDecoder
+ */
+public class JournalAppender extends AppenderSkeleton implements BatchAwareAppender {
+
+   private final static int MAX_DICTIONARY_SIZE = 64 * 1024;
+
+   private String m_fileName = null;
+   private boolean m_immediateFlush = true;
+   private int m_bufferSize = 64 * 1024;
+
+   private FileOutputStream m_out = null;
+   private byte[] m_buffer = null;
+   private int m_count = 0;
+   private final HashMap<String, Integer> m_dictionary = new HashMap<String, Integer>();
+   private long m_lastTimestamp = 0;
+
+   public void setFile(String _fileName) {
+      m_fileName = (_fileName == null) ? null : _fileName.trim();
+   }
+
+   public String getFile() {
+      return m_fileName;
+   }
+
+   /**
+    * Sets whether each event is written to the file as soon as it is appended.
+    * Otherwise events are written when the buffer fills up or when the
+    * asynchronous logger finishes a batch.
+    *
+    * @param _immediateFlush
+    *           true to write every event immediately
+    */
+   public void setImmediateFlush(boolean _immediateFlush) {
+      m_immediateFlush = _immediateFlush;
+   }
+
+   public boolean getImmediateFlush() {
+      return m_immediateFlush;
+   }
+
+   public void setBufferSize(int _bufferSize) {
+      m_bufferSize = _bufferSize;
+   }
+
+   public int getBufferSize() {
+      return m_bufferSize;
+   }
+
+   /**
+    * Opens the journal for appending.
+    */
+   @Override
+   public synchronized void activateOptions() {
+      if (m_fileName == null) {
+         LogLog.warn("File option not set for appender [" + name + "].");
+         return;
+      }
+      if (m_bufferSize < 1) {
+         errorHandler.error("Invalid options for appender [" + name + "].", null, ErrorCode.GENERIC_FAILURE);
+         return;
+      }
+      try {
+         File file = new File(m_fileName);
+         File parent = file.getAbsoluteFile().getParentFile();
+         if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+         }
+         boolean empty = file.length() == 0;
+         if (!empty && !hasMagic(file)) {
+            errorHandler.error(m_fileName + " is not a journal for appender [" + name + "].", null,
+                  ErrorCode.FILE_OPEN_FAILURE);
+            return;
+         }
+         m_out = new FileOutputStream(file, true);
+         m_buffer = new byte[m_bufferSize + 256];
+         m_count = 0;
+         if (empty) {
+            for (byte b : JournalFormat.MAGIC) {
+               writeByte(b);
+            }
+         }
+         reset();
+         flush();
+      }
+      catch (IOException _e) {
+         errorHandler.error("Cannot open " + m_fileName + " for appender [" + name + "].", _e,
+               ErrorCode.FILE_OPEN_FAILURE);
+         m_out = null;
+      }
+   }
+
+   /**
+    * Encodes an event into the buffer. This is called by AppenderSkeleton with
+    * the appender's lock held. Everything that calls into application code,
+    * such as toString() of a message, is done before the event record is
+    * started, and a record that fails anyway is taken back out of the buffer,
+    * so the journal never holds half an event.
+    *
+    * @param _event
+    *           the event to write
+    */
+   @Override
+   protected void append(LoggingEvent _event) {
+      if (m_out == null) {
+         errorHandler.error("No output file for appender [" + name + "].");
+         return;
+      }
+      int mark = -1;
+      long lastTimestamp = m_lastTimestamp;
+      try {
+         if (m_dictionary.size() > MAX_DICTIONARY_SIZE - 5) {
+            reset();
+         }
+         int loggerID = intern(_event.getLoggerName());
+         int threadID = intern(_event.getThreadName());
+         int sessionID = intern(_event.getMDC(Logger.MDC_SESSION_ID_KEY));
+         int callerID = intern(_event.getMDC(Logger.MDC_CLASS_METHOD_KEY));
+         Object message = _event.getMessage();
+         int formatID = (message instanceof FormattedMessage && hasRawArgs((FormattedMessage) message))
+               ? intern(((FormattedMessage) message).getFormat()) : JournalFormat.NO_ID;
+         String text = (message == null || formatID != JournalFormat.NO_ID) ? null : _event.getRenderedMessage();
+         String[] lines = _event.getThrowableStrRep();
+         // The dictionary records written so far are complete on their own;
+         // only the event record is taken back if it fails.
+         mark = m_count;
+         lastTimestamp = m_lastTimestamp;
+         writeByte(JournalFormat.RECORD_EVENT);
+         writeSigned(_event.timeStamp - m_lastTimestamp);
+         m_lastTimestamp = _event.timeStamp;
+         writeUnsigned(_event.getLevel().toInt());
+         writeUnsigned(loggerID);
+         writeUnsigned(threadID);
+         writeUnsigned(sessionID);
+         writeUnsigned(callerID);
+         if (message == null) {
+            writeByte(JournalFormat.MESSAGE_NULL);
+         }
+         else if (formatID != JournalFormat.NO_ID) {
+            Object[] args = ((FormattedMessage) message).getArgs();
+            writeByte(JournalFormat.MESSAGE_FORMAT);
+            writeUnsigned(formatID);
+            writeUnsigned((args == null) ? 0 : args.length);
+            if (args != null) {
+               for (Object arg : args) {
+                  writeArg(arg);
+               }
+            }
+         }
+         else {
+            writeByte(JournalFormat.MESSAGE_TEXT);
+            writeString((text == null) ? "null" : text);
+         }
+         writeUnsigned((lines == null) ? 0 : lines.length);
+         if (lines != null) {
+            for (String line : lines) {
+               writeString((line == null) ? "" : line);
+            }
+         }
+         if (m_immediateFlush || m_count >= m_bufferSize) {
+            flush();
+         }
+      }
+      catch (IOException _e) {
+         errorHandler.error("Failed to write to " + m_fileName + " for appender [" + name + "].", _e,
+               ErrorCode.WRITE_FAILURE);
+      }
+      catch (RuntimeException _e) {
+         if (mark >= 0) {
+            m_count = mark;
+            m_lastTimestamp = lastTimestamp;
+         }
+         errorHandler.error("Failed to encode an event for appender [" + name + "].", _e, ErrorCode.GENERIC_FAILURE);
+      }
+   }
+
+   /**
+    * Writes the buffered events to the file.
+    */
+   @Override
+   public synchronized void endBatch() {
+      if (m_out == null) {
+         return;
+      }
+      try {
+         flush();
+      }
+      catch (IOException _e) {
+         errorHandler.error("Failed to write to " + m_fileName + " for appender [" + name + "].", _e,
+               ErrorCode.FLUSH_FAILURE);
+      }
+   }
+
+   /**
+    * Writes the buffered events to the file and closes it.
+    */
+   @Override
+   public synchronized void close() {
+      if (closed) {
+         return;
+      }
+      closed = true;
+      if (m_out == null) {
+         return;
+      }
+      try {
+         flush();
+         m_out.close();
+      }
+      catch (IOException _e) {
+         errorHandler.error("Failed to close " + m_fileName + " for appender [" + name + "].", _e,
+               ErrorCode.CLOSE_FAILURE);
+      }
+      m_out = null;
+   }
+
+   @Override
+   public boolean requiresLayout() {
+      return false;
+   }
+
+   /**
+    * Checks whether a file starts with the journal's magic number.
+    *
+    * @param _file
+    *           the file to check
+    * @return true if the file is a journal false otherwise
+    * @throws IOException
+    *            if the file cannot be read
+    */
+   private static boolean hasMagic(File _file) throws IOException {
+      byte[] magic = new byte[JournalFormat.MAGIC.length];
+      DataInputStream in = new DataInputStream(new FileInputStream(_file));
+      try {
+         in.readFully(magic);
+      }
+      catch (EOFException _e) {
+         return false;
+      }
+      finally {
+         in.close();
+      }
+      return Arrays.equals(magic, JournalFormat.MAGIC);
+   }
+
+   /**
+    * Retrieves the dictionary id of a string, writing a dictionary record the
+    * first time the string is seen. The dictionary is reset before an event
+    * when it grows too large, never in the middle of one.
+    *
+    * @param _value
+    *           the string, or null
+    * @return the id of the string, or NO_ID if it is null
+    */
+   private int intern(Object _value) {
+      if (_value == null) {
+         return JournalFormat.NO_ID;
+      }
+      String value = _value.toString();
+      Integer id = m_dictionary.get(value);
+      if (id != null) {
+         return id.intValue();
+      }
+      int newID = m_dictionary.size() + 1;
+      m_dictionary.put(value, Integer.valueOf(newID));
+      writeByte(JournalFormat.RECORD_DICTIONARY);
+      writeUnsigned(newID);
+      writeString(value);
+      return newID;
+   }
+
+   /**
+    * Clears the dictionary and the timestamp delta, on both sides of the
+    * journal.
+    */
+   private void reset() {
+      m_dictionary.clear();
+      m_lastTimestamp = 0;
+      writeByte(JournalFormat.RECORD_RESET);
+   }
+
+   /**
+    * Checks whether every argument of a formatted message can be written raw,
+    * i.e., whether the decoded argument formats exactly like the original.
+    * Any other value, e.g., a Date, a Formattable or an AtomicLong, may format
+    * differently from its string, so such messages are written as text.
+    *
+    * @param _message
+    *           the message
+    * @return true if the arguments can be written raw false otherwise
+    */
+   private static boolean hasRawArgs(FormattedMessage _message) {
+      Object[] args = _message.getArgs();
+      if (args == null) {
+         return true;
+      }
+      for (Object arg : args) {
+         if (arg == null) {
+            continue;
+         }
+         Class<?> type = arg.getClass();
+         if (type != String.class && type != Integer.class && type != Long.class && type != Double.class
+               && type != Float.class && type != Boolean.class && type != Short.class && type != Byte.class
+               && type != Character.class && type != BigInteger.class && type != BigDecimal.class) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Writes one argument of a formatted message, keeping the type of numbers
+    * and other values that format differently as strings. The argument is
+    * one of the types accepted by hasRawArgs().
+    *
+    * @param _arg
+    *           the argument
+    */
+   private void writeArg(Object _arg) {
+      if (_arg == null) {
+         writeByte(JournalFormat.ARG_NULL);
+      }
+      else if (_arg instanceof String) {
+         writeByte(JournalFormat.ARG_STRING);
+         writeString((String) _arg);
+      }
+      else if (_arg instanceof Integer) {
+         writeByte(JournalFormat.ARG_INTEGER);
+         writeSigned(((Integer) _arg).intValue());
+      }
+      else if (_arg instanceof Long) {
+         writeByte(JournalFormat.ARG_LONG);
+         writeSigned(((Long) _arg).longValue());
+      }
+      else if (_arg instanceof Double) {
+         writeByte(JournalFormat.ARG_DOUBLE);
+         writeFixed(Double.doubleToRawLongBits(((Double) _arg).doubleValue()), 8);
+      }
+      else if (_arg instanceof Float) {
+         writeByte(JournalFormat.ARG_FLOAT);
+         writeFixed(Float.floatToRawIntBits(((Float) _arg).floatValue()), 4);
+      }
+      else if (_arg instanceof Boolean) {
+         writeByte(JournalFormat.ARG_BOOLEAN);
+         writeByte(((Boolean) _arg).booleanValue() ? 1 : 0);
+      }
+      else if (_arg instanceof Short) {
+         writeByte(JournalFormat.ARG_SHORT);
+         writeSigned(((Short) _arg).shortValue());
+      }
+      else if (_arg instanceof Byte) {
+         writeByte(JournalFormat.ARG_BYTE);
+         writeSigned(((Byte) _arg).byteValue());
+      }
+      else if (_arg instanceof Character) {
+         writeByte(JournalFormat.ARG_CHARACTER);
+         writeUnsigned(((Character) _arg).charValue());
+      }
+      else if (_arg instanceof BigInteger) {
+         writeByte(JournalFormat.ARG_BIG_INTEGER);
+         writeString(_arg.toString());
+      }
+      else {
+         writeByte(JournalFormat.ARG_BIG_DECIMAL);
+         writeString(_arg.toString());
+      }
+   }
+
+   private void writeByte(int _b) {
+      ensureCapacity(1);
+      m_buffer[m_count++] = (byte) _b;
+   }
+
+   private void writeSigned(long _value) {
+      writeUnsigned((_value << 1) ^ (_value >> 63));
+   }
+
+   private void writeUnsigned(long _value) {
+      ensureCapacity(10);
+      while ((_value & ~0x7FL) != 0) {
+         m_buffer[m_count++] = (byte) ((_value & 0x7F) | 0x80);
+         _value >>>= 7;
+      }
+      m_buffer[m_count++] = (byte) _value;
+   }
+
+   private void writeFixed(long _value, int _bytes) {
+      ensureCapacity(_bytes);
+      for (int shift = (_bytes - 1) * 8; shift >= 0; shift -= 8) {
+         m_buffer[m_count++] = (byte) (_value >>> shift);
+      }
+   }
+
+   /**
+    * Writes a string as its UTF-8 length followed by its UTF-8 bytes, encoding
+    * straight into the buffer. Unpaired surrogates are written as '?'.
+    *
+    * @param _value
+    *           the string
+    */
+   private void writeString(String _value) {
+      int length = _value.length();
+      int utf8Length = 0;
+      for (int i = 0; i < length; i++) {
+         char c = _value.charAt(i);
+         if (c < 0x80) {
+            utf8Length++;
+         }
+         else if (c < 0x800) {
+            utf8Length += 2;
+         }
+         else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(_value.charAt(i + 1))) {
+            utf8Length += 4;
+            i++;
+         }
+         else if (Character.isSurrogate(c)) {
+            utf8Length++;
+         }
+         else {
+            utf8Length += 3;
+         }
+      }
+      writeUnsigned(utf8Length);
+      ensureCapacity(utf8Length);
+      byte[] buffer = m_buffer;
+      int count = m_count;
+      for (int i = 0; i < length; i++) {
+         char c = _value.charAt(i);
+         if (c < 0x80) {
+            buffer[count++] = (byte) c;
+         }
+         else if (c < 0x800) {
+            buffer[count++] = (byte) (0xC0 | (c >> 6));
+            buffer[count++] = (byte) (0x80 | (c & 0x3F));
+         }
+         else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(_value.charAt(i + 1))) {
+            int codePoint = Character.toCodePoint(c, _value.charAt(++i));
+            buffer[count++] = (byte) (0xF0 | (codePoint >> 18));
+            buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+         }
+         else if (Character.isSurrogate(c)) {
+            buffer[count++] = '?';
+         }
+         else {
+            buffer[count++] = (byte) (0xE0 | (c >> 12));
+            buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[count++] = (byte) (0x80 | (c & 0x3F));
+         }
+      }
+      m_count = count;
+   }
+
+   /**
+    * Grows the buffer so that it can hold the specified number of additional
+    * bytes. Only an event larger than the buffer makes it grow.
+    *
+    * @param _bytes
+    *           the number of bytes about to be written
+    */
+   private void ensureCapacity(int _bytes) {
+      if (m_count + _bytes > m_buffer.length) {
+         byte[] buffer = new byte[Math.max(m_buffer.length * 2, m_count + _bytes)];
+         System.arraycopy(m_buffer, 0, buffer, 0, m_count);
+         m_buffer = buffer;
+      }
+   }
+
+   /**
+    * Writes the buffer to the file, shrinking the buffer back to its
+    * configured size if a large event made it grow.
+    *
+    * @throws IOException
+    *            if the file cannot be written
+    */
+   private void flush() throws IOException {
+      if (m_count > 0) {
+         m_out.write(m_buffer, 0, m_count);
+         m_count = 0;
+      }
+      if (m_buffer.length > 4 * (m_bufferSize + 256)) {
+         m_buffer = new byte[m_bufferSize + 256];
+      }
+   }
+}
@@ -0,0 +1,386 @@
+package com.chanytime.baseproject.log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Hashtable;
+
+import org.apache.log4j.Layout;
+import org.apache.log4j.Level;
+import org.apache.log4j.PatternLayout;
+import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.spi.ThrowableInformation;
+
+/**
+ * JournalDecoder reads the binary journal written by JournalAppender and turns
+ * its records back into log4j events, which can be rendered by any layout.
+ * Running it from the command line renders journals as text, by default in
+ * the project's log format:
+ *
+ * <pre>
+ * java com.chanytime.baseproject.log.JournalDecoder [-session id] [-from time] [-to time] [-pattern pattern] journal...
+ * </pre>
+ *
+ * Times are given as "yyyy-MM-dd HH:mm:ss", optionally followed by ",SSS", or
+ * as milliseconds since the epoch; the range includes -from and excludes -to.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ * @see JournalAppender
+ */
+public class JournalDecoder implements Closeable {
+
+   /**
+    * DecodedLogger names the logger of a decoded event without registering it
+    * with log4j.
+    */
+   private static final class DecodedLogger extends org.apache.log4j.Logger {
+      DecodedLogger(String _name) {
+         super(_name);
+      }
+   }
+
+   private final static String DEFAULT_PATTERN = "%d{ISO8601} - %p - %X{sessionID} - %X{classMethod}() - %m%n";
+   private final static String[] TIME_PATTERNS = { "yyyy-MM-dd HH:mm:ss,SSS", "yyyy-MM-dd HH:mm:ss" };
+   private final static String USAGE = "Usage: JournalDecoder [-session id] [-from time] [-to time] [-pattern pattern] journal...";
+
+   private final DataInputStream m_in;
+   private final ArrayList<String> m_dictionary = new ArrayList<String>();
+   private final HashMap<String, DecodedLogger> m_loggers = new HashMap<String, DecodedLogger>();
+   private long m_lastTimestamp = 0;
+   private boolean m_started = false;
+   private boolean m_hasThrowables = true;
+
+   /**
+    * Constructs a decoder that reads a journal from a stream.
+    *
+    * @param _in
+    *           the stream positioned at the start of the journal
+    */
+   public JournalDecoder(InputStream _in) {
+      m_in = new DataInputStream(new BufferedInputStream(_in, 64 * 1024));
+   }
+
+   /**
+    * Reads the next event of the journal. An event cut short at the end of the
+    * journal, e.g., because the process writing it was killed, is treated as
+    * the end of the journal.
+    *
+    * @return the next event, or null at the end of the journal
+    * @throws IOException
+    *            if the journal cannot be read or is not a journal
+    */
+   public LoggingEvent read() throws IOException {
+      if (!m_started) {
+         byte[] magic = new byte[JournalFormat.MAGIC.length];
+         try {
+            m_in.readFully(magic);
+         }
+         catch (EOFException _e) {
+            return null;
+         }
+         if (Arrays.equals(magic, JournalFormat.MAGIC_V1)) {
+            m_hasThrowables = false;
+         }
+         else if (!Arrays.equals(magic, JournalFormat.MAGIC)) {
+            throw new IOException("Not a journal!");
+         }
+         m_started = true;
+      }
+      try {
+         while (true) {
+            int type = m_in.read();
+            switch (type) {
+            case -1:
+               return null;
+            case JournalFormat.RECORD_RESET:
+               m_dictionary.clear();
+               m_lastTimestamp = 0;
+               break;
+            case JournalFormat.RECORD_DICTIONARY:
+               int id = (int) readUnsigned();
+               if (id != m_dictionary.size() + 1) {
+                  throw new IOException("Unexpected dictionary id " + id + "!");
+               }
+               m_dictionary.add(readString());
+               break;
+            case JournalFormat.RECORD_EVENT:
+               return readEvent();
+            default:
+               throw new IOException("Unknown record type " + type + "!");
+            }
+         }
+      }
+      catch (EOFException _e) {
+         return null;
+      }
+   }
+
+   @Override
+   public void close() throws IOException {
+      m_in.close();
+   }
+
+   /**
+    * Renders journals as text.
+    *
+    * @param _args
+    *           the options followed by the paths of the journals
+    */
+   public static void main(String[] _args) {
+      String session = null;
+      long from = Long.MIN_VALUE;
+      long to = Long.MAX_VALUE;
+      String pattern = DEFAULT_PATTERN;
+      int i = 0;
+      try {
+         for (; i < _args.length && _args[i].startsWith("-"); i += 2) {
+            if (i + 1 >= _args.length) {
+               throw new IllegalArgumentException("Missing value for " + _args[i] + "!");
+            }
+            if (_args[i].equals("-session")) {
+               session = _args[i + 1];
+            }
+            else if (_args[i].equals("-from")) {
+               from = parseTime(_args[i + 1]);
+            }
+            else if (_args[i].equals("-to")) {
+               to = parseTime(_args[i + 1]);
+            }
+            else if (_args[i].equals("-pattern")) {
+               pattern = _args[i + 1];
+            }
+            else {
+               throw new IllegalArgumentException("Unknown option " + _args[i] + "!");
+            }
+         }
+         if (i == _args.length) {
+            throw new IllegalArgumentException("No journal specified!");
+         }
+      }
+      catch (IllegalArgumentException _e) {
+         System.err.println(_e.getMessage());
+         System.err.println(USAGE);
+         System.exit(2);
+      }
+      PatternLayout layout = new PatternLayout(pattern);
+      Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 64 * 1024);
+      int status = 0;
+      try {
+         for (; i < _args.length; i++) {
+            JournalDecoder decoder = new JournalDecoder(new FileInputStream(_args[i]));
+            try {
+               LoggingEvent event;
+               while ((event = decoder.read()) != null) {
+                  if (event.timeStamp < from || event.timeStamp >= to) {
+                     continue;
+                  }
+                  if (session != null && !session.equals(event.getMDC(Logger.MDC_SESSION_ID_KEY))) {
+                     continue;
+                  }
+                  out.write(layout.format(event));
+                  String[] lines = event.getThrowableStrRep();
+                  if (lines != null && layout.ignoresThrowable()) {
+                     for (String line : lines) {
+                        out.write(line);
+                        out.write(Layout.LINE_SEP);
+                     }
+                  }
+               }
+            }
+            catch (IOException _e) {
+               System.err.println(_args[i] + ": " + _e.getMessage());
+               status = 1;
+            }
+            finally {
+               decoder.close();
+            }
+         }
+         out.flush();
+      }
+      catch (IOException _e) {
+         System.err.println(_e.getMessage());
+         status = 1;
+      }
+      System.exit(status);
+   }
+
+   /**
+    * Reads the body of an event record.
+    *
+    * @return the event
+    * @throws IOException
+    *            if the journal cannot be read
+    */
+   private LoggingEvent readEvent() throws IOException {
+      long timestamp = m_lastTimestamp + readSigned();
+      m_lastTimestamp = timestamp;
+      Level level = Level.toLevel((int) readUnsigned());
+      String loggerName = lookup(readUnsigned());
+      String threadName = lookup(readUnsigned());
+      String sessionID = lookup(readUnsigned());
+      String classMethod = lookup(readUnsigned());
+      Object message;
+      int kind = m_in.readUnsignedByte();
+      switch (kind) {
+      case JournalFormat.MESSAGE_NULL:
+         message = null;
+         break;
+      case JournalFormat.MESSAGE_TEXT:
+         message = readString();
+         break;
+      case JournalFormat.MESSAGE_FORMAT:
+         String format = lookup(readUnsigned());
+         Object[] args = new Object[(int) readUnsigned()];
+         for (int i = 0; i < args.length; i++) {
+            args[i] = readArg();
+         }
+         message = new FormattedMessage(format, args);
+         break;
+      default:
+         throw new IOException("Unknown message kind " + kind + "!");
+      }
+      ThrowableInformation throwable = null;
+      if (m_hasThrowables) {
+         String[] lines = new String[(int) readUnsigned()];
+         for (int i = 0; i < lines.length; i++) {
+            lines[i] = readString();
+         }
+         if (lines.length > 0) {
+            throwable = new ThrowableInformation(lines);
+         }
+      }
+      Hashtable<String, Object> mdc = new Hashtable<String, Object>(4);
+      if (sessionID != null) {
+         mdc.put(Logger.MDC_SESSION_ID_KEY, sessionID);
+      }
+      if (classMethod != null) {
+         mdc.put(Logger.MDC_CLASS_METHOD_KEY, classMethod);
+      }
+      return new LoggingEvent(Logger.FQCN, getLogger(loggerName), timestamp, level, message, threadName, throwable,
+            null, null, mdc);
+   }
+
+   /**
+    * Reads one argument of a formatted message.
+    *
+    * @return the argument
+    * @throws IOException
+    *            if the journal cannot be read
+    */
+   private Object readArg() throws IOException {
+      int tag = m_in.readUnsignedByte();
+      switch (tag) {
+      case JournalFormat.ARG_NULL:
+         return null;
+      case JournalFormat.ARG_STRING:
+         return readString();
+      case JournalFormat.ARG_INTEGER:
+         return Integer.valueOf((int) readSigned());
+      case JournalFormat.ARG_LONG:
+         return Long.valueOf(readSigned());
+      case JournalFormat.ARG_SHORT:
+         return Short.valueOf((short) readSigned());
+      case JournalFormat.ARG_BYTE:
+         return Byte.valueOf((byte) readSigned());
+      case JournalFormat.ARG_DOUBLE:
+         return Double.valueOf(Double.longBitsToDouble(m_in.readLong()));
+      case JournalFormat.ARG_FLOAT:
+         return Float.valueOf(Float.intBitsToFloat(m_in.readInt()));
+      case JournalFormat.ARG_BOOLEAN:
+         return Boolean.valueOf(m_in.readUnsignedByte() != 0);
+      case JournalFormat.ARG_CHARACTER:
+         return Character.valueOf((char) readUnsigned());
+      case JournalFormat.ARG_BIG_INTEGER:
+         return new BigInteger(readString());
+      case JournalFormat.ARG_BIG_DECIMAL:
+         return new BigDecimal(readString());
+      default:
+         throw new IOException("Unknown argument type " + tag + "!");
+      }
+   }
+
+   private String lookup(long _id) throws IOException {
+      if (_id == JournalFormat.NO_ID) {
+         return null;
+      }
+      if (_id > m_dictionary.size()) {
+         throw new IOException("Unknown dictionary id " + _id + "!");
+      }
+      return m_dictionary.get((int) _id - 1);
+   }
+
+   private DecodedLogger getLogger(String _name) {
+      String name = (_name == null) ? "" : _name;
+      DecodedLogger logger = m_loggers.get(name);
+      if (logger == null) {
+         logger = new DecodedLogger(name);
+         m_loggers.put(name, logger);
+      }
+      return logger;
+   }
+
+   private long readSigned() throws IOException {
+      long value = readUnsigned();
+      return (value >>> 1) ^ -(value & 1);
+   }
+
+   private long readUnsigned() throws IOException {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+         int b = m_in.readUnsignedByte();
+         value |= (long) (b & 0x7F) << shift;
+         if ((b & 0x80) == 0) {
+            return value;
+         }
+      }
+      throw new IOException("Malformed variable-length integer!");
+   }
+
+   private String readString() throws IOException {
+      byte[] bytes = new byte[(int) readUnsigned()];
+      m_in.readFully(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+   }
+
+   /**
+    * Parses a time given on the command line.
+    *
+    * @param _time
+    *           the time as a date or as milliseconds since the epoch
+    * @return the time in milliseconds since the epoch
+    */
+   private static long parseTime(String _time) {
+      for (String pattern : TIME_PATTERNS) {
+         SimpleDateFormat format = new SimpleDateFormat(pattern);
+         format.setLenient(false);
+         try {
+            return format.parse(_time).getTime();
+         }
+         catch (ParseException _e) {
+            // Try the next pattern.
+         }
+      }
+      try {
+         return Long.parseLong(_time);
+      }
+      catch (NumberFormatException _e) {
+         throw new IllegalArgumentException("Invalid time " + _time + "!");
+      }
+   }
+}
@@ -0,0 +1,59 @@
+package com.chanytime.baseproject.log;
+
+/**
+ * JournalFormat holds the constants of the binary journal written by
+ * JournalAppender and read by JournalDecoder. A journal starts with MAGIC
+ * followed by a sequence of records, each starting with a record type:
+ * <ul>
+ * <li>RESET clears the dictionary; it is written whenever the journal is
+ * opened and whenever the dictionary grows too large
+ * <li>DICTIONARY assigns the next id to a string, which is then referenced by
+ * id from the records that follow
+ * <li>EVENT holds the timestamp as a delta from the previous event, the level,
+ * the ids of the logger name, thread name, session ID and caller, the message,
+ * either as a format id with its raw arguments or as text, and the number of
+ * lines of the exception backtrace followed by the lines
+ * </ul>
+ * Journals written before exceptions were kept start with MAGIC_V1 and their
+ * events end with the message.
+ * Unsigned numbers are written as variable-length integers, signed numbers are
+ * zigzag-encoded first, and strings are written as a length followed by UTF-8
+ * bytes.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+final class JournalFormat {
+
+   final static byte[] MAGIC = { 'B', 'P', 'J', '2' };
+   final static byte[] MAGIC_V1 = { 'B', 'P', 'J', '1' };
+
+   final static int RECORD_RESET = 'R';
+   final static int RECORD_DICTIONARY = 'D';
+   final static int RECORD_EVENT = 'E';
+
+   final static int MESSAGE_NULL = 0;
+   final static int MESSAGE_TEXT = 1;
+   final static int MESSAGE_FORMAT = 2;
+
+   final static int ARG_NULL = 0;
+   final static int ARG_STRING = 1;
+   final static int ARG_INTEGER = 2;
+   final static int ARG_LONG = 3;
+   final static int ARG_SHORT = 4;
+   final static int ARG_BYTE = 5;
+   final static int ARG_DOUBLE = 6;
+   final static int ARG_FLOAT = 7;
+   final static int ARG_BOOLEAN = 8;
+   final static int ARG_CHARACTER = 9;
+   final static int ARG_BIG_INTEGER = 10;
+   final static int ARG_BIG_DECIMAL = 11;
+
+   /**
+    * The id written in place of a missing session ID or caller.
+    */
+   final static int NO_ID = 0;
+
+   private JournalFormat() {
+   }
+}
@@ -0,0 +1,283 @@
+package com.chanytime.baseproject.log;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Level;
+
+/**
+ * LevelOverrides raises the verbosity of the logger for specific sessions or
+ * call sites for a limited time, without changing the log4j configuration.
+ * When no override is in place, checking for one costs a single volatile read.
+ * Overrides only ever enable more statements; they never disable statements
+ * that the configured level already enables. Changes to the overrides are
+ * serialized, while lookups take no lock.
+ * <p>
+ * Call-site overrides need the caller, which costs a stack walk. The level
+ * checks therefore only compare the level with the most verbose call-site
+ * override, and the caller is resolved and checked when a statement that
+ * passed is actually logged, where it is reused for the output.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+final class LevelOverrides {
+
+   /**
+    * Override is a level that is in effect until an expiry time.
+    */
+   private static final class Override {
+      final Level m_level;
+      final long m_expiresAt;
+
+      Override(Level _level, long _expiresAt) {
+         m_level = _level;
+         m_expiresAt = _expiresAt;
+      }
+   }
+
+   private final static ConcurrentHashMap<Object, Override> m_sessions = new ConcurrentHashMap<Object, Override>();
+   private final static ConcurrentHashMap<String, Override> m_methods = new ConcurrentHashMap<String, Override>();
+   private final static ConcurrentHashMap<String, Override> m_classes = new ConcurrentHashMap<String, Override>();
+
+   private static volatile boolean m_active = false;
+   private static volatile long m_earliestExpiry = Long.MAX_VALUE;
+   private static volatile Level m_callSiteThreshold = null;
+
+   private LevelOverrides() {
+   }
+
+   /**
+    * Checks whether any override is in place. This is the fast path for
+    * callers that are not overridden.
+    *
+    * @return true if there may be an override false otherwise
+    */
+   static boolean isActive() {
+      return m_active;
+   }
+
+   /**
+    * Sets the level for statements logged by a session.
+    *
+    * @param _sessionID
+    *           the session ID as it appears in the logger output
+    * @param _level
+    *           the level in effect for the session
+    * @param _durationMillis
+    *           how long the override lasts
+    */
+   static synchronized void setSessionLevel(Object _sessionID, Level _level, long _durationMillis) {
+      Override override = new Override(_level, expiry(_durationMillis));
+      m_sessions.put(_sessionID, override);
+      m_earliestExpiry = Math.min(m_earliestExpiry, override.m_expiresAt);
+      m_active = true;
+   }
+
+   /**
+    * Sets the level for statements logged from a call site.
+    *
+    * @param _callSite
+    *           the call site as "Class.method", or "Class" for every method of
+    *           the class, using the class name without its package
+    * @param _level
+    *           the level in effect for the call site
+    * @param _durationMillis
+    *           how long the override lasts
+    */
+   static synchronized void setCallSiteLevel(String _callSite, Level _level, long _durationMillis) {
+      Override override = new Override(_level, expiry(_durationMillis));
+      if (_callSite.indexOf('.') < 0) {
+         m_classes.put(_callSite, override);
+      }
+      else {
+         m_methods.put(_callSite, override);
+      }
+      m_earliestExpiry = Math.min(m_earliestExpiry, override.m_expiresAt);
+      m_callSiteThreshold = moreVerbose(m_callSiteThreshold, _level);
+      m_active = true;
+   }
+
+   /**
+    * Removes the override for a session.
+    *
+    * @param _sessionID
+    *           the session ID as it appears in the logger output
+    */
+   static synchronized void clearSession(Object _sessionID) {
+      m_sessions.remove(_sessionID);
+      updateActive();
+   }
+
+   /**
+    * Removes the override for a call site.
+    *
+    * @param _callSite
+    *           the call site as "Class.method" or "Class"
+    */
+   static synchronized void clearCallSite(String _callSite) {
+      m_methods.remove(_callSite);
+      m_classes.remove(_callSite);
+      updateActive();
+   }
+
+   /**
+    * Removes every override.
+    */
+   static synchronized void clear() {
+      m_sessions.clear();
+      m_methods.clear();
+      m_classes.clear();
+      updateActive();
+   }
+
+   /**
+    * Checks whether an override may enable a level for the current thread,
+    * without resolving the caller. This is true if the session of the thread
+    * is overridden, or if some call site is overridden at or below the level,
+    * in which case isEnabledForCallSite() has to confirm it once the caller
+    * is known. Callers should check isActive() first.
+    *
+    * @param _level
+    *           the level to check
+    * @return true if an override may enable the level false otherwise
+    */
+   static boolean mayEnable(Level _level) {
+      if (isEnabledForSession(_level)) {
+         return true;
+      }
+      Level threshold = m_callSiteThreshold;
+      return threshold != null && _level.isGreaterOrEqual(threshold);
+   }
+
+   /**
+    * Checks whether an override enables a level for the session of the
+    * current thread. Callers should check isActive() first.
+    *
+    * @param _level
+    *           the level to check
+    * @return true if an override enables the level false otherwise
+    */
+   static boolean isEnabledForSession(Level _level) {
+      long now = System.currentTimeMillis();
+      if (now >= m_earliestExpiry) {
+         updateActive();
+      }
+      if (m_sessions.isEmpty()) {
+         return false;
+      }
+      Object sessionID = Logger.currentSessionID();
+      return sessionID != null && allows(m_sessions, sessionID, _level, now);
+   }
+
+   /**
+    * Checks whether an override enables a level for a call site.
+    *
+    * @param _level
+    *           the level to check
+    * @param _callSite
+    *           the call site as "Class.method"
+    * @return true if an override enables the level false otherwise
+    */
+   static boolean isEnabledForCallSite(Level _level, String _callSite) {
+      if (m_methods.isEmpty() && m_classes.isEmpty()) {
+         return false;
+      }
+      long now = System.currentTimeMillis();
+      if (allows(m_methods, _callSite, _level, now)) {
+         return true;
+      }
+      int dot = _callSite.lastIndexOf('.');
+      return dot > 0 && !m_classes.isEmpty() && allows(m_classes, _callSite.substring(0, dot), _level, now);
+   }
+
+   /**
+    * Checks one map of overrides, removing the override if it has expired.
+    *
+    * @param _overrides
+    *           the map of overrides
+    * @param _key
+    *           the session or call site
+    * @param _level
+    *           the level to check
+    * @param _now
+    *           the current time
+    * @return true if the override enables the level false otherwise
+    */
+   private static <K> boolean allows(Map<K, Override> _overrides, K _key, Level _level, long _now) {
+      Override override = _overrides.get(_key);
+      if (override == null) {
+         return false;
+      }
+      if (_now >= override.m_expiresAt) {
+         _overrides.remove(_key, override);
+         updateActive();
+         return false;
+      }
+      return _level.isGreaterOrEqual(override.m_level);
+   }
+
+   /**
+    * Removes expired overrides and clears the active flag once there are no
+    * overrides left.
+    */
+   private static synchronized void updateActive() {
+      long now = System.currentTimeMillis();
+      long earliestExpiry = Long.MAX_VALUE;
+      earliestExpiry = Math.min(earliestExpiry, removeExpired(m_sessions, now));
+      earliestExpiry = Math.min(earliestExpiry, removeExpired(m_methods, now));
+      earliestExpiry = Math.min(earliestExpiry, removeExpired(m_classes, now));
+      m_earliestExpiry = earliestExpiry;
+      Level threshold = null;
+      for (Override override : m_methods.values()) {
+         threshold = moreVerbose(threshold, override.m_level);
+      }
+      for (Override override : m_classes.values()) {
+         threshold = moreVerbose(threshold, override.m_level);
+      }
+      m_callSiteThreshold = threshold;
+      m_active = !m_sessions.isEmpty() || !m_methods.isEmpty() || !m_classes.isEmpty();
+   }
+
+   /**
+    * Picks the more verbose of two levels.
+    *
+    * @param _level
+    *           a level, or null
+    * @param _other
+    *           another level
+    * @return the level that enables more statements
+    */
+   private static Level moreVerbose(Level _level, Level _other) {
+      return (_level == null || _level.isGreaterOrEqual(_other)) ? _other : _level;
+   }
+
+   /**
+    * Removes expired overrides from one map.
+    *
+    * @param _overrides
+    *           the map of overrides
+    * @param _now
+    *           the current time
+    * @return the earliest expiry of the overrides that remain
+    */
+   private static <K> long removeExpired(Map<K, Override> _overrides, long _now) {
+      long earliestExpiry = Long.MAX_VALUE;
+      for (Iterator<Override> i = _overrides.values().iterator(); i.hasNext();) {
+         long expiresAt = i.next().m_expiresAt;
+         if (_now >= expiresAt) {
+            i.remove();
+         }
+         else {
+            earliestExpiry = Math.min(earliestExpiry, expiresAt);
+         }
+      }
+      return earliestExpiry;
+   }
+
+   private static long expiry(long _durationMillis) {
+      long expiresAt = System.currentTimeMillis() + _durationMillis;
+      return (expiresAt < 0) ? Long.MAX_VALUE : expiresAt;
+   }
+}
@@ -0,0 +1,326 @@
+package com.chanytime.baseproject.log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * LogContext is the immutable logging context of a unit of work, currently its
+ * session ID. The logger reads the session ID from the context bound to the
+ * current thread, and from the log4j MDC only on threads that never had a
+ * context bound, so a session follows work that is handed to executors,
+ * CompletableFuture chains and virtual threads instead of being copied into a
+ * map on every thread. A bound context is authoritative: a task wrapped where
+ * no session was set runs without one, whatever its pool thread inherited.
+ * <p>
+ * A context is bound for the duration of a try-with-resources block, and is
+ * inherited by threads created while it is bound. Tasks capture the context
+ * in which they are wrapped and bind it while they run:
+ *
+ * <pre>
+ * {@code
+ * try (LogContext.Scope scope = Logger.bindSessionID(request.getSessionID())) {
+ *    Logger.getLogger().info("received request");
+ *    executor.submit(LogContext.wrap(new Runnable() { ... }));
+ *    CompletableFuture.supplyAsync(supplier, LogContext.wrap(executor));
+ * }
+ * }
+ * </pre>
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+public final class LogContext {
+
+   /**
+    * Scope is the binding of a context to the current thread. Closing it
+    * restores the context that was bound before, and removes the thread's
+    * binding entirely if there was none, so pooled threads do not keep stale
+    * contexts.
+    */
+   public static final class Scope implements AutoCloseable {
+      private final LogContext m_previous;
+      private final Thread m_thread;
+      private boolean m_closed = false;
+
+      private Scope(LogContext _previous) {
+         m_previous = _previous;
+         m_thread = Thread.currentThread();
+      }
+
+      /**
+       * Restores the previous context. Closing a scope more than once, or from
+       * a thread other than the one that bound it, has no effect.
+       */
+      @Override
+      public void close() {
+         if (m_closed || Thread.currentThread() != m_thread) {
+            return;
+         }
+         m_closed = true;
+         if (m_previous == null) {
+            m_current.remove();
+         }
+         else {
+            m_current.set(m_previous);
+         }
+      }
+   }
+
+   /**
+    * ContextExecutor wraps every task passed to an executor in the context
+    * current at the time the task is submitted.
+    */
+   private static class ContextExecutor implements Executor {
+      private final Executor m_delegate;
+
+      ContextExecutor(Executor _delegate) {
+         m_delegate = _delegate;
+      }
+
+      @Override
+      public void execute(Runnable _task) {
+         m_delegate.execute(wrap(_task));
+      }
+   }
+
+   /**
+    * ContextExecutorService wraps every task passed to an executor service in
+    * the context current at the time the task is submitted.
+    */
+   private static final class ContextExecutorService extends ContextExecutor implements ExecutorService {
+      private final ExecutorService m_delegate;
+
+      ContextExecutorService(ExecutorService _delegate) {
+         super(_delegate);
+         m_delegate = _delegate;
+      }
+
+      @Override
+      public void shutdown() {
+         m_delegate.shutdown();
+      }
+
+      @Override
+      public List<Runnable> shutdownNow() {
+         return m_delegate.shutdownNow();
+      }
+
+      @Override
+      public boolean isShutdown() {
+         return m_delegate.isShutdown();
+      }
+
+      @Override
+      public boolean isTerminated() {
+         return m_delegate.isTerminated();
+      }
+
+      @Override
+      public boolean awaitTermination(long _timeout, TimeUnit _unit) throws InterruptedException {
+         return m_delegate.awaitTermination(_timeout, _unit);
+      }
+
+      @Override
+      public <T> Future<T> submit(Callable<T> _task) {
+         return m_delegate.submit(wrap(_task));
+      }
+
+      @Override
+      public <T> Future<T> submit(Runnable _task, T _result) {
+         return m_delegate.submit(wrap(_task), _result);
+      }
+
+      @Override
+      public Future<?> submit(Runnable _task) {
+         return m_delegate.submit(wrap(_task));
+      }
+
+      @Override
+      public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> _tasks) throws InterruptedException {
+         return m_delegate.invokeAll(wrapAll(_tasks));
+      }
+
+      @Override
+      public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> _tasks, long _timeout, TimeUnit _unit)
+            throws InterruptedException {
+         return m_delegate.invokeAll(wrapAll(_tasks), _timeout, _unit);
+      }
+
+      @Override
+      public <T> T invokeAny(Collection<? extends Callable<T>> _tasks) throws InterruptedException,
+            ExecutionException {
+         return m_delegate.invokeAny(wrapAll(_tasks));
+      }
+
+      @Override
+      public <T> T invokeAny(Collection<? extends Callable<T>> _tasks, long _timeout, TimeUnit _unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+         return m_delegate.invokeAny(wrapAll(_tasks), _timeout, _unit);
+      }
+
+      private static <T> List<Callable<T>> wrapAll(Collection<? extends Callable<T>> _tasks) {
+         List<Callable<T>> wrapped = new ArrayList<Callable<T>>(_tasks.size());
+         for (Callable<T> task : _tasks) {
+            wrapped.add(wrap(task));
+         }
+         return wrapped;
+      }
+   }
+
+   /**
+    * The context of work that has not bound one.
+    */
+   public final static LogContext EMPTY = new LogContext(null);
+
+   private final static InheritableThreadLocal<LogContext> m_current = new InheritableThreadLocal<LogContext>();
+
+   private final String m_sessionID;
+
+   private LogContext(String _sessionID) {
+      m_sessionID = _sessionID;
+   }
+
+   /**
+    * Retrieves the context bound to the current thread.
+    *
+    * @return the current context, or EMPTY if none is bound
+    */
+   public static LogContext current() {
+      LogContext context = m_current.get();
+      return (context == null) ? EMPTY : context;
+   }
+
+   /**
+    * Retrieves the context bound to the current thread, if any.
+    *
+    * @return the current context, or null if none was ever bound
+    */
+   static LogContext bound() {
+      return m_current.get();
+   }
+
+   /**
+    * Retrieves the session ID of this context, as it appears in the logger
+    * output.
+    *
+    * @return the session ID, or null if this context has none
+    */
+   public String getSessionID() {
+      return m_sessionID;
+   }
+
+   /**
+    * Creates a copy of this context with a different session ID. This context
+    * is not modified.
+    *
+    * @param _sessionID
+    *           the session ID as it appears in the logger output
+    * @return the new context
+    */
+   public LogContext withSessionID(String _sessionID) {
+      return new LogContext(_sessionID);
+   }
+
+   /**
+    * Binds this context to the current thread until the returned scope is
+    * closed.
+    *
+    * @return the scope to close when the work is done
+    */
+   public Scope bind() {
+      Scope scope = new Scope(m_current.get());
+      m_current.set(this);
+      return scope;
+   }
+
+   /**
+    * Wraps a task so that it runs in the context current at the time it is
+    * wrapped.
+    *
+    * @param _task
+    *           the task
+    * @return the wrapped task
+    */
+   public static Runnable wrap(final Runnable _task) {
+      final LogContext context = current();
+      return new Runnable() {
+         @Override
+         public void run() {
+            Scope scope = context.bind();
+            try {
+               _task.run();
+            }
+            finally {
+               scope.close();
+            }
+         }
+      };
+   }
+
+   /**
+    * Wraps a task so that it runs in the context current at the time it is
+    * wrapped.
+    *
+    * @param _task
+    *           the task
+    * @return the wrapped task
+    */
+   public static <T> Callable<T> wrap(final Callable<T> _task) {
+      final LogContext context = current();
+      return new Callable<T>() {
+         @Override
+         public T call() throws Exception {
+            Scope scope = context.bind();
+            try {
+               return _task.call();
+            }
+            finally {
+               scope.close();
+            }
+         }
+      };
+   }
+
+   /**
+    * Wraps an executor so that every task runs in the context current at the
+    * time it is submitted.
+    *
+    * @param _executor
+    *           the executor
+    * @return the wrapped executor
+    */
+   public static Executor wrap(Executor _executor) {
+      return new ContextExecutor(_executor);
+   }
+
+   /**
+    * Wraps an executor service so that every task runs in the context current
+    * at the time it is submitted.
+    *
+    * @param _executor
+    *           the executor service
+    * @return the wrapped executor service
+    */
+   public static ExecutorService wrap(ExecutorService _executor) {
+      return new ContextExecutorService(_executor);
+   }
+
+   /**
+    * Replaces the context of the current thread without a scope. This backs
+    * Logger.setSessionID, whose session lasts until it is set again.
+    *
+    * @param _context
+    *           the context to bind
+    */
+   static void set(LogContext _context) {
+      m_current.set(_context);
+   }
+}
@@ -1,14 +1,23 @@
 package com.chanytime.baseproject.log;
 
-import java.net.InetAddress;
+import java.util.Hashtable;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Level;
 import org.apache.log4j.MDC;
+import org.apache.log4j.Priority;
+import org.apache.log4j.helpers.LogLog;
 import org.apache.log4j.spi.LoggerFactory;
+import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.spi.ThrowableInformation;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 
 import com.chanytime.baseproject.configuration.Properties;
+import com.chanytime.baseproject.jfr.Events;
+import com.chanytime.baseproject.jfr.LogStatementEvent;
+import com.chanytime.baseproject.log.SessionFlightRecorder.FlightRecording;
+import com.chanytime.baseproject.metrics.Metrics;
 import com.chanytime.baseproject.util.MiscUtil;
 
 /**
@@ -19,7 +28,8 @@ import com.chanytime.baseproject.util.MiscUtil;
  * <li>All levels take a Throwable object to print a backtrace for exceptions
  * <li>The ability to send an email log message for production systems
  * <li>The ability to use sprintf semantics
- * <li>sprintf penalties aren't incurred unless that log level is enabled
+ * <li>sprintf penalties aren't incurred unless that log level is enabled, and
+ * messages are rendered only when an appender writes them
  * <li>Each logger statement has the method from which the logger was called
  * <li>Each logger statement can be correlated with a session ID
  * </ul>
@@ -66,20 +76,48 @@ public class Logger extends org.apache.log4j.Logger {
        */
       @Override
       public Logger makeNewLoggerInstance(String _name) {
-         try {
-            return (Logger) Class.forName("com.chanytime.baseproject.log.Logger").newInstance();
-         }
-         catch (Exception _e) {
-            System.out.println("Caught exception " + _e.toString() + " in makeNewLoggerInstance()");
-            return null;
+         return new Logger(_name);
+      }
+   }
+
+   /**
+    * DefaultLoggerHolder creates the default logger, and initializes the MDC
+    * session ID key, exactly once when it is first used. Class initialization
+    * makes this race-free without any locking on later calls.
+    *
+    * @author Bryant Chan
+    * @version %I%, %G%
+    */
+   private static class DefaultLoggerHolder {
+
+      // If the logging format wants to display log statements, we must have at
+      // least a null key in there to prevent an issue with logger at runtime.
+      // Child threads inherit the MDC of the thread that sets it here.
+
+      static {
+         if (MDC.get(MDC_SESSION_ID_KEY) == null) {
+            MDC.put(MDC_SESSION_ID_KEY, NO_SESSION_ID);
          }
+         Metrics.register();
       }
+
+      static final Logger INSTANCE = register(LOGGER_NAME);
    }
 
    private final static LoggerFactory m_loggerFactory = new LoggerFactoryImpl();
    private final static String LOGGER_NAME = "mainLogger";
-   private final static String MDC_SESSION_ID_KEY = "sessionID";
-   private final static String MDC_CLASS_METHOD_KEY = "classMethod";
+   final static String FQCN = Logger.class.getName();
+   final static String MDC_SESSION_ID_KEY = "sessionID";
+   final static String MDC_CLASS_METHOD_KEY = "classMethod";
+   private final static String NO_SESSION_ID = "null";
+   private final static int DEFAULT_ASYNC_BUFFER_SIZE = 8192;
+   private final static long ASYNC_STOP_TIMEOUT_MILLIS = 5000;
+   private final static String NOT_OVERRIDDEN = new String("not overridden");
+
+   private static volatile AsyncLogDispatcher m_asyncDispatcher = null;
+   private static volatile SessionFlightRecorder m_flightRecorder = null;
+
+   private final static ConcurrentHashMap<String, Logger> m_loggers = new ConcurrentHashMap<String, Logger>();
 
    /**
     * Constructs a default Logger.
@@ -90,52 +128,293 @@ public class Logger extends org.apache.log4j.Logger {
       super(LOGGER_NAME);
    }
 
-   private static boolean m_initialized = false;
+   /**
+    * Constructs a Logger with the specified name.
+    *
+    * @param _name
+    *           the name of the logger
+    */
+   private Logger(String _name) {
+      super(_name);
+   }
 
    /**
-    * Returns the static instance of the logger.
+    * Returns the static instance of the logger. This does not take any lock,
+    * so it is cheap to call at every log statement.
     *
     * @return the static instance of the logger
     */
    public static Logger getLogger() {
+      return DefaultLoggerHolder.INSTANCE;
+   }
 
-      // If we haven't initialized the MDC session ID key, we do so for the
-      // first (and only) time. If the logging format wants to display log
-      // statements, we must have at least a null key in there to prevent
-      // an issue with logger at runtime.
+   /**
+    * Returns the logger with the specified name, creating it the first time
+    * the name is used. Later calls with the same name do not take any lock.
+    *
+    * @param _name
+    *           the name of the logger
+    * @return the logger with the specified name
+    */
+   public static Logger getLogger(String _name) {
+      Logger logger = m_loggers.get(_name);
+      if (logger == null) {
+         getLogger(); // initializes the MDC before any logger is handed out
+         logger = register(_name);
+      }
+      return logger;
+   }
 
-      if (!m_initialized) {
-         if (MDC.get(MDC_SESSION_ID_KEY) == null) {
-            MDC.put(MDC_SESSION_ID_KEY, "null");
-         }
-         m_initialized = true;
+   /**
+    * Creates the logger with the specified name in the log4j hierarchy and
+    * caches it in the registry. If log4j already created a logger with this
+    * name that is not an instance of this class, the default logger is used
+    * instead.
+    *
+    * @param _name
+    *           the name of the logger
+    * @return the logger with the specified name
+    */
+   private static Logger register(String _name) {
+      Object logger = org.apache.log4j.Logger.getLogger(_name, m_loggerFactory);
+      if (!(logger instanceof Logger)) {
+         LogLog.warn("Logger " + _name + " was created outside of " + FQCN + "; using " + LOGGER_NAME + " instead.");
+         logger = getLogger();
       }
+      Logger existing = m_loggers.putIfAbsent(_name, (Logger) logger);
+      return (existing == null) ? (Logger) logger : existing;
+   }
 
-      return (Logger) org.apache.log4j.Logger.getLogger(LOGGER_NAME, m_loggerFactory);
+   /**
+    * Starts logging asynchronously with a default buffer size that blocks
+    * logging threads when the buffer is full.
+    */
+   public static void startAsync() {
+      startAsync(DEFAULT_ASYNC_BUFFER_SIZE, AsyncOverflowPolicy.BLOCK, 1);
+   }
+
+   /**
+    * Starts logging asynchronously. Logging threads publish statements into a
+    * bounded buffer, and a background thread passes them to the appenders in
+    * batches. Statements still in the buffer are flushed when the JVM shuts
+    * down. If asynchronous logging is already started, it is restarted with
+    * the new settings.
+    *
+    * @param _bufferSize
+    *           the number of statements the buffer holds, rounded up to a
+    *           power of two
+    * @param _policy
+    *           what to do when the buffer is full
+    * @param _sampleRate
+    *           for the SAMPLE policy, one in this many statements below WARN is
+    *           kept when the buffer is full
+    */
+   public static synchronized void startAsync(int _bufferSize, AsyncOverflowPolicy _policy, int _sampleRate) {
+      stopAsync();
+      m_asyncDispatcher = new AsyncLogDispatcher(getLogger(), _bufferSize, _policy, _sampleRate);
+   }
+
+   /**
+    * Stops logging asynchronously after passing the statements still in the
+    * buffer to the appenders. Subsequent statements are logged on the calling
+    * thread.
+    */
+   public static synchronized void stopAsync() {
+      AsyncLogDispatcher dispatcher = m_asyncDispatcher;
+      if (dispatcher != null) {
+         m_asyncDispatcher = null;
+         dispatcher.stop(ASYNC_STOP_TIMEOUT_MILLIS);
+      }
+   }
+
+   /**
+    * Waits until every statement logged asynchronously before this call has
+    * been passed to the appenders. This does nothing when logging
+    * synchronously.
+    *
+    * @param _timeoutMillis
+    *           the maximum time to wait
+    * @return true if every statement was passed to the appenders false if the
+    *         wait timed out
+    */
+   public static boolean flushAsync(long _timeoutMillis) {
+      AsyncLogDispatcher dispatcher = m_asyncDispatcher;
+      return dispatcher == null || dispatcher.flush(_timeoutMillis);
    }
 
    /**
     * Sets the session ID to correlate multiple calls to the logger to a single
     * session, which is defined by the client. The client has the responsibility
     * of generating session IDs which do not collide and keeping it across
-    * process boundaries.
+    * process boundaries; SessionIDs.generate creates such IDs for clients that
+    * do not have their own. The session ID stays in effect on the current
+    * thread, and the threads it creates, until it is set again; use
+    * bindSessionID to limit it to a block of work. The session ID is also put
+    * into the log4j MDC, as it always was, for appenders and other code that
+    * read it from there.
     *
     * @param _sessionID
     *           the client-generated session ID for correlating this log
     *           statement
     */
    public static void setSessionID(String _sessionID) {
-      String loggerIdentifier = Properties.getProperties().getLoggerIdentifier();
-      if (loggerIdentifier != null && loggerIdentifier != "") {
-         _sessionID += " - " + loggerIdentifier;
+      String sessionID = SessionIDs.decorate(_sessionID);
+      LogContext.set(LogContext.current().withSessionID(sessionID));
+      if (sessionID == null) {
+         MDC.remove(MDC_SESSION_ID_KEY);
       }
-      MDC.put(MDC_SESSION_ID_KEY, _sessionID);
+      else {
+         MDC.put(MDC_SESSION_ID_KEY, sessionID);
+      }
+   }
+
+   /**
+    * Sets the session ID for a block of work on the current thread. The
+    * previous session ID is restored when the returned scope is closed. Tasks
+    * wrapped with LogContext.wrap carry the session ID to other threads.
+    *
+    * @param _sessionID
+    *           the client-generated session ID for correlating log statements
+    * @return the scope to close when the work is done
+    * @see LogContext
+    */
+   public static LogContext.Scope bindSessionID(String _sessionID) {
+      return LogContext.current().withSessionID(SessionIDs.decorate(_sessionID)).bind();
+   }
+
+   /**
+    * Retrieves the session ID of the current thread, from its LogContext or,
+    * if none was ever bound, from the MDC. A bound context without a session
+    * ID means there is none, even if the MDC the thread inherited has one.
+    *
+    * @return the session ID as it is logged, or null if there is none
+    */
+   static Object currentSessionID() {
+      LogContext context = LogContext.bound();
+      return (context != null) ? context.getSessionID() : MDC.get(MDC_SESSION_ID_KEY);
+   }
+
+   /**
+    * Raises the verbosity of the logger for one session without changing the
+    * log4j configuration. Statements at or above the specified level are
+    * logged for the session until the override expires.
+    *
+    * @param _sessionID
+    *           the client-generated session ID, as passed to setSessionID
+    * @param _level
+    *           the level in effect for the session, e.g., Level.TRACE
+    * @param _durationMillis
+    *           how long the override lasts
+    */
+   public static void overrideSessionLevel(String _sessionID, Level _level, long _durationMillis) {
+      LevelOverrides.setSessionLevel(SessionIDs.decorate(_sessionID), _level, _durationMillis);
+   }
+
+   /**
+    * Removes the level override for one session.
+    *
+    * @param _sessionID
+    *           the client-generated session ID, as passed to setSessionID
+    */
+   public static void clearSessionLevel(String _sessionID) {
+      LevelOverrides.clearSession(SessionIDs.decorate(_sessionID));
+   }
+
+   /**
+    * Raises the verbosity of the logger for statements logged from one class
+    * or method without changing the log4j configuration. Statements at or
+    * above the specified level are logged from the call site until the
+    * override expires.
+    *
+    * @param _callSite
+    *           the call site as it appears in the logger output, i.e.,
+    *           "Class.method", or "Class" for every method of a class
+    * @param _level
+    *           the level in effect for the call site, e.g., Level.TRACE
+    * @param _durationMillis
+    *           how long the override lasts
+    */
+   public static void overrideCallSiteLevel(String _callSite, Level _level, long _durationMillis) {
+      LevelOverrides.setCallSiteLevel(_callSite, _level, _durationMillis);
+   }
+
+   /**
+    * Removes the level override for one class or method.
+    *
+    * @param _callSite
+    *           the call site as "Class.method" or "Class"
+    */
+   public static void clearCallSiteLevel(String _callSite) {
+      LevelOverrides.clearCallSite(_callSite);
+   }
+
+   /**
+    * Removes every session and call-site level override.
+    */
+   public static void clearLevelOverrides() {
+      LevelOverrides.clear();
+   }
+
+   /**
+    * Checks whether DEBUG is enabled for the configured level or by an
+    * override for the current session or caller. Call-site overrides are
+    * only confirmed when a statement is logged, so this may return true for
+    * a caller that no override applies to.
+    *
+    * @return true if DEBUG statements may be logged false otherwise
+    */
+   @Override
+   public boolean isDebugEnabled() {
+      return super.isDebugEnabled() || (LevelOverrides.isActive() && LevelOverrides.mayEnable(Level.DEBUG));
+   }
+
+   /**
+    * Checks whether INFO is enabled for the configured level or by an
+    * override for the current session or caller. Call-site overrides are
+    * only confirmed when a statement is logged, so this may return true for
+    * a caller that no override applies to.
+    *
+    * @return true if INFO statements may be logged false otherwise
+    */
+   @Override
+   public boolean isInfoEnabled() {
+      return super.isInfoEnabled() || (LevelOverrides.isActive() && LevelOverrides.mayEnable(Level.INFO));
+   }
+
+   /**
+    * Checks whether TRACE is enabled for the configured level or by an
+    * override for the current session or caller. Call-site overrides are
+    * only confirmed when a statement is logged, so this may return true for
+    * a caller that no override applies to.
+    *
+    * @return true if TRACE statements may be logged false otherwise
+    */
+   @Override
+   public boolean isTraceEnabled() {
+      return super.isTraceEnabled() || (LevelOverrides.isActive() && LevelOverrides.mayEnable(Level.TRACE));
+   }
+
+   /**
+    * Checks whether a level is enabled for the configured level or by an
+    * override for the current session or caller. Call-site overrides are
+    * only confirmed when a statement is logged, so this may return true for
+    * a caller that no override applies to.
+    *
+    * @param _level
+    *           the level to check
+    * @return true if statements at the level may be logged false otherwise
+    */
+   @Override
+   public boolean isEnabledFor(Priority _level) {
+      return super.isEnabledFor(_level)
+            || (LevelOverrides.isActive() && LevelOverrides.mayEnable(Level.toLevel(_level.toInt())));
    }
 
    /**
     * Sends an email to system operators on production systems. This will work
     * only on production systems, and the email destination is specified in the
-    * properties file.
+    * properties file. The email is sent in the background, so this does not
+    * wait for the SMTP server.
     *
     * @param _message
     *           the message to send in HTML format
@@ -143,18 +422,12 @@ public class Logger extends org.apache.log4j.Logger {
    public void sendEmailOnProduction(String _message) {
       if (Properties.getProperties().getProduction()) {
          try {
-            String session = (String) MDC.get(MDC_SESSION_ID_KEY);
+            Object session = currentSessionID();
             if (session == null) {
                session = "null";
             }
-            String computerName = "null";
-            try {
-               computerName = InetAddress.getLocalHost().getHostName();
-            }
-            catch (Exception _e) {
-            }
-            MiscUtil.sendHtmlEmail(Properties.getProperties().getLoggerEmailDestination(), "Session (" + session
-                  + ") on " + computerName + " received a message to send email at "
+            MiscUtil.sendHtmlEmailAsync(Properties.getProperties().getLoggerEmailDestination(), "Session ("
+                  + session + ") on " + MiscUtil.getComputerName() + " received a message to send email at "
                   + DateTime.now(DateTimeZone.UTC).toString() + "!", _message, DateTime.now(DateTimeZone.UTC));
          }
          catch (Exception _e) {
@@ -164,47 +437,337 @@ public class Logger extends org.apache.log4j.Logger {
    }
 
    /**
-    * Sends an email with the backtrace in the specified exception.
+    * Queues an email with the backtrace in the specified exception and the
+    * recent activity of the session. The email is sent, deduplicated and
+    * rate-limited by a background thread.
     *
     * @param _t
     *           the exception with the backtrace information to send
+    * @param _sessionID
+    *           the session ID of the logging thread
+    * @param _recent
+    *           the recent activity of the session, or null
     */
-   private void sendExceptionEmail(Throwable _t) {
+   private void sendExceptionEmail(Throwable _t, Object _sessionID, FlightRecording _recent) {
       if (Properties.getProperties().getProduction()) {
-         try {
-            String session = (String) MDC.get(MDC_SESSION_ID_KEY);
-            if (session == null) {
-               session = "null";
-            }
-            String computerName = "null";
-            try {
-               computerName = InetAddress.getLocalHost().getHostName();
-            }
-            catch (Exception _e) {
-            }
-            MiscUtil.sendHtmlEmail(Properties.getProperties().getLoggerEmailDestination(), "Session (" + session
-                  + ") on " + computerName + " encountered an exception at "
-                  + DateTime.now(DateTimeZone.UTC).toString() + "!", getStackTrace(_t, "<br/>"),
-                  DateTime.now(DateTimeZone.UTC));
+         ExceptionMailer.getInstance().submit(_t, _sessionID, _recent);
+      }
+   }
+
+   /**
+    * Starts keeping the most recent DEBUG and TRACE statements of each session
+    * in memory, even when those levels are disabled. The statements are not
+    * rendered unless an exception is logged for the session, in which case
+    * they are logged after the backtrace and included in the exception email.
+    *
+    * @param _statementsPerSession
+    *           the number of recent statements kept for each session
+    * @param _maxSessions
+    *           the maximum number of sessions recorded at once
+    * @param _idleMillis
+    *           how long a session may go without a statement before its
+    *           recording is discarded
+    */
+   public static void enableFlightRecorder(int _statementsPerSession, int _maxSessions, long _idleMillis) {
+      m_flightRecorder = new SessionFlightRecorder(_statementsPerSession, _maxSessions, _idleMillis);
+   }
+
+   /**
+    * Stops keeping recent statements for each session and discards those
+    * already kept.
+    */
+   public static void disableFlightRecorder() {
+      m_flightRecorder = null;
+   }
+
+   /**
+    * Limits how many statements one call site may log. Statements logged with
+    * an exception are never suppressed. The number of suppressed statements is
+    * logged periodically.
+    *
+    * @param _callSite
+    *           the call site as it appears in the logger output, i.e.,
+    *           "Class.method"
+    * @param _policy
+    *           the policy for the call site, or null to remove it
+    * @see CallSitePolicy
+    */
+   public static void setCallSitePolicy(String _callSite, CallSitePolicy _policy) {
+      CallSiteLimiter.setPolicy(_callSite, _policy);
+   }
+
+   /**
+    * Limits how many statements each call site without a policy of its own may
+    * log. Each call site is limited separately.
+    *
+    * @param _policy
+    *           the policy for every other call site, or null to remove it
+    */
+   public static void setDefaultCallSitePolicy(CallSitePolicy _policy) {
+      CallSiteLimiter.setDefaultPolicy(_policy);
+   }
+
+   /**
+    * Removes every call-site policy, including the default one.
+    */
+   public static void clearCallSitePolicies() {
+      CallSiteLimiter.clear();
+   }
+
+   /**
+    * Sets when the class and method that called the logger are resolved. By
+    * default, the caller is resolved only if a configured layout references
+    * the classMethod MDC key.
+    *
+    * @param _mode
+    *           the mode for resolving callers; null restores the default
+    * @see CallerInfoMode
+    */
+   public static void setCallerInfoMode(CallerInfoMode _mode) {
+      CallerResolver.setMode(_mode);
+   }
+
+   /**
+    * Re-inspects the configured layouts the next time a statement is logged.
+    * This should be called after the log4j configuration is changed at
+    * runtime.
+    */
+   public static void refreshCallerInfoMode() {
+      CallerResolver.invalidate();
+   }
+
+   /**
+    * Passes a statement whose level is already known to be enabled to the
+    * appenders, unless the policy of its call site suppresses it.
+    *
+    * @param _level
+    *           the level of the statement
+    * @param _message
+    *           the message
+    */
+   private void log(Level _level, Object _message) {
+      logWithCaller(_level, _message, null);
+   }
+
+   /**
+    * Passes a statement whose level is already known to be enabled to the
+    * appenders, unless the policy of its call site suppresses it.
+    *
+    * @param _level
+    *           the level of the statement
+    * @param _message
+    *           the message
+    * @param _caller
+    *           the caller if it has already been resolved, or null
+    */
+   private void logWithCaller(Level _level, Object _message, String _caller) {
+      String caller = confirmCallSite(_level, _caller);
+      if (caller == NOT_OVERRIDDEN) {
+         return;
+      }
+      if (CallSiteLimiter.isActive()) {
+         if (caller == null) {
+            caller = CallerResolver.resolve();
          }
-         catch (Exception _e) {
-            error("Caught exception trying to send exception email, message: %s", _e.getMessage());
+         if (!CallSiteLimiter.tryAcquire(this, caller, _level)) {
+            Metrics.SUPPRESSED_EVENTS.increment(_level);
+            return;
          }
       }
+      deliver(_level, _message, caller);
+   }
+
+   /**
+    * Resolves the caller of a statement whose level is only enabled if a
+    * call-site override applies to it, and checks the override. Statements
+    * whose level is enabled otherwise are not affected.
+    *
+    * @param _level
+    *           the level of the statement
+    * @param _caller
+    *           the caller if it has already been resolved, or null
+    * @return the caller, which is only resolved if the override had to be
+    *         checked, or NOT_OVERRIDDEN if the statement must not be logged
+    */
+   private String confirmCallSite(Level _level, String _caller) {
+      if (!LevelOverrides.isActive() || super.isEnabledFor(_level) || LevelOverrides.isEnabledForSession(_level)) {
+         return _caller;
+      }
+      String caller = (_caller == null) ? CallerResolver.resolve() : _caller;
+      return LevelOverrides.isEnabledForCallSite(_level, caller) ? caller : NOT_OVERRIDDEN;
    }
 
    /**
-    * Retrieves the class and method that called the logger to log a statement
-    * to be output in the logger output.
+    * Passes a statement whose level is already known to be enabled to the
+    * appenders, either directly or through the asynchronous dispatcher,
+    * unless its level is only enabled by a call-site override that does not
+    * apply to its caller.
+    *
+    * @param _level
+    *           the level of the statement
+    * @param _message
+    *           the message
+    * @param _caller
+    *           the caller if it has already been resolved, or null
     */
-   private void addClassMethodNameToMDC() {
-      StackTraceElement s = new Exception().getStackTrace()[2];
-      String className = s.getClassName();
-      String methodName = s.getMethodName();
-      MDC.put(MDC_CLASS_METHOD_KEY, className.substring(className.lastIndexOf('.') + 1) + "." + methodName);
+   private void dispatch(Level _level, Object _message, String _caller) {
+      String caller = confirmCallSite(_level, _caller);
+      if (caller != NOT_OVERRIDDEN) {
+         deliver(_level, _message, caller);
+      }
    }
 
-   private static String getStackTrace(Throwable _t, String _lineSeparator) {
+   /**
+    * Passes a statement to the appenders, either directly or through the
+    * asynchronous dispatcher.
+    *
+    * @param _level
+    *           the level of the statement
+    * @param _message
+    *           the message
+    * @param _caller
+    *           the caller if it has already been resolved, or null
+    */
+   private void deliver(Level _level, Object _message, String _caller) {
+      AsyncLogDispatcher dispatcher = m_asyncDispatcher;
+      Object sessionID = currentSessionID();
+      if (dispatcher == null
+            || !dispatcher.publish(this, _level, sessionID, CallerResolver.resolveFor(this, _caller), _message)) {
+         appendOnCurrentThread(FQCN, _level, _message, null, sessionID, CallerResolver.valueFor(this, _caller));
+      }
+   }
+
+   /**
+    * Passes a statement logged through the methods inherited from log4j to
+    * the appenders, with the session ID of the current LogContext.
+    *
+    * @param _fqcn
+    *           the fully-qualified name of the logger class called
+    * @param _level
+    *           the level of the statement
+    * @param _message
+    *           the message
+    * @param _t
+    *           the exception, or null
+    */
+   @Override
+   protected void forcedLog(String _fqcn, Priority _level, Object _message, Throwable _t) {
+      Level level = (_level instanceof Level) ? (Level) _level : Level.toLevel(_level.toInt());
+      String caller = confirmCallSite(level, null);
+      if (caller != NOT_OVERRIDDEN) {
+         appendOnCurrentThread(_fqcn, level, _message, _t, currentSessionID(), CallerResolver.valueFor(this, caller));
+      }
+   }
+
+   /**
+    * Passes a statement to the appenders on the current thread. The session ID
+    * and the caller are handed to the appenders as the MDC of the event, so
+    * neither has to be stored in the thread's MDC; the event reads any other
+    * key from the thread's MDC. The session ID is always set, to "null" if
+    * there is none, so the event never falls back to a stale one in the
+    * thread's MDC.
+    *
+    * @param _fqcn
+    *           the fully-qualified name of the logger class called
+    * @param _level
+    *           the level of the statement
+    * @param _message
+    *           the message
+    * @param _t
+    *           the exception, or null
+    * @param _sessionID
+    *           the session ID, or null
+    * @param _classMethod
+    *           the caller, or null
+    */
+   private void appendOnCurrentThread(String _fqcn, Level _level, Object _message, Throwable _t, Object _sessionID,
+         Object _classMethod) {
+      Hashtable<Object, Object> mdc = new Hashtable<Object, Object>(4);
+      mdc.put(MDC_SESSION_ID_KEY, (_sessionID == null) ? NO_SESSION_ID : _sessionID);
+      if (_classMethod != null) {
+         mdc.put(MDC_CLASS_METHOD_KEY, _classMethod);
+      }
+      long start = System.nanoTime();
+      LoggingEvent event = new LoggingEvent(_fqcn, this, System.currentTimeMillis(), _level, _message, null,
+            (_t == null) ? null : new ThrowableInformation(_t, this), null, null, mdc);
+      LogStatementEvent jfr = Events.isActive() ? LogStatementEvent.start() : null;
+      callAppenders(event);
+      if (jfr != null) {
+         jfr.end(_level, getName(), _classMethod, event.getRenderedMessage());
+      }
+      Metrics.LOGGED_EVENTS.increment(_level);
+      Metrics.APPEND_TIME.recordSince(start);
+   }
+
+   /**
+    * Logs how many statements a call site suppressed. This is called from the
+    * background thread of the call-site limiter.
+    *
+    * @param _level
+    *           the level of the suppressed statements
+    * @param _message
+    *           the summary
+    * @param _callSite
+    *           the call site that suppressed the statements
+    */
+   void logSummary(Level _level, String _message, String _callSite) {
+      deliver(_level, _message, _callSite);
+   }
+
+   /**
+    * Logs a statement if its level is enabled, and keeps it in the flight
+    * recorder of the current session if the flight recorder is enabled. The
+    * session is checked before the caller is resolved, so statements that
+    * are neither logged nor recorded cost no stack walk, and the caller is
+    * resolved at most once for both.
+    *
+    * @param _level
+    *           the level of the statement
+    * @param _enabled
+    *           whether the level is enabled
+    * @param _message
+    *           the message
+    */
+   private void logAndRecord(Level _level, boolean _enabled, Object _message) {
+      SessionFlightRecorder recorder = m_flightRecorder;
+      Object sessionID = (recorder == null) ? null : currentSessionID();
+      if (recorder == null || !recorder.accepts(sessionID)) {
+         if (_enabled) {
+            log(_level, _message);
+         }
+         return;
+      }
+      String caller = CallerResolver.resolve();
+      if (_enabled) {
+         logWithCaller(_level, _message, caller);
+      }
+      recorder.record(sessionID, _level, caller, _message);
+   }
+
+   /**
+    * Logs the backtrace of an exception, followed by the recent activity of
+    * the session if the flight recorder is enabled, and queues the exception
+    * email. The email is queued even if the level is disabled.
+    *
+    * @param _level
+    *           the level of the statement
+    * @param _t
+    *           the exception
+    */
+   private void logException(Level _level, Throwable _t) {
+      Object sessionID = currentSessionID();
+      SessionFlightRecorder recorder = m_flightRecorder;
+      FlightRecording recent = (recorder == null) ? null : recorder.drain(sessionID);
+      if (isEnabledFor(_level)) {
+         dispatch(_level, getStackTrace(_t, System.getProperty("line.separator")), null);
+         if (recent != null) {
+            dispatch(_level, recent, null);
+         }
+      }
+      sendExceptionEmail(_t, sessionID, recent);
+   }
+
+   static String getStackTrace(Throwable _t, String _lineSeparator) {
       final StringBuilder result = new StringBuilder();
       result.append("EXCEPTION (message: " + _t.getMessage() + ") -- details:");
       result.append(_lineSeparator);
@@ -226,8 +789,7 @@ public class Logger extends org.apache.log4j.Logger {
     */
    public void fatal(String _string) {
       if (isEnabledFor(Level.FATAL)) {
-         addClassMethodNameToMDC();
-         super.fatal(_string);
+         log(Level.FATAL, _string);
       }
    }
 
@@ -241,8 +803,7 @@ public class Logger extends org.apache.log4j.Logger {
     */
    public void fatal(String _format, Object... _args) {
       if (isEnabledFor(Level.FATAL)) {
-         addClassMethodNameToMDC();
-         super.fatal(String.format(_format, _args));
+         log(Level.FATAL, new FormattedMessage(_format, _args));
       }
    }
 
@@ -258,11 +819,9 @@ public class Logger extends org.apache.log4j.Logger {
     */
    public void fatal(Throwable _t, String _format, Object... _args) {
       if (isEnabledFor(Level.FATAL)) {
-         addClassMethodNameToMDC();
-         super.fatal(String.format(_format, _args));
-         super.fatal(getStackTrace(_t, System.getProperty("line.separator")));
+         dispatch(Level.FATAL, new FormattedMessage(_format, _args), null);
       }
-      sendExceptionEmail(_t);
+      logException(Level.FATAL, _t);
    }
 
    /**
@@ -273,8 +832,7 @@ public class Logger extends org.apache.log4j.Logger {
     */
    public void error(String _string) {
       if (isEnabledFor(Level.ERROR)) {
-         addClassMethodNameToMDC();
-         super.error(_string);
+         log(Level.ERROR, _string);
       }
    }
 
@@ -288,8 +846,7 @@ public class Logger extends org.apache.log4j.Logger {
     */
    public void error(String _format, Object... _args) {
       if (isEnabledFor(Level.ERROR)) {
-         addClassMethodNameToMDC();
-         super.error(String.format(_format, _args));
+         log(Level.ERROR, new FormattedMessage(_format, _args));
       }
    }
 
@@ -305,11 +862,9 @@ public class Logger extends org.apache.log4j.Logger {
     */
    public void error(Throwable _t, String _format, Object... _args) {
       if (isEnabledFor(Level.ERROR)) {
-         addClassMethodNameToMDC();
-         super.error(String.format(_format, _args));
-         super.error(getStackTrace(_t, System.getProperty("line.separator")));
+         dispatch(Level.ERROR, new FormattedMessage(_format, _args), null);
       }
-      sendExceptionEmail(_t);
+      logException(Level.ERROR, _t);
    }
 
    /**
@@ -320,8 +875,7 @@ public class Logger extends org.apache.log4j.Logger {
     */
    public void warn(String _string) {
       if (isEnabledFor(Level.WARN)) {
-         addClassMethodNameToMDC();
-         super.warn(_string);
+         log(Level.WARN, _string);
       }
    }
 
@@ -335,8 +889,7 @@ public class Logger extends org.apache.log4j.Logger {
     */
    public void warn(String _format, Object... _args) {
       if (isEnabledFor(Level.WARN)) {
-         addClassMethodNameToMDC();
-         super.warn(String.format(_format, _args));
+         log(Level.WARN, new FormattedMessage(_format, _args));
       }
    }
 
@@ -352,11 +905,9 @@ public class Logger extends org.apache.log4j.Logger {
     */
    public void warn(Throwable _t, String _format, Object... _args) {
       if (isEnabledFor(Level.WARN)) {
-         addClassMethodNameToMDC();
-         super.warn(String.format(_format, _args));
-         super.warn(getStackTrace(_t, System.getProperty("line.separator")));
+         dispatch(Level.WARN, new FormattedMessage(_format, _args), null);
       }
-      sendExceptionEmail(_t);
+      logException(Level.WARN, _t);
    }
 
    /**
@@ -366,10 +917,7 @@ public class Logger extends org.apache.log4j.Logger {
     *           the message
     */
    public void debug(String _string) {
-      if (isDebugEnabled()) {
-         addClassMethodNameToMDC();
-         super.debug(_string);
-      }
+      logAndRecord(Level.DEBUG, isDebugEnabled(), _string);
    }
 
    /**
@@ -381,9 +929,9 @@ public class Logger extends org.apache.log4j.Logger {
     *           arguments to the message format
     */
    public void debug(String _format, Object... _args) {
-      if (isDebugEnabled()) {
-         addClassMethodNameToMDC();
-         super.debug(String.format(_format, _args));
+      boolean enabled = isDebugEnabled();
+      if (enabled || m_flightRecorder != null) {
+         logAndRecord(Level.DEBUG, enabled, new FormattedMessage(_format, _args));
       }
    }
 
@@ -399,11 +947,9 @@ public class Logger extends org.apache.log4j.Logger {
     */
    public void debug(Throwable _t, String _format, Object... _args) {
       if (isDebugEnabled()) {
-         addClassMethodNameToMDC();
-         super.debug(String.format(_format, _args));
-         super.debug(getStackTrace(_t, System.getProperty("line.separator")));
+         dispatch(Level.DEBUG, new FormattedMessage(_format, _args), null);
       }
-      sendExceptionEmail(_t);
+      logException(Level.DEBUG, _t);
    }
 
    /**
@@ -414,8 +960,7 @@ public class Logger extends org.apache.log4j.Logger {
     */
    public void info(String _string) {
       if (isInfoEnabled()) {
-         addClassMethodNameToMDC();
-         super.info(_string);
+         log(Level.INFO, _string);
       }
    }
 
@@ -429,8 +974,7 @@ public class Logger extends org.apache.log4j.Logger {
     */
    public void info(String _format, Object... _args) {
       if (isInfoEnabled()) {
-         addClassMethodNameToMDC();
-         super.info(String.format(_format, _args));
+         log(Level.INFO, new FormattedMessage(_format, _args));
       }
    }
 
@@ -446,11 +990,9 @@ public class Logger extends org.apache.log4j.Logger {
     */
    public void info(Throwable _t, String _format, Object... _args) {
       if (isInfoEnabled()) {
-         addClassMethodNameToMDC();
-         super.info(String.format(_format, _args));
-         super.info(getStackTrace(_t, System.getProperty("line.separator")));
+         dispatch(Level.INFO, new FormattedMessage(_format, _args), null);
       }
-      sendExceptionEmail(_t);
+      logException(Level.INFO, _t);
    }
 
    /**
@@ -460,10 +1002,7 @@ public class Logger extends org.apache.log4j.Logger {
     *           the message
     */
    public void trace(String _string) {
-      if (isTraceEnabled()) {
-         addClassMethodNameToMDC();
-         super.trace(_string);
-      }
+      logAndRecord(Level.TRACE, isTraceEnabled(), _string);
    }
 
    /**
@@ -475,9 +1014,9 @@ public class Logger extends org.apache.log4j.Logger {
     *           arguments to the message format
     */
    public void trace(String _format, Object... _args) {
-      if (isTraceEnabled()) {
-         addClassMethodNameToMDC();
-         super.trace(String.format(_format, _args));
+      boolean enabled = isTraceEnabled();
+      if (enabled || m_flightRecorder != null) {
+         logAndRecord(Level.TRACE, enabled, new FormattedMessage(_format, _args));
       }
    }
 
@@ -493,10 +1032,8 @@ public class Logger extends org.apache.log4j.Logger {
     */
    public void trace(Throwable _t, String _format, Object... _args) {
       if (isTraceEnabled()) {
-         addClassMethodNameToMDC();
-         super.trace(String.format(_format, _args));
-         super.trace(getStackTrace(_t, System.getProperty("line.separator")));
+         dispatch(Level.TRACE, new FormattedMessage(_format, _args), null);
       }
-      sendExceptionEmail(_t);
+      logException(Level.TRACE, _t);
    }
 }
@@ -0,0 +1,538 @@
+package com.chanytime.baseproject.log;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Layout;
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.ErrorCode;
+import org.apache.log4j.spi.LoggingEvent;
+
+import com.chanytime.baseproject.util.MappedBuffers;
+
+/**
+ * MappedFileAppender writes log events into a memory-mapped region of a file
+ * instead of through a synchronized Writer. Each event is formatted by the
+ * configured layout, e.g., the project's PatternLayout, and encoded straight
+ * into the mapped region; a new region is mapped whenever the current one
+ * fills up. A region is unmapped as soon as it is replaced, and before the
+ * file is truncated or renamed, rather than whenever the garbage collector
+ * gets to it.
+ * <p>
+ * The file is rolled into a timestamped segment when it reaches the segment
+ * size or when the roll interval passes, and only the most recent segments
+ * are kept. How often the written data is forced to disk is set by the flush
+ * policy:
+ * <ul>
+ * <li>EVENT forces after every event
+ * <li>BATCH forces after every batch passed by the asynchronous logger, or
+ * after BatchSize events when logging synchronously; events that do not fill
+ * a batch are forced by a background thread within FlushIntervalMillis
+ * <li>PERIODIC forces every FlushIntervalMillis from a background thread
+ * </ul>
+ * The following is a sample configuration in log4j.properties.
+ *
+ * <pre>
+ * log4j.appender.file=com.chanytime.baseproject.log.MappedFileAppender
+ * log4j.appender.file.File=logs/project.log
+ * log4j.appender.file.SegmentSize=67108864
+ * log4j.appender.file.RollIntervalMinutes=1440
+ * log4j.appender.file.MaxSegments=10
+ * log4j.appender.file.FlushPolicy=BATCH
+ * log4j.appender.file.layout=org.apache.log4j.PatternLayout
+ * log4j.appender.file.layout.ConversionPattern=%d{ISO8601} - %p - %X{sessionID} - %X{classMethod}() - %m%n
+ * </pre>
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+public class MappedFileAppender extends AppenderSkeleton implements BatchAwareAppender {
+
+   /**
+    * FlushPolicy specifies when written events are forced to disk.
+    */
+   public enum FlushPolicy {
+      EVENT, BATCH, PERIODIC
+   }
+
+   private final static String THREAD_NAME = "mapped-file-flusher";
+   private final static String SEGMENT_DATE_PATTERN = "yyyy-MM-dd-HHmmss";
+   private final static int TRAILING_SCAN_SIZE = 64 * 1024;
+
+   private String m_fileName = null;
+   private long m_segmentSize = 64L * 1024 * 1024;
+   private int m_regionSize = 8 * 1024 * 1024;
+   private long m_rollIntervalMinutes = 0;
+   private int m_maxSegments = 10;
+   private FlushPolicy m_flushPolicy = FlushPolicy.BATCH;
+   private int m_batchSize = 256;
+   private long m_flushIntervalMillis = 1000;
+   private String m_encoding = "UTF-8";
+
+   private RandomAccessFile m_file = null;
+   private FileChannel m_channel = null;
+   private MappedByteBuffer m_region = null;
+   private long m_regionStart = 0;
+   private CharsetEncoder m_encoder = null;
+   private long m_nextRollTime = Long.MAX_VALUE;
+   private int m_unflushedEvents = 0;
+   private ScheduledExecutorService m_flusher = null;
+
+   /**
+    * Constructs an appender that must be configured and activated before use.
+    */
+   public MappedFileAppender() {
+   }
+
+   /**
+    * Constructs and activates an appender.
+    *
+    * @param _layout
+    *           the layout that formats each event
+    * @param _fileName
+    *           the path of the active log file
+    */
+   public MappedFileAppender(Layout _layout, String _fileName) {
+      setLayout(_layout);
+      setFile(_fileName);
+      activateOptions();
+   }
+
+   public void setFile(String _fileName) {
+      m_fileName = (_fileName == null) ? null : _fileName.trim();
+   }
+
+   public String getFile() {
+      return m_fileName;
+   }
+
+   /**
+    * Sets the size in bytes at which the active file is rolled into a segment.
+    *
+    * @param _segmentSize
+    *           the segment size in bytes
+    */
+   public void setSegmentSize(long _segmentSize) {
+      m_segmentSize = _segmentSize;
+   }
+
+   public long getSegmentSize() {
+      return m_segmentSize;
+   }
+
+   /**
+    * Sets the number of bytes mapped into memory at a time.
+    *
+    * @param _regionSize
+    *           the region size in bytes
+    */
+   public void setRegionSize(int _regionSize) {
+      m_regionSize = _regionSize;
+   }
+
+   public int getRegionSize() {
+      return m_regionSize;
+   }
+
+   /**
+    * Sets how often the active file is rolled into a segment regardless of its
+    * size; 0 rolls by size only.
+    *
+    * @param _rollIntervalMinutes
+    *           the roll interval in minutes
+    */
+   public void setRollIntervalMinutes(long _rollIntervalMinutes) {
+      m_rollIntervalMinutes = _rollIntervalMinutes;
+   }
+
+   public long getRollIntervalMinutes() {
+      return m_rollIntervalMinutes;
+   }
+
+   /**
+    * Sets how many rolled segments are kept; older segments are deleted.
+    *
+    * @param _maxSegments
+    *           the number of segments to keep
+    */
+   public void setMaxSegments(int _maxSegments) {
+      m_maxSegments = _maxSegments;
+   }
+
+   public int getMaxSegments() {
+      return m_maxSegments;
+   }
+
+   public void setFlushPolicy(String _flushPolicy) {
+      m_flushPolicy = FlushPolicy.valueOf(_flushPolicy.trim().toUpperCase());
+   }
+
+   public String getFlushPolicy() {
+      return m_flushPolicy.name();
+   }
+
+   /**
+    * Sets, for the BATCH flush policy, how many events written synchronously
+    * make up a batch.
+    *
+    * @param _batchSize
+    *           the number of events between flushes
+    */
+   public void setBatchSize(int _batchSize) {
+      m_batchSize = _batchSize;
+   }
+
+   public int getBatchSize() {
+      return m_batchSize;
+   }
+
+   /**
+    * Sets how often the background thread forces written events to disk, for
+    * the PERIODIC flush policy, and the longest time events written
+    * synchronously wait for their batch, for the BATCH flush policy.
+    *
+    * @param _flushIntervalMillis
+    *           the flush interval in milliseconds
+    */
+   public void setFlushIntervalMillis(long _flushIntervalMillis) {
+      m_flushIntervalMillis = _flushIntervalMillis;
+   }
+
+   public long getFlushIntervalMillis() {
+      return m_flushIntervalMillis;
+   }
+
+   public void setEncoding(String _encoding) {
+      m_encoding = _encoding;
+   }
+
+   public String getEncoding() {
+      return m_encoding;
+   }
+
+   /**
+    * Opens the active file and starts the background flusher if the flush
+    * policy is PERIODIC or BATCH.
+    */
+   @Override
+   public synchronized void activateOptions() {
+      if (m_fileName == null) {
+         LogLog.warn("File option not set for appender [" + name + "].");
+         return;
+      }
+      if (m_segmentSize < 1 || m_regionSize < 1 || m_maxSegments < 0 || m_batchSize < 1 || m_flushIntervalMillis < 1) {
+         errorHandler.error("Invalid options for appender [" + name + "].", null, ErrorCode.GENERIC_FAILURE);
+         return;
+      }
+      m_encoder = Charset.forName(m_encoding).newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+      try {
+         openSegment();
+      }
+      catch (IOException _e) {
+         errorHandler.error("Cannot open " + m_fileName + " for appender [" + name + "].", _e,
+               ErrorCode.FILE_OPEN_FAILURE);
+         return;
+      }
+      if (m_flushPolicy != FlushPolicy.EVENT && m_flusher == null) {
+         m_flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable _runnable) {
+               Thread thread = new Thread(_runnable, THREAD_NAME);
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+         m_flusher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+               synchronized (MappedFileAppender.this) {
+                  if (m_flushPolicy == FlushPolicy.PERIODIC || m_unflushedEvents > 0) {
+                     flush();
+                  }
+               }
+            }
+         }, m_flushIntervalMillis, m_flushIntervalMillis, TimeUnit.MILLISECONDS);
+      }
+   }
+
+   /**
+    * Formats an event and writes it into the mapped region. This is called by
+    * AppenderSkeleton with the appender's lock held.
+    *
+    * @param _event
+    *           the event to write
+    */
+   @Override
+   protected void append(LoggingEvent _event) {
+      if (m_region == null) {
+         errorHandler.error("No output file for appender [" + name + "].");
+         return;
+      }
+      try {
+         if (_event.timeStamp >= m_nextRollTime) {
+            roll();
+         }
+         write(layout.format(_event));
+         if (layout.ignoresThrowable()) {
+            String[] lines = _event.getThrowableStrRep();
+            if (lines != null) {
+               for (String line : lines) {
+                  write(line);
+                  write(Layout.LINE_SEP);
+               }
+            }
+         }
+         if (m_flushPolicy == FlushPolicy.EVENT || (m_flushPolicy == FlushPolicy.BATCH && ++m_unflushedEvents >= m_batchSize)) {
+            flush();
+         }
+         if (position() >= m_segmentSize) {
+            roll();
+         }
+      }
+      catch (IOException _e) {
+         errorHandler.error("Failed to write to " + m_fileName + " for appender [" + name + "].", _e,
+               ErrorCode.WRITE_FAILURE);
+      }
+   }
+
+   /**
+    * Forces the events written so far to disk if the flush policy is BATCH.
+    */
+   @Override
+   public synchronized void endBatch() {
+      if (m_flushPolicy == FlushPolicy.BATCH && m_unflushedEvents > 0) {
+         flush();
+      }
+   }
+
+   /**
+    * Forces the written events to disk, trims the unused tail of the mapped
+    * region and closes the file.
+    */
+   @Override
+   public synchronized void close() {
+      if (closed) {
+         return;
+      }
+      closed = true;
+      if (m_flusher != null) {
+         m_flusher.shutdown();
+         m_flusher = null;
+      }
+      try {
+         closeSegment();
+      }
+      catch (IOException _e) {
+         errorHandler.error("Failed to close " + m_fileName + " for appender [" + name + "].", _e,
+               ErrorCode.CLOSE_FAILURE);
+      }
+   }
+
+   @Override
+   public boolean requiresLayout() {
+      return true;
+   }
+
+   /**
+    * Encodes a string into the mapped region, mapping the next region whenever
+    * the current one fills up.
+    *
+    * @param _string
+    *           the string to write
+    * @throws IOException
+    *            if the next region cannot be mapped
+    */
+   private void write(String _string) throws IOException {
+      CharBuffer in = CharBuffer.wrap(_string);
+      CoderResult result;
+      while ((result = m_encoder.encode(in, m_region, true)).isOverflow()) {
+         mapNextRegion();
+      }
+      while (m_encoder.flush(m_region).isOverflow()) {
+         mapNextRegion();
+      }
+      m_encoder.reset();
+      if (result.isError()) {
+         result.throwException();
+      }
+   }
+
+   /**
+    * Forces the current region to disk.
+    */
+   private void flush() {
+      m_unflushedEvents = 0;
+      if (m_region != null) {
+         m_region.force();
+      }
+   }
+
+   /**
+    * Retrieves the number of bytes written to the active file.
+    *
+    * @return the position in the active file
+    */
+   private long position() {
+      return m_regionStart + m_region.position();
+   }
+
+   /**
+    * Maps the region that starts where the current one ends and unmaps the
+    * current one.
+    *
+    * @throws IOException
+    *            if the region cannot be mapped
+    */
+   private void mapNextRegion() throws IOException {
+      long start = position();
+      MappedByteBuffer previous = m_region;
+      previous.force();
+      m_region = m_channel.map(FileChannel.MapMode.READ_WRITE, start, m_regionSize);
+      m_regionStart = start;
+      MappedBuffers.unmap(previous);
+   }
+
+   /**
+    * Opens the active file, appending after any events it already holds.
+    *
+    * @throws IOException
+    *            if the file cannot be opened or mapped
+    */
+   private void openSegment() throws IOException {
+      File file = new File(m_fileName);
+      File parent = file.getAbsoluteFile().getParentFile();
+      if (parent != null && !parent.exists()) {
+         parent.mkdirs();
+      }
+      m_file = new RandomAccessFile(file, "rw");
+      m_channel = m_file.getChannel();
+      m_regionStart = findEnd(m_channel);
+      m_region = m_channel.map(FileChannel.MapMode.READ_WRITE, m_regionStart, m_regionSize);
+      m_nextRollTime = (m_rollIntervalMinutes > 0) ? System.currentTimeMillis()
+            + TimeUnit.MINUTES.toMillis(m_rollIntervalMinutes) : Long.MAX_VALUE;
+   }
+
+   /**
+    * Forces and closes the active file, truncating the zeroes left after the
+    * last event by the mapped region. The region is unmapped first, since
+    * some platforms refuse to truncate or rename a file that is still
+    * mapped.
+    *
+    * @throws IOException
+    *            if the file cannot be truncated or closed
+    */
+   private void closeSegment() throws IOException {
+      if (m_region == null) {
+         return;
+      }
+      long end = position();
+      MappedByteBuffer region = m_region;
+      region.force();
+      m_region = null;
+      MappedBuffers.unmap(region);
+      try {
+         m_channel.truncate(end);
+      }
+      finally {
+         m_file.close();
+         m_channel = null;
+         m_file = null;
+      }
+   }
+
+   /**
+    * Closes the active file, renames it to a timestamped segment, deletes the
+    * oldest segments and opens a new active file.
+    *
+    * @throws IOException
+    *            if the file cannot be rolled
+    */
+   private void roll() throws IOException {
+      closeSegment();
+      File file = new File(m_fileName);
+      String base = file.getName() + "." + new SimpleDateFormat(SEGMENT_DATE_PATTERN).format(new Date());
+      File segment = new File(file.getAbsoluteFile().getParentFile(), base);
+      for (int i = 1; segment.exists(); i++) {
+         segment = new File(file.getAbsoluteFile().getParentFile(), base + "-" + i);
+      }
+      if (!file.renameTo(segment)) {
+         LogLog.warn("Failed to rename " + m_fileName + " to " + segment + "; continuing in the same file.");
+      }
+      deleteOldSegments(file);
+      openSegment();
+   }
+
+   /**
+    * Deletes the oldest rolled segments beyond the number to keep.
+    *
+    * @param _file
+    *           the active file
+    */
+   private void deleteOldSegments(File _file) {
+      final String prefix = _file.getName() + ".";
+      File directory = _file.getAbsoluteFile().getParentFile();
+      File[] segments = directory.listFiles(new FilenameFilter() {
+         @Override
+         public boolean accept(File _directory, String _name) {
+            return _name.startsWith(prefix);
+         }
+      });
+      if (segments == null || segments.length <= m_maxSegments) {
+         return;
+      }
+      Arrays.sort(segments);
+      for (int i = 0; i < segments.length - m_maxSegments; i++) {
+         if (!segments[i].delete()) {
+            LogLog.warn("Failed to delete old log segment " + segments[i] + ".");
+         }
+      }
+   }
+
+   /**
+    * Finds the end of the events already in a file, skipping the zeroes left
+    * by a mapped region if the process did not shut down cleanly.
+    *
+    * @param _channel
+    *           the channel of the file
+    * @return the position after the last event
+    * @throws IOException
+    *            if the file cannot be read
+    */
+   private static long findEnd(FileChannel _channel) throws IOException {
+      long end = _channel.size();
+      ByteBuffer buffer = ByteBuffer.allocate(TRAILING_SCAN_SIZE);
+      while (end > 0) {
+         long start = Math.max(0, end - TRAILING_SCAN_SIZE);
+         buffer.clear();
+         buffer.limit((int) (end - start));
+         while (buffer.hasRemaining() && _channel.read(buffer, start + buffer.position()) >= 0) {
+         }
+         for (int i = buffer.position() - 1; i >= 0; i--) {
+            if (buffer.get(i) != 0) {
+               return start + i + 1;
+            }
+         }
+         end = start;
+      }
+      return 0;
+   }
+}
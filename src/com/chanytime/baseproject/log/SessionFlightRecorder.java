@@ -0,0 +1,275 @@
+package com.chanytime.baseproject.log;
+
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.helpers.ISO8601DateFormat;
+
+/**
+ * SessionFlightRecorder keeps the most recent DEBUG and TRACE statements of
+ * each session in a fixed-size ring, whether or not those levels are enabled.
+ * Statements are kept unformatted and are rendered only when an exception is
+ * logged for the session, so that the exception report shows what the session
+ * did before it failed.
+ * <p>
+ * Memory is bounded by the number of statements per session and the number of
+ * sessions. Sessions are kept in a concurrent map, so recording a statement
+ * takes no lock shared between sessions. Eviction happens in an occasional
+ * sweep, run by one logging thread at a time, at most every
+ * SWEEP_INTERVAL_MILLIS and whenever a new session takes the number of
+ * sessions past the maximum: sessions that have been idle longer than the idle
+ * timeout are evicted, and then the least recently used ones until the
+ * maximum is respected. A statement recorded for a session while it is being
+ * evicted may be lost with it.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+final class SessionFlightRecorder {
+
+   /**
+    * Recording is the ring of recent statements for one session.
+    */
+   private static final class Recording {
+      private final long[] m_timestamps;
+      private final Level[] m_levels;
+      private final String[] m_callers;
+      private final Object[] m_messages;
+      private int m_next = 0;
+      private int m_count = 0;
+      volatile long m_lastAccess;
+
+      Recording(int _capacity, long _now) {
+         m_timestamps = new long[_capacity];
+         m_levels = new Level[_capacity];
+         m_callers = new String[_capacity];
+         m_messages = new Object[_capacity];
+         m_lastAccess = _now;
+      }
+
+      synchronized void add(long _timestamp, Level _level, String _caller, Object _message) {
+         m_timestamps[m_next] = _timestamp;
+         m_levels[m_next] = _level;
+         m_callers[m_next] = _caller;
+         m_messages[m_next] = _message;
+         m_next = (m_next + 1) % m_messages.length;
+         if (m_count < m_messages.length) {
+            m_count++;
+         }
+         m_lastAccess = _timestamp;
+      }
+
+      synchronized FlightRecording drain(Object _sessionID) {
+         if (m_count == 0) {
+            return null;
+         }
+         int capacity = m_messages.length;
+         int start = (m_next - m_count + capacity) % capacity;
+         long[] timestamps = new long[m_count];
+         Level[] levels = new Level[m_count];
+         String[] callers = new String[m_count];
+         Object[] messages = new Object[m_count];
+         for (int i = 0; i < m_count; i++) {
+            int index = (start + i) % capacity;
+            timestamps[i] = m_timestamps[index];
+            levels[i] = m_levels[index];
+            callers[i] = m_callers[index];
+            messages[i] = m_messages[index];
+            m_messages[index] = null;
+         }
+         m_count = 0;
+         return new FlightRecording(_sessionID, timestamps, levels, callers, messages);
+      }
+   }
+
+   /**
+    * FlightRecording is the rendered-on-demand copy of a session's recent
+    * statements. Its string form is suitable for passing to the logger as a
+    * message.
+    */
+   static final class FlightRecording {
+      private final Object m_sessionID;
+      private final long[] m_timestamps;
+      private final Level[] m_levels;
+      private final String[] m_callers;
+      private final Object[] m_messages;
+
+      private FlightRecording(Object _sessionID, long[] _timestamps, Level[] _levels, String[] _callers,
+            Object[] _messages) {
+         m_sessionID = _sessionID;
+         m_timestamps = _timestamps;
+         m_levels = _levels;
+         m_callers = _callers;
+         m_messages = _messages;
+      }
+
+      /**
+       * Renders the statements, oldest first, one per line.
+       *
+       * @param _lineSeparator
+       *           the separator to put before each statement
+       * @return the rendered statements
+       */
+      String render(String _lineSeparator) {
+         DateFormat dateFormat = new ISO8601DateFormat();
+         StringBuilder sb = new StringBuilder();
+         sb.append("Recent activity for session ").append(m_sessionID).append(" (").append(m_messages.length)
+               .append(" statements):");
+         for (int i = 0; i < m_messages.length; i++) {
+            sb.append(_lineSeparator).append("[RECENT] ");
+            sb.append(dateFormat.format(new Date(m_timestamps[i]))).append(" - ");
+            sb.append(m_levels[i]).append(" - ");
+            sb.append(m_callers[i]).append("() - ");
+            sb.append(m_messages[i]);
+         }
+         return sb.toString();
+      }
+
+      @Override
+      public String toString() {
+         return render(System.getProperty("line.separator"));
+      }
+   }
+
+   private final static String UNSET_SESSION_ID = "null";
+   private final static long SWEEP_INTERVAL_MILLIS = 1000;
+   private final static Comparator<Map.Entry<Object, Recording>> LEAST_RECENTLY_USED = new Comparator<Map.Entry<Object, Recording>>() {
+      @Override
+      public int compare(Map.Entry<Object, Recording> _a, Map.Entry<Object, Recording> _b) {
+         return Long.compare(_a.getValue().m_lastAccess, _b.getValue().m_lastAccess);
+      }
+   };
+
+   private final ConcurrentHashMap<Object, Recording> m_recordings = new ConcurrentHashMap<Object, Recording>();
+   private final AtomicBoolean m_sweeping = new AtomicBoolean(false);
+   private final int m_statementsPerSession;
+   private final int m_maxSessions;
+   private final long m_idleMillis;
+   private final long m_sweepIntervalMillis;
+   private volatile long m_nextSweep;
+
+   /**
+    * Constructs a flight recorder.
+    *
+    * @param _statementsPerSession
+    *           the number of recent statements kept for each session
+    * @param _maxSessions
+    *           the maximum number of sessions recorded at once
+    * @param _idleMillis
+    *           how long a session may go without a statement before it is
+    *           evicted
+    */
+   SessionFlightRecorder(int _statementsPerSession, int _maxSessions, long _idleMillis) {
+      if (_statementsPerSession < 1 || _maxSessions < 1 || _idleMillis < 1) {
+         throw new IllegalArgumentException("Invalid parameters to SessionFlightRecorder!");
+      }
+      m_statementsPerSession = _statementsPerSession;
+      m_maxSessions = _maxSessions;
+      m_idleMillis = _idleMillis;
+      m_sweepIntervalMillis = Math.min(SWEEP_INTERVAL_MILLIS, _idleMillis);
+      m_nextSweep = System.currentTimeMillis() + m_sweepIntervalMillis;
+   }
+
+   /**
+    * Checks whether statements of a session are recorded, so that callers can
+    * skip resolving the caller of a statement that would not be recorded.
+    *
+    * @param _sessionID
+    *           the session ID of the logging thread
+    * @return true if the session has an ID false otherwise
+    */
+   boolean accepts(Object _sessionID) {
+      return _sessionID != null && !UNSET_SESSION_ID.equals(_sessionID);
+   }
+
+   /**
+    * Records a statement for a session. Statements without a session are not
+    * recorded.
+    *
+    * @param _sessionID
+    *           the session ID of the logging thread
+    * @param _level
+    *           the level of the statement
+    * @param _caller
+    *           the class and method that logged the statement
+    * @param _message
+    *           the unrendered message
+    */
+   void record(Object _sessionID, Level _level, String _caller, Object _message) {
+      if (!accepts(_sessionID)) {
+         return;
+      }
+      long now = System.currentTimeMillis();
+      Recording recording = m_recordings.get(_sessionID);
+      boolean added = false;
+      if (recording == null) {
+         Recording created = new Recording(m_statementsPerSession, now);
+         recording = m_recordings.putIfAbsent(_sessionID, created);
+         if (recording == null) {
+            recording = created;
+            added = true;
+         }
+      }
+      recording.add(now, _level, _caller, _message);
+      if (now >= m_nextSweep || (added && m_recordings.size() > m_maxSessions)) {
+         sweep(now);
+      }
+   }
+
+   /**
+    * Removes and returns the recorded statements of a session.
+    *
+    * @param _sessionID
+    *           the session ID
+    * @return the recorded statements, or null if there are none
+    */
+   FlightRecording drain(Object _sessionID) {
+      if (_sessionID == null) {
+         return null;
+      }
+      Recording recording = m_recordings.get(_sessionID);
+      return (recording == null) ? null : recording.drain(_sessionID);
+   }
+
+   /**
+    * Evicts the sessions that have been idle longer than the idle timeout,
+    * and then the least recently used sessions while there are too many. Only
+    * one thread sweeps at a time; the others carry on without waiting.
+    *
+    * @param _now
+    *           the current time
+    */
+   private void sweep(long _now) {
+      if (!m_sweeping.compareAndSet(false, true)) {
+         return;
+      }
+      try {
+         m_nextSweep = _now + m_sweepIntervalMillis;
+         for (Map.Entry<Object, Recording> entry : m_recordings.entrySet()) {
+            if (_now - entry.getValue().m_lastAccess > m_idleMillis) {
+               m_recordings.remove(entry.getKey(), entry.getValue());
+            }
+         }
+         int excess = m_recordings.size() - m_maxSessions;
+         if (excess > 0) {
+            List<Map.Entry<Object, Recording>> entries = new ArrayList<Map.Entry<Object, Recording>>(
+                  m_recordings.entrySet());
+            Collections.sort(entries, LEAST_RECENTLY_USED);
+            for (int i = 0; i < excess && i < entries.size(); i++) {
+               m_recordings.remove(entries.get(i).getKey(), entries.get(i).getValue());
+            }
+         }
+      }
+      finally {
+         m_sweeping.set(false);
+      }
+   }
+}
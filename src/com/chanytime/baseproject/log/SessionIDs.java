@@ -0,0 +1,138 @@
+package com.chanytime.baseproject.log;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.chanytime.baseproject.configuration.Properties;
+import com.chanytime.baseproject.util.MiscUtil;
+
+/**
+ * SessionIDs generates session IDs for clients that do not bring their own,
+ * and decorates session IDs with the logger identifier the way they appear in
+ * the logger output. The identifier is looked up in the properties once
+ * instead of at every call to Logger.setSessionID, and again after it changes
+ * in a reload.
+ * <p>
+ * A generated session ID is the current time, a node ID derived from the host
+ * name and the process ID, and a per-process counter, each in base 36 and
+ * separated by dashes, e.g., "kb1x2q0w-3f9a-00001". Generating one takes no
+ * lock.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ * @see Logger#setSessionID(String)
+ */
+public final class SessionIDs {
+
+   private final static char[] DIGITS = "0123456789abcdefghijklmnopqrstuvwxyz".toCharArray();
+   private final static int NODE_WIDTH = 4;
+   private final static int COUNTER_WIDTH = 5;
+   private final static int NODE_MODULUS = 36 * 36 * 36 * 36;
+
+   private final static AtomicLong m_counter = new AtomicLong(ThreadLocalRandom.current().nextInt(1 << 16));
+   private final static String m_node = toBase36(nodeID(), NODE_WIDTH);
+
+   private final static AtomicBoolean m_listening = new AtomicBoolean(false);
+
+   private static volatile String m_suffix = null;
+
+   private SessionIDs() {
+   }
+
+   /**
+    * Generates a session ID that is unique across the processes and hosts
+    * logging to the same place.
+    *
+    * @return the new session ID
+    */
+   public static String generate() {
+      long count = m_counter.getAndIncrement();
+      StringBuilder sb = new StringBuilder(32);
+      appendBase36(sb, System.currentTimeMillis(), 1);
+      sb.append('-');
+      sb.append(m_node);
+      sb.append('-');
+      appendBase36(sb, count & Long.MAX_VALUE, COUNTER_WIDTH);
+      return sb.toString();
+   }
+
+   /**
+    * Appends the logger identifier to a client-generated session ID, which is
+    * the form in which the session ID appears in the logger output.
+    *
+    * @param _sessionID
+    *           the client-generated session ID, or null, which is decorated
+    *           as the string "null"
+    * @return the session ID as it is logged, or null if the session ID is
+    *         null and there is no logger identifier
+    */
+   static String decorate(String _sessionID) {
+      String suffix = m_suffix;
+      if (suffix == null) {
+         Properties properties = Properties.getProperties();
+         if (m_listening.compareAndSet(false, true)) {
+            properties.addListener("logger_identifier", (key, oldValue, newValue) -> invalidate());
+         }
+         String loggerIdentifier = properties.getLoggerIdentifier();
+         suffix = (loggerIdentifier == null || loggerIdentifier.isEmpty()) ? "" : " - " + loggerIdentifier;
+         m_suffix = suffix;
+      }
+      if (suffix.isEmpty()) {
+         return _sessionID;
+      }
+      return (_sessionID == null) ? "null" + suffix : _sessionID.concat(suffix);
+   }
+
+   /**
+    * Forgets the logger identifier so that it is looked up again the next
+    * time a session ID is decorated. This is called when the properties are
+    * reloaded with a different logger identifier.
+    */
+   static void invalidate() {
+      m_suffix = null;
+   }
+
+   /**
+    * Derives the ID of this process from the host name and the process ID.
+    *
+    * @return the node ID
+    */
+   private static long nodeID() {
+      long hash = MiscUtil.getComputerName().hashCode() * 31L + ProcessHandle.current().pid();
+      return Math.floorMod(hash ^ (hash >>> 32), NODE_MODULUS);
+   }
+
+   private static String toBase36(long _value, int _width) {
+      StringBuilder sb = new StringBuilder(_width);
+      appendBase36(sb, _value, _width);
+      return sb.toString();
+   }
+
+   /**
+    * Appends a non-negative number in base 36, padded with zeroes to the
+    * specified width, without creating an intermediate string.
+    *
+    * @param _sb
+    *           the buffer
+    * @param _value
+    *           the number
+    * @param _width
+    *           the minimum number of digits
+    */
+   private static void appendBase36(StringBuilder _sb, long _value, int _width) {
+      int digits = 1;
+      for (long v = _value / 36; v > 0; v /= 36) {
+         digits++;
+      }
+      for (int i = digits; i < _width; i++) {
+         _sb.append('0');
+      }
+      int start = _sb.length();
+      _sb.setLength(start + digits);
+      for (int i = start + digits - 1; i >= start; i--) {
+         _sb.setCharAt(i, DIGITS[(int) (_value % 36)]);
+         _value /= 36;
+      }
+   }
+}
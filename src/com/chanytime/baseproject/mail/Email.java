@@ -0,0 +1,108 @@
+package com.chanytime.baseproject.mail;
+
+import java.util.Date;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import com.chanytime.baseproject.configuration.Properties;
+
+/**
+ * Email is an immutable HTML email waiting to be sent. Unlike a MimeMessage,
+ * it does not belong to a mail session, so it can be queued, written to disk
+ * and sent later through whatever session is current then.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+public final class Email {
+
+   private final String m_recipient;
+   private final String m_subject;
+   private final String m_body;
+   private final long m_sentMillis;
+
+   /**
+    * Constructs an email.
+    *
+    * @param _recipient
+    *           the email address of the recipient
+    * @param _subject
+    *           the subject-line text
+    * @param _body
+    *           the HTML body
+    * @param _sentMillis
+    *           the timestamp of the sent message
+    */
+   public Email(String _recipient, String _subject, String _body, long _sentMillis) {
+      m_recipient = _recipient;
+      m_subject = _subject;
+      m_body = _body;
+      m_sentMillis = _sentMillis;
+   }
+
+   /**
+    * Retrieves the email address of the recipient.
+    *
+    * @return the email address of the recipient
+    */
+   public String getRecipient() {
+      return m_recipient;
+   }
+
+   /**
+    * Retrieves the subject-line text.
+    *
+    * @return the subject-line text
+    */
+   public String getSubject() {
+      return m_subject;
+   }
+
+   /**
+    * Retrieves the HTML body.
+    *
+    * @return the HTML body
+    */
+   public String getBody() {
+      return m_body;
+   }
+
+   /**
+    * Retrieves the timestamp of the sent message.
+    *
+    * @return the timestamp in milliseconds since the epoch
+    */
+   public long getSentMillis() {
+      return m_sentMillis;
+   }
+
+   /**
+    * Builds the message to send, from the address in the email_from_field
+    * property.
+    *
+    * @param _session
+    *           the mail session
+    * @return the message, ready to be sent
+    * @throws MessagingException
+    *            if an address is not valid
+    */
+   MimeMessage toMessage(Session _session) throws MessagingException {
+      MimeMessage message = new MimeMessage(_session);
+      message.setFrom(new InternetAddress(Properties.getProperties().getEmailFromField()));
+      message.setRecipients(Message.RecipientType.TO, new InternetAddress[] { new InternetAddress(m_recipient) });
+      message.setSubject(m_subject);
+      message.setContent(m_body, "text/html; charset=ISO-8859-1");
+      message.setSentDate(new Date(m_sentMillis));
+      message.saveChanges();
+      return message;
+   }
+
+   @Override
+   public String toString() {
+      return "Email[to=" + m_recipient + ", subject=" + m_subject + "]";
+   }
+}
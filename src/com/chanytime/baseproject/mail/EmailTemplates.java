@@ -0,0 +1,221 @@
+package com.chanytime.baseproject.mail;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.net.URL;
+import java.util.Map;
+
+import org.apache.velocity.Template;
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.exception.ResourceNotFoundException;
+import org.apache.velocity.exception.VelocityException;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.runtime.log.Log4JLogChute;
+import org.apache.velocity.runtime.resource.loader.ClasspathResourceLoader;
+
+import com.chanytime.baseproject.configuration.Properties;
+import com.chanytime.baseproject.log.Logger;
+
+/**
+ * EmailTemplates renders HTML email bodies from Velocity templates. A template
+ * is parsed the first time it is used and kept in a bounded cache, from which
+ * the least recently used templates are evicted. Templates are looked up in
+ * the following places, in order:
+ * <ul>
+ * <li>the directory in the email_template_dir property, if set
+ * <li>the templates directory in the classpath
+ * </ul>
+ * A template missing from the directory is looked up in the classpath, so the
+ * directory only needs to hold the templates it overrides. Templates read from
+ * a directory are checked for changes every few seconds and parsed again when
+ * they have changed, so they can be edited without a restart. Templates
+ * packaged in a jar are never checked.
+ * <p>
+ * If Velocity cannot be initialized, for instance because one of its
+ * dependencies is missing, render throws an IllegalStateException and callers
+ * are expected to fall back to building the body themselves. The following is
+ * a sample calling sequence:
+ *
+ * <pre>
+ * {@code
+ * Map<String, Object> context = new HashMap<String, Object>();
+ * context.put("name", name);
+ * String body = EmailTemplates.getInstance().render("welcome.vm", context);
+ * }
+ * </pre>
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+public final class EmailTemplates {
+
+   /**
+    * TemplateLoader loads templates from the templates directory in the
+    * classpath, so that templates have the same names whether they are found
+    * there or in the template directory. It is public only because Velocity
+    * instantiates it by name.
+    */
+   public static final class TemplateLoader extends ClasspathResourceLoader {
+      @Override
+      public InputStream getResourceStream(String _name) throws ResourceNotFoundException {
+         return super.getResourceStream(TEMPLATE_DIRECTORY + "/" + _name);
+      }
+   }
+
+   /**
+    * Buffer is the writer a thread renders into, and whether a render on
+    * that thread is using it.
+    */
+   private static final class Buffer {
+      final StringWriter m_writer = new StringWriter(1024);
+      boolean m_inUse = false;
+   }
+
+   private final static String TEMPLATE_DIRECTORY = "templates";
+   private final static String ENCODING = "ISO-8859-1";
+   private final static String LOGGER_NAME = "org.apache.velocity";
+   private final static int CACHE_SIZE = 64;
+   private final static int CHECK_INTERVAL_SECONDS = 2;
+   private final static int MAX_REUSED_WRITER_SIZE = 64 * 1024;
+
+   private final static ThreadLocal<Buffer> m_buffers = new ThreadLocal<Buffer>() {
+      @Override
+      protected Buffer initialValue() {
+         return new Buffer();
+      }
+   };
+
+   private static EmailTemplates m_instance = null;
+
+   private volatile VelocityEngine m_engine;
+
+   /**
+    * Constructs the templates from the current properties and subscribes them
+    * to changes of the template directory.
+    */
+   private EmailTemplates() {
+      Properties properties = Properties.getProperties();
+      configure(properties);
+      properties.addListener("email_template_dir", (k, oldValue, newValue) -> configure(Properties.getProperties()));
+   }
+
+   /**
+    * Retrieves the global instance of the templates, creating it the first
+    * time.
+    *
+    * @return the global instance of the templates
+    */
+   public static synchronized EmailTemplates getInstance() {
+      if (m_instance == null) {
+         m_instance = new EmailTemplates();
+      }
+      return m_instance;
+   }
+
+   /**
+    * Retrieves whether templates can be rendered.
+    *
+    * @return true if Velocity was initialized false otherwise
+    */
+   public boolean isAvailable() {
+      return m_engine != null;
+   }
+
+   /**
+    * Renders a template into a string. The thread's writer is reused, unless
+    * the template renders another one while it is being rendered, in which
+    * case the inner render gets a writer of its own.
+    *
+    * @param _name
+    *           the name of the template, relative to the template directory
+    * @param _context
+    *           the values the template refers to, by name
+    * @return the rendered template
+    * @throws IllegalStateException
+    *            if Velocity is not available or the template cannot be found,
+    *            parsed or rendered
+    */
+   public String render(String _name, Map<String, ?> _context) {
+      VelocityEngine engine = m_engine;
+      if (engine == null) {
+         throw new IllegalStateException("Email templates are not available!");
+      }
+      Buffer buffer = m_buffers.get();
+      boolean reused = !buffer.m_inUse;
+      StringWriter writer = reused ? buffer.m_writer : new StringWriter(1024);
+      buffer.m_inUse = true;
+      try {
+         Template template = engine.getTemplate(_name, ENCODING);
+         VelocityContext context = new VelocityContext();
+         for (Map.Entry<String, ?> entry : _context.entrySet()) {
+            if (entry.getValue() != null) {
+               context.put(entry.getKey(), entry.getValue());
+            }
+         }
+         template.merge(context, writer);
+         return writer.toString();
+      }
+      catch (VelocityException _e) {
+         throw new IllegalStateException("Template " + _name + " cannot be rendered!", _e);
+      }
+      finally {
+         if (reused) {
+            buffer.m_inUse = false;
+            if (writer.getBuffer().capacity() > MAX_REUSED_WRITER_SIZE) {
+               m_buffers.remove();
+            }
+            else {
+               writer.getBuffer().setLength(0);
+            }
+         }
+      }
+   }
+
+   /**
+    * Replaces the engine, and with it the cache of parsed templates, with one
+    * that reads from the template directory in the properties and then from
+    * the classpath.
+    *
+    * @param _properties
+    *           the properties
+    */
+   private synchronized void configure(Properties _properties) {
+      String directory = _properties.getString("email_template_dir", null);
+      if (directory == null) {
+         URL url = EmailTemplates.class.getClassLoader().getResource(TEMPLATE_DIRECTORY);
+         if (url != null && url.getProtocol().equals("file")) {
+            directory = new File(url.getPath()).getAbsolutePath();
+         }
+      }
+      try {
+         VelocityEngine engine = new VelocityEngine();
+         engine.setProperty(RuntimeConstants.RUNTIME_LOG_LOGSYSTEM_CLASS, Log4JLogChute.class.getName());
+         engine.setProperty(Log4JLogChute.RUNTIME_LOG_LOG4J_LOGGER, LOGGER_NAME);
+         engine.setProperty(RuntimeConstants.INPUT_ENCODING, ENCODING);
+         engine.setProperty(RuntimeConstants.OUTPUT_ENCODING, ENCODING);
+         engine.setProperty(RuntimeConstants.RESOURCE_MANAGER_DEFAULTCACHE_SIZE, Integer.toString(CACHE_SIZE));
+         if (directory != null) {
+            engine.setProperty(RuntimeConstants.RESOURCE_LOADER, "file,class");
+            engine.setProperty(RuntimeConstants.FILE_RESOURCE_LOADER_PATH, directory);
+            engine.setProperty(RuntimeConstants.FILE_RESOURCE_LOADER_CACHE, "true");
+            engine.setProperty("file.resource.loader.modificationCheckInterval",
+                               Integer.toString(CHECK_INTERVAL_SECONDS));
+         }
+         else {
+            engine.setProperty(RuntimeConstants.RESOURCE_LOADER, "class");
+         }
+         engine.setProperty("class.resource.loader.class", TemplateLoader.class.getName());
+         engine.setProperty("class.resource.loader.cache", "true");
+         engine.setProperty("class.resource.loader.modificationCheckInterval", "0");
+         engine.init();
+         m_engine = engine;
+      }
+      catch (RuntimeException | LinkageError _e) {
+         m_engine = null;
+         Logger.getLogger().warn("Caught exception trying to initialize the email templates, message: %s",
+                                 _e.toString());
+      }
+   }
+}
@@ -0,0 +1,422 @@
+package com.chanytime.baseproject.mail;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.internet.MimeMessage;
+
+import com.chanytime.baseproject.configuration.Properties;
+import com.chanytime.baseproject.log.Logger;
+import com.chanytime.baseproject.metrics.Metrics;
+
+/**
+ * MailQueue sends email in the background so that callers do not wait for
+ * the SMTP server. Every email submitted gets a future that completes when the
+ * server accepts the email, or completes exceptionally when the email is
+ * rejected or cannot be sent.
+ * <p>
+ * Emails wait in a bounded queue, from which a few worker threads take as
+ * many as BATCH_SIZE at a time and send them over one pooled connection, so a
+ * burst of email costs one connection instead of one per email. If the queue
+ * is full, the email is not queued and its future fails right away.
+ * <p>
+ * A failure that may be transient, e.g., a dropped connection, is retried
+ * with exponential backoff and random jitter, up to MAX_ATTEMPTS times. A
+ * recipient the server rejects is not retried, and neither is an email whose
+ * connection failed after its content was sent, since the server may have
+ * accepted it and only its reply was lost.
+ * <p>
+ * If the mail_spool_dir property is set, every queued email is also written to
+ * a file in that directory and deleted once it is sent or given up on. The
+ * emails left there when the application stopped are sent when the queue is
+ * next created. The file is written, forced to disk and renamed into place
+ * before submit returns, so an email that was queued survives a crash; the
+ * price is paid by the caller, see submit.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+public final class MailQueue {
+
+   /**
+    * Pending is an email in the queue, with its future and its spool file.
+    */
+   private static final class Pending {
+      final Email m_email;
+      final CompletableFuture<Void> m_future;
+      final Path m_spoolFile;
+      int m_attempts = 0;
+
+      Pending(Email _email, CompletableFuture<Void> _future, Path _spoolFile) {
+         m_email = _email;
+         m_future = _future;
+         m_spoolFile = _spoolFile;
+      }
+   }
+
+   private final static String THREAD_NAME = "mail-queue";
+   private final static String SPOOL_SUFFIX = ".mail";
+   private final static int SPOOL_VERSION = 1;
+   private final static int QUEUE_CAPACITY = 1000;
+   private final static int WORKERS = 2;
+   private final static int BATCH_SIZE = 50;
+   private final static int MAX_ATTEMPTS = 6;
+   private final static long BASE_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(1);
+   private final static long MAX_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+   private final static long BORROW_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+   private static MailQueue m_instance = null;
+
+   private final Mailer m_mailer;
+   private final Path m_spoolDir;
+   private final BlockingQueue<Pending> m_queue = new ArrayBlockingQueue<Pending>(QUEUE_CAPACITY);
+   private final AtomicLong m_sequence = new AtomicLong();
+   private final ScheduledExecutorService m_retries;
+
+   /**
+    * Constructs the queue, starts its worker threads and queues the emails
+    * left in the spool directory.
+    */
+   private MailQueue() {
+      m_mailer = Mailer.getInstance();
+      String spoolDir = Properties.getProperties().getString("mail_spool_dir", null);
+      m_spoolDir = (spoolDir == null || spoolDir.isEmpty()) ? null : Paths.get(spoolDir);
+      m_retries = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+         @Override
+         public Thread newThread(Runnable _runnable) {
+            Thread thread = new Thread(_runnable, THREAD_NAME + "-retry");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+      for (int i = 1; i <= WORKERS; i++) {
+         Thread worker = new Thread(this::work, THREAD_NAME + "-" + i);
+         worker.setDaemon(true);
+         worker.start();
+      }
+      recover();
+   }
+
+   /**
+    * Retrieves the global instance of the queue, creating it the first time.
+    *
+    * @return the global instance of the queue
+    */
+   public static synchronized MailQueue getInstance() {
+      if (m_instance == null) {
+         m_instance = new MailQueue();
+      }
+      return m_instance;
+   }
+
+   /**
+    * Queues an email. This never blocks on the SMTP server. Without a spool
+    * directory it costs no more than adding to a queue; with one, the caller
+    * also waits while the email is written to a new file, forced to disk and
+    * renamed, which takes from a fraction of a millisecond to several
+    * milliseconds depending on the disk.
+    *
+    * @param _email
+    *           the email
+    * @return a future that completes when the SMTP server accepts the email
+    */
+   public CompletableFuture<Void> submit(Email _email) {
+      CompletableFuture<Void> future = new CompletableFuture<Void>();
+      Path spoolFile = null;
+      try {
+         spoolFile = spool(_email);
+      }
+      catch (IOException _e) {
+         Logger.getLogger().warn("Cannot spool %s, message: %s", _email, _e.toString());
+      }
+      Pending pending = new Pending(_email, future, spoolFile);
+      if (!m_queue.offer(pending)) {
+         unspool(pending);
+         future.completeExceptionally(new RejectedExecutionException("Mail queue is full!"));
+      }
+      return future;
+   }
+
+   /**
+    * Queues a batch of emails, which are sent over as few connections as the
+    * queue allows.
+    *
+    * @param _emails
+    *           the emails
+    * @return a future that completes when every email has been accepted, or
+    *         exceptionally if any of them failed
+    */
+   public CompletableFuture<Void> submitAll(Collection<Email> _emails) {
+      List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>(_emails.size());
+      for (Email email : _emails) {
+         futures.add(submit(email));
+      }
+      return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]));
+   }
+
+   /**
+    * Retrieves the number of emails waiting to be sent, not counting those
+    * waiting to be retried.
+    *
+    * @return the number of queued emails
+    */
+   public int size() {
+      return m_queue.size();
+   }
+
+   /**
+    * Takes batches of emails from the queue and sends them, forever.
+    */
+   private void work() {
+      List<Pending> batch = new ArrayList<Pending>(BATCH_SIZE);
+      while (true) {
+         try {
+            batch.add(m_queue.take());
+            m_queue.drainTo(batch, BATCH_SIZE - 1);
+            send(batch);
+         }
+         catch (InterruptedException _e) {
+            return;
+         }
+         catch (RuntimeException _e) {
+            Logger.getLogger().error("Caught exception trying to send queued email, message: %s", _e.toString());
+         }
+         finally {
+            batch.clear();
+         }
+      }
+   }
+
+   /**
+    * Sends a batch of emails over one connection. Once the connection fails,
+    * the rest of the batch is retried later.
+    *
+    * @param _batch
+    *           the emails
+    */
+   private void send(List<Pending> _batch) {
+      TransportPool pool = m_mailer.getPool();
+      TransportPool.Connection connection;
+      try {
+         connection = pool.borrow(BORROW_TIMEOUT_MILLIS);
+      }
+      catch (MessagingException _e) {
+         for (Pending pending : _batch) {
+            retry(pending, _e);
+         }
+         return;
+      }
+      boolean healthy = true;
+      Exception failure = null;
+      for (Pending pending : _batch) {
+         if (!healthy) {
+            retry(pending, failure);
+            continue;
+         }
+         MimeMessage message;
+         try {
+            message = pending.m_email.toMessage(pool.getSession());
+         }
+         catch (MessagingException | RuntimeException | LinkageError _e) {
+            fail(pending, _e);
+            continue;
+         }
+         long start = System.nanoTime();
+         try {
+            connection.m_transport.sendMessage(message, message.getAllRecipients());
+            Metrics.SMTP_LATENCY.recordSince(start);
+            unspool(pending);
+            pending.m_future.complete(null);
+         }
+         catch (MessagingException _e) {
+            healthy = (_e instanceof SendFailedException) && connection.m_transport.isConnected();
+            failure = _e;
+            if (healthy || connection.m_transport.isDataStarted()) {
+               fail(pending, _e);
+            }
+            else {
+               retry(pending, _e);
+            }
+         }
+         catch (RuntimeException | LinkageError _e) {
+            fail(pending, _e);
+         }
+      }
+      pool.release(connection, healthy);
+   }
+
+   /**
+    * Schedules another attempt at an email, or gives up on it after
+    * MAX_ATTEMPTS attempts. The delay doubles with every attempt, up to
+    * MAX_DELAY_MILLIS, and is randomly shortened by up to half so that emails
+    * that failed together are not retried together.
+    *
+    * @param _pending
+    *           the email
+    * @param _cause
+    *           the failure of the last attempt
+    */
+   private void retry(Pending _pending, Exception _cause) {
+      if (_pending.m_attempts + 1 >= MAX_ATTEMPTS) {
+         fail(_pending, _cause);
+         return;
+      }
+      _pending.m_attempts++;
+      long delay = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << (_pending.m_attempts - 1));
+      delay -= ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+      m_retries.schedule(() -> requeue(_pending), delay, TimeUnit.MILLISECONDS);
+   }
+
+   private void requeue(Pending _pending) {
+      if (!m_queue.offer(_pending)) {
+         m_retries.schedule(() -> requeue(_pending), BASE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+      }
+   }
+
+   /**
+    * Gives up on an email.
+    *
+    * @param _pending
+    *           the email
+    * @param _cause
+    *           the reason
+    */
+   private void fail(Pending _pending, Throwable _cause) {
+      Logger.getLogger().error("Unable to send %s after %d attempts, message: %s", _pending.m_email,
+                               _pending.m_attempts + 1, _cause.toString());
+      unspool(_pending);
+      _pending.m_future.completeExceptionally(_cause);
+   }
+
+   /**
+    * Writes an email to the spool directory. The file is written under a
+    * temporary name, forced to disk and then renamed, so a crash never leaves
+    * half an email behind under the final name. The directory is created the
+    * first time it turns out to be missing.
+    *
+    * @param _email
+    *           the email
+    * @return the spool file, or null if there is no spool directory
+    * @throws IOException
+    *            if the file cannot be written
+    */
+   private Path spool(Email _email) throws IOException {
+      if (m_spoolDir == null) {
+         return null;
+      }
+      String name = _email.getSentMillis() + "-" + System.nanoTime() + "-" + m_sequence.incrementAndGet();
+      Path temporary = m_spoolDir.resolve(name + ".tmp");
+      FileChannel channel;
+      try {
+         channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+      }
+      catch (NoSuchFileException _e) {
+         Files.createDirectories(m_spoolDir);
+         channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+      }
+      try (FileChannel out = channel) {
+         DataOutputStream data = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(out)));
+         data.writeInt(SPOOL_VERSION);
+         writeString(data, _email.getRecipient());
+         writeString(data, _email.getSubject());
+         writeString(data, _email.getBody());
+         data.writeLong(_email.getSentMillis());
+         data.flush();
+         out.force(true);
+      }
+      return Files.move(temporary, m_spoolDir.resolve(name + SPOOL_SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+   }
+
+   private void unspool(Pending _pending) {
+      if (_pending.m_spoolFile != null) {
+         try {
+            Files.deleteIfExists(_pending.m_spoolFile);
+         }
+         catch (IOException _e) {
+            Logger.getLogger().warn("Cannot delete %s, message: %s", _pending.m_spoolFile, _e.toString());
+         }
+      }
+   }
+
+   /**
+    * Queues the emails left in the spool directory by a previous run.
+    */
+   private void recover() {
+      if (m_spoolDir == null || !Files.isDirectory(m_spoolDir)) {
+         return;
+      }
+      int recovered = 0;
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(m_spoolDir, "*" + SPOOL_SUFFIX)) {
+         for (Path file : files) {
+            try (InputStream in = Files.newInputStream(file)) {
+               DataInputStream data = new DataInputStream(in);
+               if (data.readInt() != SPOOL_VERSION) {
+                  throw new IOException("Unknown spool file version!");
+               }
+               Email email = new Email(readString(data), readString(data), readString(data), data.readLong());
+               if (!m_queue.offer(new Pending(email, new CompletableFuture<Void>(), file))) {
+                  break;
+               }
+               recovered++;
+            }
+            catch (IOException _e) {
+               Logger.getLogger().error("Cannot read spooled email %s, message: %s", file, _e.toString());
+            }
+         }
+      }
+      catch (IOException _e) {
+         Logger.getLogger().error("Cannot read spool directory %s, message: %s", m_spoolDir, _e.toString());
+      }
+      if (recovered > 0) {
+         Logger.getLogger().info("Queued %d emails left in %s", recovered, m_spoolDir);
+      }
+   }
+
+   private static void writeString(DataOutputStream _out, String _value) throws IOException {
+      if (_value == null) {
+         _out.writeInt(-1);
+         return;
+      }
+      byte[] bytes = _value.getBytes(StandardCharsets.UTF_8);
+      _out.writeInt(bytes.length);
+      _out.write(bytes);
+   }
+
+   private static String readString(DataInputStream _in) throws IOException {
+      int length = _in.readInt();
+      if (length < 0) {
+         return null;
+      }
+      byte[] bytes = new byte[length];
+      _in.readFully(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+   }
+}
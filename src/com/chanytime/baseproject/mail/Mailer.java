@@ -0,0 +1,195 @@
+package com.chanytime.baseproject.mail;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+import com.chanytime.baseproject.configuration.Properties;
+
+/**
+ * Mailer sends email through a cached mail session and a small pool of SMTP
+ * connections that stay open between emails, so an email costs one SMTP
+ * transaction instead of a new connection. The session is built from the
+ * following properties:
+ * <ul>
+ * <li>smtp_host
+ * <li>smtp_port, optional
+ * <li>smtp_username and smtp_password, optional; if set, the connections are
+ * authenticated
+ * <li>smtp_pool_size, optional; the number of connections, 2 by default
+ * </ul>
+ * When one of these properties is reloaded with a new value, a new session and
+ * pool replace the old ones, and the old connections are closed once they are
+ * no longer in use.
+ * <p>
+ * The following is a sample calling sequence:
+ *
+ * <pre>
+ * {@code
+ * MimeMessage message = new MimeMessage(Mailer.getInstance().getSession());
+ * ...
+ * Mailer.getInstance().send(message);
+ * }
+ * </pre>
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+public final class Mailer {
+
+   private final static String[] SESSION_KEYS = { "smtp_host", "smtp_port", "smtp_username", "smtp_password",
+         "smtp_pool_size" };
+   private final static int DEFAULT_POOL_SIZE = 2;
+   private final static long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+   private static Mailer m_instance = null;
+
+   private volatile TransportPool m_pool;
+
+   /**
+    * Constructs the mailer from the current properties and subscribes it to
+    * changes of the SMTP properties.
+    */
+   private Mailer() {
+      Properties properties = Properties.getProperties();
+      m_pool = createPool(properties);
+      for (String key : SESSION_KEYS) {
+         properties.addListener(key, (k, oldValue, newValue) -> reconfigure());
+      }
+   }
+
+   /**
+    * Retrieves the global instance of the mailer, creating it the first time.
+    *
+    * @return the global instance of the mailer
+    */
+   public static synchronized Mailer getInstance() {
+      if (m_instance == null) {
+         m_instance = new Mailer();
+      }
+      return m_instance;
+   }
+
+   /**
+    * Retrieves the current mail session, from which messages are created.
+    *
+    * @return the mail session
+    */
+   public Session getSession() {
+      return m_pool.getSession();
+   }
+
+   /**
+    * Sends an email over a pooled connection and waits for the SMTP server to
+    * accept it. Use MailQueue to send without waiting.
+    *
+    * @param _email
+    *           the email
+    * @throws SendFailedException
+    *            if the server rejected the recipient
+    * @throws MessagingException
+    *            if the email could not be sent
+    */
+   public void send(Email _email) throws MessagingException {
+      send(_email.toMessage(getSession()));
+   }
+
+   /**
+    * Sends a message over a pooled connection. If a connection that was
+    * reused turns out to be broken before the server agreed to receive the
+    * content of the message, the message is sent once more over a new
+    * connection. Once the content has been sent, the server may have accepted
+    * the message even though its reply was lost, so the failure is thrown
+    * rather than risk delivering the message twice.
+    *
+    * @param _message
+    *           the message
+    * @throws SendFailedException
+    *            if the server rejected one of the recipients
+    * @throws MessagingException
+    *            if the message could not be sent
+    */
+   public void send(MimeMessage _message) throws MessagingException {
+      _message.saveChanges();
+      Address[] recipients = _message.getAllRecipients();
+      TransportPool pool = m_pool;
+      while (true) {
+         TransportPool.Connection connection = pool.borrow(TIMEOUT_MILLIS);
+         boolean healthy = false;
+         try {
+            connection.m_transport.sendMessage(_message, recipients);
+            healthy = true;
+            return;
+         }
+         catch (MessagingException _e) {
+            // A server that dropped an idle connection shows up as any kind of
+            // failure, even a rejected command, but a rejection by a server
+            // that is still connected is genuine.
+            healthy = (_e instanceof SendFailedException) && connection.m_transport.isConnected();
+            if (healthy || !connection.m_reused || connection.m_transport.isDataStarted()) {
+               throw _e;
+            }
+         }
+         finally {
+            pool.release(connection, healthy);
+         }
+      }
+   }
+
+   /**
+    * Retrieves the current pool of connections.
+    *
+    * @return the pool
+    */
+   TransportPool getPool() {
+      return m_pool;
+   }
+
+   /**
+    * Closes the idle connections. Connections in use are closed when their
+    * message has been sent. The mailer can still be used afterwards.
+    */
+   public synchronized void close() {
+      TransportPool previous = m_pool;
+      m_pool = createPool(Properties.getProperties());
+      previous.close();
+   }
+
+   /**
+    * Replaces the session and the pool after an SMTP property changed.
+    */
+   private void reconfigure() {
+      close();
+   }
+
+   /**
+    * Builds a mail session and an empty pool from the properties.
+    *
+    * @param _properties
+    *           the properties
+    * @return the pool
+    */
+   private static TransportPool createPool(Properties _properties) {
+      java.util.Properties mailProperties = new java.util.Properties();
+      mailProperties.setProperty("mail.transport.protocol", "smtp");
+      mailProperties.setProperty("mail.host", _properties.getSmtpHost());
+      mailProperties.setProperty("mail.smtp.host", _properties.getSmtpHost());
+      String port = _properties.getString("smtp_port", null);
+      if (port != null) {
+         mailProperties.setProperty("mail.smtp.port", port);
+      }
+      String username = _properties.getString("smtp_username", null);
+      if (username != null) {
+         mailProperties.setProperty("mail.smtp.auth", "true");
+      }
+      mailProperties.setProperty("mail.smtp.connectiontimeout", Long.toString(TIMEOUT_MILLIS));
+      mailProperties.setProperty("mail.smtp.timeout", Long.toString(TIMEOUT_MILLIS));
+      int size = Integer.parseInt(_properties.getString("smtp_pool_size", Integer.toString(DEFAULT_POOL_SIZE)));
+      return new TransportPool(Session.getInstance(mailProperties, null), username,
+            _properties.getString("smtp_password", null), size);
+   }
+}
@@ -0,0 +1,65 @@
+package com.chanytime.baseproject.mail;
+
+import java.io.OutputStream;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.URLName;
+
+import com.sun.mail.smtp.SMTPTransport;
+
+/**
+ * TrackingSMTPTransport is the SMTP transport of the pooled connections. It
+ * remembers whether the server agreed to receive the content of the last
+ * message, so that a failed send can tell whether the server may have
+ * accepted the message after all. Until the server answers DATA it cannot have
+ * accepted the message, and the message can safely be sent again; from then
+ * on, a lost reply may hide a message that was delivered.
+ * <p>
+ * The class is public only because the mail session instantiates it by name.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+public final class TrackingSMTPTransport extends SMTPTransport {
+
+   private volatile boolean m_dataStarted = false;
+
+   /**
+    * Constructs the transport. Called by the mail session.
+    *
+    * @param _session
+    *           the mail session
+    * @param _urlName
+    *           the address of the server
+    */
+   public TrackingSMTPTransport(Session _session, URLName _urlName) {
+      super(_session, _urlName);
+   }
+
+   @Override
+   public synchronized void sendMessage(Message _message, Address[] _addresses) throws MessagingException {
+      m_dataStarted = false;
+      super.sendMessage(_message, _addresses);
+   }
+
+   @Override
+   protected OutputStream data() throws MessagingException {
+      OutputStream out = super.data();
+      m_dataStarted = true;
+      return out;
+   }
+
+   /**
+    * Tells whether the server agreed to receive the content of the last
+    * message sent.
+    *
+    * @return true if the server may have accepted the last message, false if
+    *         it failed before the content was sent
+    */
+   public boolean isDataStarted() {
+      return m_dataStarted;
+   }
+}
@@ -0,0 +1,190 @@
+package com.chanytime.baseproject.mail;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.MessagingException;
+import javax.mail.Provider;
+import javax.mail.Session;
+
+/**
+ * TransportPool keeps a small number of connected SMTP transports for one mail
+ * session, so that sending an email does not open a new connection. The most
+ * recently used transport is handed out first, which keeps the others idle
+ * long enough to be closed. A transport that has been idle for a while is
+ * checked with a NOOP before it is handed out, and one that has been idle for
+ * longer than SMTP servers usually keep a connection open is closed instead.
+ * The transports are TrackingSMTPTransports, so that a failed send can tell
+ * whether it is safe to repeat.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+final class TransportPool {
+
+   /**
+    * Connection is a connected transport and when it was last used.
+    */
+   static final class Connection {
+      final TrackingSMTPTransport m_transport;
+      long m_lastUsed;
+      boolean m_reused = false;
+
+      Connection(TrackingSMTPTransport _transport) {
+         m_transport = _transport;
+         m_lastUsed = System.currentTimeMillis();
+      }
+   }
+
+   private final static long CHECK_AFTER_MILLIS = TimeUnit.SECONDS.toMillis(30);
+   private final static long MAX_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(4);
+   private final static Provider PROVIDER = new Provider(Provider.Type.TRANSPORT, "smtp",
+         TrackingSMTPTransport.class.getName(), "Chanytime", null);
+
+   private final Session m_session;
+   private final String m_username;
+   private final String m_password;
+   private final Semaphore m_permits;
+   private final Deque<Connection> m_idle = new ArrayDeque<Connection>();
+   private boolean m_closed = false;
+
+   /**
+    * Constructs an empty pool.
+    *
+    * @param _session
+    *           the mail session the transports are created from
+    * @param _username
+    *           the user to authenticate as, or null to not authenticate
+    * @param _password
+    *           the password of the user, or null
+    * @param _size
+    *           the maximum number of transports in use at the same time
+    */
+   TransportPool(Session _session, String _username, String _password, int _size) {
+      m_session = _session;
+      m_username = _username;
+      m_password = _password;
+      m_permits = new Semaphore(Math.max(1, _size), true);
+   }
+
+   /**
+    * Retrieves the mail session of this pool.
+    *
+    * @return the mail session
+    */
+   Session getSession() {
+      return m_session;
+   }
+
+   /**
+    * Takes a connected transport from the pool, connecting a new one if no
+    * idle transport is healthy. Every transport taken must be given back with
+    * release.
+    *
+    * @param _timeoutMillis
+    *           how long to wait if every transport is in use
+    * @return the connection
+    * @throws MessagingException
+    *            if no transport became available in time or a new one cannot
+    *            connect
+    */
+   Connection borrow(long _timeoutMillis) throws MessagingException {
+      try {
+         if (!m_permits.tryAcquire(_timeoutMillis, TimeUnit.MILLISECONDS)) {
+            throw new MessagingException("No SMTP connection became available!");
+         }
+      }
+      catch (InterruptedException _e) {
+         Thread.currentThread().interrupt();
+         throw new MessagingException("Interrupted while waiting for an SMTP connection!", _e);
+      }
+      try {
+         for (Connection connection = pollIdle(); connection != null; connection = pollIdle()) {
+            long idle = System.currentTimeMillis() - connection.m_lastUsed;
+            if (idle < CHECK_AFTER_MILLIS || (idle < MAX_IDLE_MILLIS && connection.m_transport.isConnected())) {
+               connection.m_reused = true;
+               return connection;
+            }
+            close(connection);
+         }
+         return connect();
+      }
+      catch (MessagingException | RuntimeException _e) {
+         m_permits.release();
+         throw _e;
+      }
+   }
+
+   /**
+    * Gives a transport back to the pool.
+    *
+    * @param _connection
+    *           the connection taken with borrow
+    * @param _healthy
+    *           false if the connection failed and should be closed
+    */
+   void release(Connection _connection, boolean _healthy) {
+      Connection expired = null;
+      synchronized (this) {
+         if (_healthy && !m_closed) {
+            long now = System.currentTimeMillis();
+            _connection.m_lastUsed = now;
+            _connection.m_reused = false;
+            m_idle.offerFirst(_connection);
+            Connection oldest = m_idle.peekLast();
+            if (now - oldest.m_lastUsed >= MAX_IDLE_MILLIS) {
+               expired = m_idle.pollLast();
+            }
+         }
+         else {
+            expired = _connection;
+         }
+      }
+      if (expired != null) {
+         close(expired);
+      }
+      m_permits.release();
+   }
+
+   /**
+    * Closes the idle transports. Transports in use are closed when they are
+    * released.
+    */
+   void close() {
+      Connection[] idle;
+      synchronized (this) {
+         m_closed = true;
+         idle = m_idle.toArray(new Connection[m_idle.size()]);
+         m_idle.clear();
+      }
+      for (Connection connection : idle) {
+         close(connection);
+      }
+   }
+
+   private synchronized Connection pollIdle() {
+      return m_idle.pollFirst();
+   }
+
+   private Connection connect() throws MessagingException {
+      TrackingSMTPTransport transport = (TrackingSMTPTransport) m_session.getTransport(PROVIDER);
+      if (m_username == null) {
+         transport.connect();
+      }
+      else {
+         transport.connect(m_username, m_password);
+      }
+      return new Connection(transport);
+   }
+
+   private static void close(Connection _connection) {
+      try {
+         _connection.m_transport.close();
+      }
+      catch (MessagingException | RuntimeException _e) {
+         // The connection is being discarded anyway.
+      }
+   }
+}
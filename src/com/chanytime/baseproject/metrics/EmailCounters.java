@@ -0,0 +1,52 @@
+package com.chanytime.baseproject.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * EmailCounters counts the exception emails that were sent, that failed to
+ * send, and the exceptions that were not emailed individually because of
+ * deduplication, the email budget or an overloaded mailer.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+public final class EmailCounters implements EmailCountersMBean {
+
+   private final LongAdder m_sent = new LongAdder();
+   private final LongAdder m_failed = new LongAdder();
+   private final LongAdder m_suppressed = new LongAdder();
+
+   public void sent() {
+      m_sent.increment();
+   }
+
+   public void failed() {
+      m_failed.increment();
+   }
+
+   public void suppressed() {
+      m_suppressed.increment();
+   }
+
+   @Override
+   public long getSent() {
+      return m_sent.sum();
+   }
+
+   @Override
+   public long getFailed() {
+      return m_failed.sum();
+   }
+
+   @Override
+   public long getSuppressed() {
+      return m_suppressed.sum();
+   }
+
+   @Override
+   public void reset() {
+      m_sent.reset();
+      m_failed.reset();
+      m_suppressed.reset();
+   }
+}
@@ -0,0 +1,19 @@
+package com.chanytime.baseproject.metrics;
+
+/**
+ * EmailCountersMBean is the management interface of EmailCounters.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ * @see EmailCounters
+ */
+public interface EmailCountersMBean {
+
+   long getSent();
+
+   long getFailed();
+
+   long getSuppressed();
+
+   void reset();
+}
@@ -0,0 +1,173 @@
+package com.chanytime.baseproject.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram counts durations in buckets that grow exponentially, with
+ * four buckets for every power of two, so percentiles are reported within 25%
+ * of the true value over the whole range of a long. Every bucket is a
+ * LongAdder, so threads recording at the same time do not contend on a single
+ * memory location.
+ * <p>
+ * The following is a way to time a block of code.
+ *
+ * <pre>
+ * {@code
+ * long start = System.nanoTime();
+ * ...
+ * Metrics.APPEND_TIME.recordSince(start);
+ * }
+ * </pre>
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+public final class LatencyHistogram implements LatencyHistogramMBean {
+
+   private final static int SUB_BUCKET_BITS = 2;
+   private final static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+   private final static int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+   private final static double NANOS_PER_MICRO = TimeUnit.MICROSECONDS.toNanos(1);
+
+   private final LongAdder[] m_buckets = new LongAdder[BUCKETS];
+   private final LongAdder m_count = new LongAdder();
+   private final LongAdder m_sum = new LongAdder();
+   private final LongAccumulator m_max = new LongAccumulator(Math::max, 0);
+
+   /**
+    * Constructs an empty histogram.
+    */
+   public LatencyHistogram() {
+      for (int i = 0; i < BUCKETS; i++) {
+         m_buckets[i] = new LongAdder();
+      }
+   }
+
+   /**
+    * Records a duration.
+    *
+    * @param _nanos
+    *           the duration in nanoseconds; negative durations count as zero
+    */
+   public void record(long _nanos) {
+      long nanos = Math.max(0, _nanos);
+      m_buckets[bucket(nanos)].increment();
+      m_count.increment();
+      m_sum.add(nanos);
+      m_max.accumulate(nanos);
+   }
+
+   /**
+    * Records the time elapsed since a start time.
+    *
+    * @param _startNanos
+    *           the start time, as returned by System.nanoTime
+    */
+   public void recordSince(long _startNanos) {
+      record(System.nanoTime() - _startNanos);
+   }
+
+   @Override
+   public long getCount() {
+      return m_count.sum();
+   }
+
+   @Override
+   public double getMeanMicros() {
+      long count = m_count.sum();
+      return (count == 0) ? 0 : m_sum.sum() / NANOS_PER_MICRO / count;
+   }
+
+   @Override
+   public double getMedianMicros() {
+      return getPercentileMicros(50);
+   }
+
+   @Override
+   public double getNinetyFifthPercentileMicros() {
+      return getPercentileMicros(95);
+   }
+
+   @Override
+   public double getNinetyNinthPercentileMicros() {
+      return getPercentileMicros(99);
+   }
+
+   @Override
+   public double getMaxMicros() {
+      return m_max.get() / NANOS_PER_MICRO;
+   }
+
+   /**
+    * Clears the histogram. Durations recorded while it is being cleared may or
+    * may not be kept.
+    */
+   @Override
+   public void reset() {
+      for (LongAdder bucket : m_buckets) {
+         bucket.reset();
+      }
+      m_count.reset();
+      m_sum.reset();
+      m_max.reset();
+   }
+
+   /**
+    * Retrieves the duration below which the specified percentage of the
+    * recorded durations fall, as the upper bound of the bucket that holds it.
+    *
+    * @param _percentile
+    *           the percentage, between 0 and 100
+    * @return the duration in microseconds, or 0 if nothing was recorded
+    */
+   public double getPercentileMicros(double _percentile) {
+      long[] counts = new long[BUCKETS];
+      long total = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+         counts[i] = m_buckets[i].sum();
+         total += counts[i];
+      }
+      if (total == 0) {
+         return 0;
+      }
+      long rank = (long) Math.ceil(total * _percentile / 100.0);
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+         seen += counts[i];
+         if (seen >= rank && counts[i] > 0) {
+            return Math.min(upperBound(i), m_max.get()) / NANOS_PER_MICRO;
+         }
+      }
+      return m_max.get() / NANOS_PER_MICRO;
+   }
+
+   /**
+    * Finds the bucket of a duration. Durations below SUB_BUCKETS nanoseconds
+    * have a bucket each; above that, each power of two is split into
+    * SUB_BUCKETS buckets by the bits that follow the highest one.
+    *
+    * @param _nanos
+    *           the non-negative duration
+    * @return the index of the bucket
+    */
+   private static int bucket(long _nanos) {
+      if (_nanos < SUB_BUCKETS) {
+         return (int) _nanos;
+      }
+      int exponent = 63 - Long.numberOfLeadingZeros(_nanos);
+      int subBucket = (int) (_nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+      return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+   }
+
+   private static long upperBound(int _bucket) {
+      if (_bucket < SUB_BUCKETS) {
+         return _bucket;
+      }
+      int exponent = _bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+      long width = 1L << (exponent - SUB_BUCKET_BITS);
+      long lower = (long) (SUB_BUCKETS + _bucket % SUB_BUCKETS) * width;
+      return lower + width - 1;
+   }
+}
@@ -0,0 +1,25 @@
+package com.chanytime.baseproject.metrics;
+
+/**
+ * LatencyHistogramMBean is the management interface of LatencyHistogram.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ * @see LatencyHistogram
+ */
+public interface LatencyHistogramMBean {
+
+   long getCount();
+
+   double getMeanMicros();
+
+   double getMedianMicros();
+
+   double getNinetyFifthPercentileMicros();
+
+   double getNinetyNinthPercentileMicros();
+
+   double getMaxMicros();
+
+   void reset();
+}
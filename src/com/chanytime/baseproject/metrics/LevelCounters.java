@@ -0,0 +1,97 @@
+package com.chanytime.baseproject.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Priority;
+
+/**
+ * LevelCounters counts log statements by level. Each level is a LongAdder, so
+ * threads logging at the same time do not contend on a single memory
+ * location.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+public final class LevelCounters implements LevelCountersMBean {
+
+   private final LongAdder m_trace = new LongAdder();
+   private final LongAdder m_debug = new LongAdder();
+   private final LongAdder m_info = new LongAdder();
+   private final LongAdder m_warn = new LongAdder();
+   private final LongAdder m_error = new LongAdder();
+   private final LongAdder m_fatal = new LongAdder();
+
+   /**
+    * Counts one statement.
+    *
+    * @param _level
+    *           the level of the statement
+    */
+   public void increment(Level _level) {
+      int level = _level.toInt();
+      if (level >= Priority.FATAL_INT) {
+         m_fatal.increment();
+      }
+      else if (level >= Priority.ERROR_INT) {
+         m_error.increment();
+      }
+      else if (level >= Priority.WARN_INT) {
+         m_warn.increment();
+      }
+      else if (level >= Priority.INFO_INT) {
+         m_info.increment();
+      }
+      else if (level >= Priority.DEBUG_INT) {
+         m_debug.increment();
+      }
+      else {
+         m_trace.increment();
+      }
+   }
+
+   @Override
+   public long getTrace() {
+      return m_trace.sum();
+   }
+
+   @Override
+   public long getDebug() {
+      return m_debug.sum();
+   }
+
+   @Override
+   public long getInfo() {
+      return m_info.sum();
+   }
+
+   @Override
+   public long getWarn() {
+      return m_warn.sum();
+   }
+
+   @Override
+   public long getError() {
+      return m_error.sum();
+   }
+
+   @Override
+   public long getFatal() {
+      return m_fatal.sum();
+   }
+
+   @Override
+   public long getTotal() {
+      return getTrace() + getDebug() + getInfo() + getWarn() + getError() + getFatal();
+   }
+
+   @Override
+   public void reset() {
+      m_trace.reset();
+      m_debug.reset();
+      m_info.reset();
+      m_warn.reset();
+      m_error.reset();
+      m_fatal.reset();
+   }
+}
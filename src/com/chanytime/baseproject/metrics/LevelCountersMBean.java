@@ -0,0 +1,27 @@
+package com.chanytime.baseproject.metrics;
+
+/**
+ * LevelCountersMBean is the management interface of LevelCounters.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ * @see LevelCounters
+ */
+public interface LevelCountersMBean {
+
+   long getTrace();
+
+   long getDebug();
+
+   long getInfo();
+
+   long getWarn();
+
+   long getError();
+
+   long getFatal();
+
+   long getTotal();
+
+   void reset();
+}
@@ -0,0 +1,108 @@
+package com.chanytime.baseproject.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.helpers.LogLog;
+
+/**
+ * Metrics holds the counters and latency histograms of the logging and email
+ * facilities, and registers them as MBeans with the platform MBean server
+ * under the "com.chanytime.baseproject" domain. The logger registers them when
+ * it is initialized, so the MBeans are available as soon as the application
+ * logs. Starting the platform MBean server takes a noticeable part of a
+ * second, so Bootstrap registers them in parallel with loading the
+ * properties.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+public final class Metrics {
+
+   private final static String DOMAIN = "com.chanytime.baseproject";
+
+   /**
+    * Statements passed to the appenders, by level.
+    */
+   public final static LevelCounters LOGGED_EVENTS = new LevelCounters();
+
+   /**
+    * Statements dropped by call-site policies or by a full asynchronous
+    * buffer, by level.
+    */
+   public final static LevelCounters SUPPRESSED_EVENTS = new LevelCounters();
+
+   /**
+    * Time spent resolving the class and method that called the logger.
+    */
+   public final static LatencyHistogram CALLER_RESOLUTION_TIME = new LatencyHistogram();
+
+   /**
+    * Time spent rendering sprintf-style messages.
+    */
+   public final static LatencyHistogram FORMATTING_TIME = new LatencyHistogram();
+
+   /**
+    * Time spent in the appenders for each statement.
+    */
+   public final static LatencyHistogram APPEND_TIME = new LatencyHistogram();
+
+   /**
+    * Exception emails sent, failed and suppressed.
+    */
+   public final static EmailCounters EXCEPTION_EMAILS = new EmailCounters();
+
+   /**
+    * Time taken by the SMTP server to accept an email.
+    */
+   public final static LatencyHistogram SMTP_LATENCY = new LatencyHistogram();
+
+   private static boolean m_registered = false;
+
+   private Metrics() {
+   }
+
+   /**
+    * Registers the MBeans, the first time this is called.
+    */
+   public static synchronized void register() {
+      if (!m_registered) {
+         m_registered = true;
+         register("Logging", "Events", LOGGED_EVENTS);
+         register("Logging", "SuppressedEvents", SUPPRESSED_EVENTS);
+         register("Logging", "CallerResolutionTime", CALLER_RESOLUTION_TIME);
+         register("Logging", "FormattingTime", FORMATTING_TIME);
+         register("Logging", "AppendTime", APPEND_TIME);
+         register("Email", "ExceptionEmails", EXCEPTION_EMAILS);
+         register("Email", "SmtpLatency", SMTP_LATENCY);
+      }
+   }
+
+   /**
+    * Registers one MBean, replacing any MBean registered under the same name,
+    * e.g., by another copy of this class in a different class loader.
+    *
+    * @param _type
+    *           the type key of the object name
+    * @param _name
+    *           the name key of the object name
+    * @param _mbean
+    *           the MBean
+    */
+   private static void register(String _type, String _name, Object _mbean) {
+      try {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         ObjectName name = new ObjectName(DOMAIN + ":type=" + _type + ",name=" + _name);
+         if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+         }
+         server.registerMBean(_mbean, name);
+      }
+      catch (JMException | RuntimeException _e) {
+         LogLog.warn("Unable to register the " + _type + " " + _name + " MBean.", _e);
+      }
+   }
+}
@@ -0,0 +1,42 @@
+package com.chanytime.baseproject.util;
+
+/**
+ * HashAlgorithm lists the message digest algorithms Hashing supports. Every
+ * Java platform is required to implement all of them.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ * @see Hashing
+ */
+public enum HashAlgorithm {
+
+   /**
+    * SHA-1, with 20-byte hashes. Only for compatibility with existing hashes.
+    */
+   SHA1("SHA-1"),
+
+   /**
+    * SHA-256, with 32-byte hashes.
+    */
+   SHA256("SHA-256"),
+
+   /**
+    * SHA-512, with 64-byte hashes.
+    */
+   SHA512("SHA-512");
+
+   private final String m_name;
+
+   private HashAlgorithm(String _name) {
+      m_name = _name;
+   }
+
+   /**
+    * Retrieves the name of the algorithm as known to MessageDigest.
+    *
+    * @return the standard name of the algorithm
+    */
+   public String getName() {
+      return m_name;
+   }
+}
@@ -0,0 +1,318 @@
+package com.chanytime.baseproject.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Hashing computes SHA-1, SHA-256 and SHA-512 hashes of strings, byte arrays
+ * and files. Every thread keeps its own MessageDigest for every algorithm and
+ * reuses it, so hashing does not look up the security providers. Strings are
+ * hashed as UTF-8. Short strings are encoded with String.getBytes, which the
+ * JVM optimizes better than any encoder; longer ones are encoded through a
+ * reusable per-thread buffer rather than copied into a new byte array. Large
+ * files are hashed through memory-mapped regions, which saves copying them
+ * from the kernel into a buffer; the digest still copies them through a small
+ * heap array of its own. Every region is unmapped as soon as it has been
+ * hashed, so a thread holds at most one region at a time.
+ * <p>
+ * The hashAll methods hash many inputs in parallel on the common fork-join
+ * pool. The following is a sample calling sequence:
+ *
+ * <pre>
+ * {@code
+ * String hash = Hashing.hashHex(HashAlgorithm.SHA256, password + salt);
+ * byte[] fileHash = Hashing.hash(HashAlgorithm.SHA256, Paths.get("upload.bin"));
+ * List<byte[]> hashes = Hashing.hashAll(HashAlgorithm.SHA1, tokens);
+ * }
+ * </pre>
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ * @see HashAlgorithm
+ */
+public final class Hashing {
+
+   /**
+    * State is the digests and encoding buffer of one thread.
+    */
+   private static final class State {
+      final MessageDigest[] m_digests = new MessageDigest[HashAlgorithm.values().length];
+      final CharsetEncoder m_encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+      final ByteBuffer m_bytes = ByteBuffer.allocate(BUFFER_SIZE);
+
+      /**
+       * Retrieves the digest of an algorithm, ready to be updated.
+       *
+       * @param _algorithm
+       *           the algorithm
+       * @return the digest, reset
+       */
+      MessageDigest digest(HashAlgorithm _algorithm) {
+         MessageDigest digest = m_digests[_algorithm.ordinal()];
+         if (digest == null) {
+            try {
+               digest = MessageDigest.getInstance(_algorithm.getName());
+            }
+            catch (NoSuchAlgorithmException _e) {
+               throw new IllegalStateException("No such algorithm " + _algorithm.getName() + "!", _e);
+            }
+            m_digests[_algorithm.ordinal()] = digest;
+         }
+         else {
+            digest.reset();
+         }
+         return digest;
+      }
+   }
+
+   /**
+    * Hasher hashes one input of a batch.
+    */
+   @FunctionalInterface
+   private interface Hasher<T> {
+      byte[] hash(T _input) throws IOException;
+   }
+
+   /**
+    * BatchTask hashes a range of a batch, splitting it in halves until the
+    * ranges are small enough.
+    */
+   private static final class BatchTask<T> extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+
+      private final Hasher<T> m_hasher;
+      private final T[] m_inputs;
+      private final byte[][] m_hashes;
+      private final int m_from;
+      private final int m_to;
+      private final int m_threshold;
+
+      BatchTask(Hasher<T> _hasher, T[] _inputs, byte[][] _hashes, int _from, int _to, int _threshold) {
+         m_hasher = _hasher;
+         m_inputs = _inputs;
+         m_hashes = _hashes;
+         m_from = _from;
+         m_to = _to;
+         m_threshold = _threshold;
+      }
+
+      @Override
+      protected void compute() {
+         if (m_to - m_from <= m_threshold) {
+            try {
+               for (int i = m_from; i < m_to; i++) {
+                  m_hashes[i] = m_hasher.hash(m_inputs[i]);
+               }
+            }
+            catch (IOException _e) {
+               throw new UncheckedIOException(_e);
+            }
+            return;
+         }
+         int middle = (m_from + m_to) >>> 1;
+         invokeAll(new BatchTask<T>(m_hasher, m_inputs, m_hashes, m_from, middle, m_threshold),
+                   new BatchTask<T>(m_hasher, m_inputs, m_hashes, middle, m_to, m_threshold));
+      }
+   }
+
+   private final static int BUFFER_SIZE = 8 * 1024;
+   private final static int MAX_COPIED_LENGTH = 1024;
+   private final static long MAP_THRESHOLD = 256 * 1024;
+   private final static long MAP_REGION_SIZE = 64 * 1024 * 1024;
+   private final static int STRINGS_PER_TASK = 64;
+   private final static int FILES_PER_TASK = 1;
+
+   private final static ThreadLocal<State> m_states = new ThreadLocal<State>() {
+      @Override
+      protected State initialValue() {
+         return new State();
+      }
+   };
+
+   private Hashing() {
+   }
+
+   /**
+    * Hashes the UTF-8 encoding of a string.
+    *
+    * @param _algorithm
+    *           the algorithm
+    * @param _in
+    *           the string to hash
+    * @return the hash
+    */
+   public static byte[] hash(HashAlgorithm _algorithm, CharSequence _in) {
+      State state = m_states.get();
+      MessageDigest digest = state.digest(_algorithm);
+      if (_in instanceof String && _in.length() <= MAX_COPIED_LENGTH) {
+         digest.update(((String) _in).getBytes(StandardCharsets.UTF_8));
+         return digest.digest();
+      }
+      CharsetEncoder encoder = state.m_encoder.reset();
+      ByteBuffer bytes = state.m_bytes;
+      CharBuffer chars = CharBuffer.wrap(_in);
+      bytes.clear();
+      CoderResult result;
+      do {
+         result = encoder.encode(chars, bytes, true);
+         update(digest, bytes);
+      } while (result.isOverflow());
+      while (encoder.flush(bytes).isOverflow()) {
+         update(digest, bytes);
+      }
+      update(digest, bytes);
+      return digest.digest();
+   }
+
+   /**
+    * Hashes a byte array.
+    *
+    * @param _algorithm
+    *           the algorithm
+    * @param _in
+    *           the bytes to hash
+    * @return the hash
+    */
+   public static byte[] hash(HashAlgorithm _algorithm, byte[] _in) {
+      MessageDigest digest = m_states.get().digest(_algorithm);
+      digest.update(_in);
+      return digest.digest();
+   }
+
+   /**
+    * Hashes the contents of a file. Small files are read through a
+    * per-thread buffer; larger ones are mapped into memory one region at a
+    * time, and each region is unmapped once it has been hashed.
+    *
+    * @param _algorithm
+    *           the algorithm
+    * @param _file
+    *           the file to hash
+    * @return the hash
+    * @throws IOException
+    *            if the file cannot be read
+    */
+   public static byte[] hash(HashAlgorithm _algorithm, Path _file) throws IOException {
+      State state = m_states.get();
+      MessageDigest digest = state.digest(_algorithm);
+      try (FileChannel channel = FileChannel.open(_file, StandardOpenOption.READ)) {
+         long size = channel.size();
+         if (size < MAP_THRESHOLD) {
+            ByteBuffer bytes = state.m_bytes;
+            bytes.clear();
+            while (channel.read(bytes) >= 0) {
+               update(digest, bytes);
+            }
+         }
+         else {
+            for (long position = 0; position < size; position += MAP_REGION_SIZE) {
+               MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                                                     Math.min(MAP_REGION_SIZE, size - position));
+               try {
+                  digest.update(region);
+               }
+               finally {
+                  MappedBuffers.unmap(region);
+               }
+            }
+         }
+      }
+      return digest.digest();
+   }
+
+   /**
+    * Hashes the UTF-8 encoding of a string, as uppercase hexadecimal.
+    *
+    * @param _algorithm
+    *           the algorithm
+    * @param _in
+    *           the string to hash
+    * @return the hash in hexadecimal
+    */
+   public static String hashHex(HashAlgorithm _algorithm, CharSequence _in) {
+      return MiscUtil.bytesToHex(hash(_algorithm, _in));
+   }
+
+   /**
+    * Hashes the UTF-8 encoding of many strings in parallel.
+    *
+    * @param _algorithm
+    *           the algorithm
+    * @param _inputs
+    *           the strings to hash
+    * @return the hashes, in the order of the strings
+    */
+   public static List<byte[]> hashAll(HashAlgorithm _algorithm, List<? extends CharSequence> _inputs) {
+      CharSequence[] inputs = _inputs.toArray(new CharSequence[_inputs.size()]);
+      return hashAll(in -> hash(_algorithm, in), inputs, STRINGS_PER_TASK);
+   }
+
+   /**
+    * Hashes the contents of many files in parallel.
+    *
+    * @param _algorithm
+    *           the algorithm
+    * @param _files
+    *           the files to hash
+    * @return the hashes, in the order of the files
+    * @throws IOException
+    *            if one of the files cannot be read
+    */
+   public static List<byte[]> hashAllFiles(HashAlgorithm _algorithm, List<Path> _files) throws IOException {
+      Path[] files = _files.toArray(new Path[_files.size()]);
+      try {
+         return hashAll(file -> hash(_algorithm, file), files, FILES_PER_TASK);
+      }
+      catch (UncheckedIOException _e) {
+         throw _e.getCause();
+      }
+   }
+
+   /**
+    * Hashes a batch on the common fork-join pool.
+    *
+    * @param _hasher
+    *           hashes one input
+    * @param _inputs
+    *           the inputs
+    * @param _threshold
+    *           the number of inputs below which a task stops splitting
+    * @return the hashes, in the order of the inputs
+    */
+   private static <T> List<byte[]> hashAll(Hasher<T> _hasher, T[] _inputs, int _threshold) {
+      byte[][] hashes = new byte[_inputs.length][];
+      ForkJoinPool.commonPool().invoke(new BatchTask<T>(_hasher, _inputs, hashes, 0, _inputs.length, _threshold));
+      return Arrays.asList(hashes);
+   }
+
+   /**
+    * Feeds the bytes written to a buffer to a digest and empties the buffer.
+    *
+    * @param _digest
+    *           the digest
+    * @param _bytes
+    *           the buffer, in write mode
+    */
+   private static void update(MessageDigest _digest, ByteBuffer _bytes) {
+      _bytes.flip();
+      _digest.update(_bytes);
+      _bytes.clear();
+   }
+}
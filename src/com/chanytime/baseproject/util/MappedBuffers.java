@@ -0,0 +1,73 @@
+package com.chanytime.baseproject.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * MappedBuffers releases memory-mapped regions as soon as they are no longer
+ * needed. A MappedByteBuffer otherwise keeps its mapping, and with it the
+ * address space and an open handle on the file, until the garbage collector
+ * happens to collect it, which may be long after the file has been truncated,
+ * renamed or deleted. The mapping is released through the cleaner of the
+ * buffer, reached through sun.misc.Unsafe in the jdk.unsupported module; if
+ * that is not available, the mapping is left to the garbage collector as
+ * before.
+ * <p>
+ * A buffer must not be used in any way after it has been unmapped, or the JVM
+ * may crash, so callers unmap only buffers that no other thread can reach.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+public final class MappedBuffers {
+
+   private final static MethodHandle m_cleaner = findCleaner();
+
+   private MappedBuffers() {
+   }
+
+   /**
+    * Releases the mapping of a buffer.
+    *
+    * @param _buffer
+    *           the buffer, which must have been returned by FileChannel.map
+    *           and not be a slice or duplicate of another; null is ignored
+    * @return true if the mapping was released false if it is left to the
+    *         garbage collector
+    */
+   public static boolean unmap(MappedByteBuffer _buffer) {
+      if (_buffer == null || m_cleaner == null) {
+         return false;
+      }
+      try {
+         m_cleaner.invokeExact((ByteBuffer) _buffer);
+         return true;
+      }
+      catch (Throwable _t) {
+         return false;
+      }
+   }
+
+   /**
+    * Looks up Unsafe.invokeCleaner, bound to the Unsafe instance.
+    *
+    * @return the method handle, or null if it cannot be reached
+    */
+   private static MethodHandle findCleaner() {
+      try {
+         Class<?> type = Class.forName("sun.misc.Unsafe");
+         Field instance = type.getDeclaredField("theUnsafe");
+         instance.setAccessible(true);
+         return MethodHandles.lookup()
+               .findVirtual(type, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+               .bindTo(instance.get(null));
+      }
+      catch (ReflectiveOperationException | RuntimeException _e) {
+         return null;
+      }
+   }
+}
@@ -1,22 +1,18 @@
 package com.chanytime.baseproject.util;
 
 import java.net.InetAddress;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Date;
-import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 
-import javax.mail.Message;
 import javax.mail.MessagingException;
-import javax.mail.Session;
-import javax.mail.Transport;
-import javax.mail.internet.InternetAddress;
-import javax.mail.internet.MimeMessage;
 
 import org.joda.time.DateTime;
 
 import com.chanytime.baseproject.configuration.Properties;
 import com.chanytime.baseproject.log.Logger;
+import com.chanytime.baseproject.mail.Email;
+import com.chanytime.baseproject.mail.MailQueue;
+import com.chanytime.baseproject.mail.Mailer;
+import com.chanytime.baseproject.metrics.Metrics;
 
 /**
  * MiscUtil is collection of unrelated static methods that are useful. As more
@@ -28,11 +24,17 @@ import com.chanytime.baseproject.log.Logger;
  */
 public class MiscUtil {
 
+   private final static char[] HEX_DIGITS = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D',
+         'E', 'F' };
+
+   private static volatile String m_computerName = null;
+
    /**
     * Generates a random string. This method is useful for generating things
     * like salts or default passwords. The caller can pass in a specific
     * character set or use the default one, which includes all digits and
-    * alphabetic characters.
+    * alphabetic characters. The string is generated by TokenGenerator, so it
+    * is cryptographically strong.
     *
     * @param _characterSet
     *           the specified characters that can be used in the random string;
@@ -50,19 +52,14 @@ public class MiscUtil {
          _minChars = 1;
          _maxChars = 1;
       }
-      if (_characterSet == null || _characterSet.length() == 0) {
-         _characterSet = new String("abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789");
-      }
-      Random random = new Random();
-      StringBuilder sb = new StringBuilder();
-      for (int numChars = _minChars + random.nextInt(_maxChars - _minChars + 1); --numChars >= 0;) {
-         sb.append(_characterSet.charAt(random.nextInt(_characterSet.length())));
-      }
-      return sb.toString();
+      TokenGenerator generator = (_characterSet == null || _characterSet.length() == 0) ? TokenGenerator
+            .getDefault() : new TokenGenerator(_characterSet);
+      return generator.generate(_minChars, _maxChars);
    }
 
    /**
-    * Returns the SHA-1 hash of a string.
+    * Returns the SHA-1 hash of a string, encoded as UTF-8. Use Hashing for
+    * other algorithms, files or batches.
     *
     * @param _in
     *           the string to hash
@@ -70,12 +67,9 @@ public class MiscUtil {
     */
    public static String getShaHash(String _in) {
       try {
-         MessageDigest md = MessageDigest.getInstance("SHA1");
-         md.update(_in.getBytes());
-         byte[] output = md.digest();
-         return bytesToHex(output);
+         return Hashing.hashHex(HashAlgorithm.SHA1, _in);
       }
-      catch (NoSuchAlgorithmException _e) {
+      catch (IllegalStateException _e) {
          Logger.getLogger().fatal(_e, "No such algorithm SHA1!");
          return "";
       }
@@ -92,13 +86,33 @@ public class MiscUtil {
       if (_bytes == null) {
          return null;
       }
-      final char[] hexDigit = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F' };
-      StringBuffer buf = new StringBuffer();
+      char[] hex = new char[_bytes.length * 2];
       for (int j = 0; j < _bytes.length; j++) {
-         buf.append(hexDigit[(_bytes[j] >> 4) & 0x0f]);
-         buf.append(hexDigit[_bytes[j] & 0x0f]);
+         hex[2 * j] = HEX_DIGITS[(_bytes[j] >> 4) & 0x0f];
+         hex[2 * j + 1] = HEX_DIGITS[_bytes[j] & 0x0f];
       }
-      return buf.toString();
+      return new String(hex);
+   }
+
+   /**
+    * Returns the name of this computer. The name is resolved the first time
+    * this method is called and cached afterwards.
+    *
+    * @return the host name of this computer, or "null" if it cannot be
+    *         resolved
+    */
+   public static String getComputerName() {
+      String computerName = m_computerName;
+      if (computerName == null) {
+         computerName = "null";
+         try {
+            computerName = InetAddress.getLocalHost().getHostName();
+         }
+         catch (Exception _e) {
+         }
+         m_computerName = computerName;
+      }
+      return computerName;
    }
 
    /**
@@ -115,18 +129,12 @@ public class MiscUtil {
          return "";
       }
       else {
-         String computerName = "null";
-         try {
-            computerName = InetAddress.getLocalHost().getHostName();
-         }
-         catch (Exception _e) {
-         }
-         return "(" + Properties.getProperties().getNonproductionPrefix() + "@" + computerName + ") ";
+         return "(" + Properties.getProperties().getNonproductionPrefix() + "@" + getComputerName() + ") ";
       }
    }
 
    /**
-    * Sends an HTML email.
+    * Sends an HTML email over a pooled SMTP connection.
     *
     * @param _recipient
     *           the email address of the receipient
@@ -136,36 +144,44 @@ public class MiscUtil {
     *           the HTML body
     * @param _sentDateTime
     *           timestamp of the sent message
+    * @return true if the SMTP server accepted the email false otherwise
     */
-   public static void sendHtmlEmail(String _recipient, String _subject, String _message, DateTime _sentDateTime) {
-      String subject = getSubjectPrefix() + _subject;
-
-      java.util.Properties mailProperties = new java.util.Properties();
-      mailProperties.setProperty("mail.transport.protocol", "smtp");
-      mailProperties.setProperty("mail.host", Properties.getProperties().getSmtpHost());
-
-      Session mailSession = Session.getInstance(mailProperties, null);
+   public static boolean sendHtmlEmail(String _recipient, String _subject, String _message, DateTime _sentDateTime) {
       try {
-         Transport mailTransport = mailSession.getTransport();
-         MimeMessage message = new MimeMessage(mailSession);
-
-         InternetAddress from = new InternetAddress(Properties.getProperties().getEmailFromField());
-         message.setFrom(from);
-
-         InternetAddress[] recipients = new InternetAddress[1];
-         recipients[0] = new InternetAddress(_recipient);
-         message.setRecipients(Message.RecipientType.TO, recipients);
-         message.setSubject(subject);
-         message.setContent(_message, "text/html; charset=ISO-8859-1");
-         message.setSentDate(new Date(_sentDateTime.getMillis()));
-
-         mailTransport.connect();
-         Transport.send(message);
-         mailTransport.close();
+         long start = System.nanoTime();
+         Mailer.getInstance().send(createHtmlEmail(_recipient, _subject, _message, _sentDateTime));
+         Metrics.SMTP_LATENCY.recordSince(start);
+         return true;
       }
       catch (MessagingException _ex) {
          Logger.getLogger().error("Unable to send email!");
+         return false;
       }
    }
 
+   /**
+    * Queues an HTML email to be sent in the background. Failures that may be
+    * transient are retried.
+    *
+    * @param _recipient
+    *           the email address of the receipient
+    * @param _subject
+    *           the subject-line text
+    * @param _message
+    *           the HTML body
+    * @param _sentDateTime
+    *           timestamp of the sent message
+    * @return a future that completes when the SMTP server accepts the email,
+    *         or exceptionally if the email cannot be sent
+    * @see MailQueue
+    */
+   public static CompletableFuture<Void> sendHtmlEmailAsync(String _recipient, String _subject, String _message,
+         DateTime _sentDateTime) {
+      return MailQueue.getInstance().submit(createHtmlEmail(_recipient, _subject, _message, _sentDateTime));
+   }
+
+   private static Email createHtmlEmail(String _recipient, String _subject, String _message, DateTime _sentDateTime) {
+      return new Email(_recipient, getSubjectPrefix() + _subject, _message, _sentDateTime.getMillis());
+   }
+
 }
@@ -0,0 +1,254 @@
+package com.chanytime.baseproject.util;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * TokenGenerator generates random strings, such as session tokens, salts or
+ * default passwords, from a set of characters. The randomness is
+ * cryptographically strong. Every thread has its own DRBG SecureRandom and its
+ * own buffer of random bytes, which is refilled in bulk, so threads never wait
+ * on each other and a token usually costs no call into the SecureRandom at
+ * all. Random bytes are mapped onto the characters by rejection sampling, so
+ * every character is equally likely whatever the size of the set. A character
+ * takes one random byte from a set of up to 256 characters, two from a set of
+ * up to 65536, and four from a larger one.
+ * <p>
+ * The following is a sample calling sequence:
+ *
+ * <pre>
+ * {@code
+ * String token = TokenGenerator.getDefault().generate(32);
+ * char[] tokens = new char[100 * 32];
+ * TokenGenerator.getDefault().fill(tokens, 100, 32);
+ * }
+ * </pre>
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+public final class TokenGenerator {
+
+   /**
+    * RandomBuffer is the random source of one thread and the bytes it has
+    * produced but not yet handed out.
+    */
+   private static final class RandomBuffer {
+      final SecureRandom m_random = createRandom();
+      final byte[] m_bytes = new byte[BUFFER_SIZE];
+      int m_position = BUFFER_SIZE;
+
+      /**
+       * Takes the next random byte, refilling the buffer when it is empty.
+       *
+       * @return the byte, from 0 to 255
+       */
+      int nextByte() {
+         if (m_position == BUFFER_SIZE) {
+            m_random.nextBytes(m_bytes);
+            m_position = 0;
+         }
+         return m_bytes[m_position++] & 0xFF;
+      }
+   }
+
+   private final static String DEFAULT_CHARACTER_SET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+   private final static int BUFFER_SIZE = 512;
+   private final static int BYTE_RANGE = 1 << 8;
+   private final static int SHORT_RANGE = 1 << 16;
+   private final static String ALGORITHM = "DRBG";
+
+   private final static ThreadLocal<RandomBuffer> m_buffers = new ThreadLocal<RandomBuffer>() {
+      @Override
+      protected RandomBuffer initialValue() {
+         return new RandomBuffer();
+      }
+   };
+
+   private final static TokenGenerator m_default = new TokenGenerator(DEFAULT_CHARACTER_SET);
+
+   private final char[] m_characters;
+   private final int m_range;
+   private final int m_limit;
+
+   /**
+    * Constructs a generator for a set of characters.
+    *
+    * @param _characterSet
+    *           the characters that can be used in the tokens; a character that
+    *           appears more than once is proportionally more likely
+    * @throws IllegalArgumentException
+    *            if the character set is null or empty
+    */
+   public TokenGenerator(String _characterSet) {
+      if (_characterSet == null || _characterSet.isEmpty()) {
+         throw new IllegalArgumentException("Character set is empty!");
+      }
+      m_characters = _characterSet.toCharArray();
+      m_range = (m_characters.length <= BYTE_RANGE) ? BYTE_RANGE
+            : (m_characters.length <= SHORT_RANGE) ? SHORT_RANGE : Integer.MAX_VALUE;
+      m_limit = m_range - (m_range % m_characters.length);
+   }
+
+   /**
+    * Retrieves the generator for the default character set of the 52
+    * alphabetic characters and 10 digits.
+    *
+    * @return the default generator
+    */
+   public static TokenGenerator getDefault() {
+      return m_default;
+   }
+
+   /**
+    * Generates a token of a given length.
+    *
+    * @param _length
+    *           the number of characters
+    * @return the token
+    * @throws IllegalArgumentException
+    *            if the length is negative
+    */
+   public String generate(int _length) {
+      if (_length < 0) {
+         throw new IllegalArgumentException("Token length " + _length + " is negative!");
+      }
+      char[] token = new char[_length];
+      fill(m_buffers.get(), token, 0, _length);
+      return new String(token);
+   }
+
+   /**
+    * Generates a token whose length is chosen at random, with every length in
+    * the range equally likely.
+    *
+    * @param _minChars
+    *           the minimum number of characters
+    * @param _maxChars
+    *           the maximum number of characters
+    * @return the token
+    * @throws IllegalArgumentException
+    *            if the minimum is negative or greater than the maximum
+    */
+   public String generate(int _minChars, int _maxChars) {
+      if (_minChars < 0 || _minChars > _maxChars) {
+         throw new IllegalArgumentException("Token length range " + _minChars + " to " + _maxChars
+               + " is not valid!");
+      }
+      RandomBuffer buffer = m_buffers.get();
+      char[] token = new char[_minChars + nextInt(buffer, _maxChars - _minChars + 1)];
+      fill(buffer, token, 0, token.length);
+      return new String(token);
+   }
+
+   /**
+    * Generates several tokens of the same length into one array, one after
+    * the other: token i occupies the characters from i * _length to
+    * (i + 1) * _length - 1.
+    *
+    * @param _tokens
+    *           the array to fill
+    * @param _count
+    *           the number of tokens
+    * @param _length
+    *           the number of characters of every token
+    * @throws IllegalArgumentException
+    *            if the count or the length is negative or the array is too
+    *            small
+    */
+   public void fill(char[] _tokens, int _count, int _length) {
+      if (_count < 0 || _length < 0 || (long) _count * _length > _tokens.length) {
+         throw new IllegalArgumentException(_count + " tokens of " + _length + " characters don't fit in "
+               + _tokens.length + " characters!");
+      }
+      fill(m_buffers.get(), _tokens, 0, _count * _length);
+   }
+
+   /**
+    * Generates several tokens of the same length into a new array.
+    *
+    * @param _count
+    *           the number of tokens
+    * @param _length
+    *           the number of characters of every token
+    * @return the tokens, one after the other
+    * @see #fill(char[], int, int)
+    */
+   public char[] generateBatch(int _count, int _length) {
+      if (_count < 0 || _length < 0 || (long) _count * _length > Integer.MAX_VALUE) {
+         throw new IllegalArgumentException(_count + " tokens of " + _length + " characters is not valid!");
+      }
+      char[] tokens = new char[_count * _length];
+      fill(m_buffers.get(), tokens, 0, tokens.length);
+      return tokens;
+   }
+
+   /**
+    * Fills part of an array with random characters. A random value that
+    * falls into the incomplete last round of the character set is discarded,
+    * which keeps the characters equally likely. Sets of more than 65536
+    * characters draw 31-bit values through nextInt.
+    *
+    * @param _buffer
+    *           the random source of the current thread
+    * @param _chars
+    *           the array to fill
+    * @param _offset
+    *           the first index to fill
+    * @param _length
+    *           the number of characters to fill
+    */
+   private void fill(RandomBuffer _buffer, char[] _chars, int _offset, int _length) {
+      int size = m_characters.length;
+      if (m_range > SHORT_RANGE) {
+         for (int i = _offset, end = _offset + _length; i < end; i++) {
+            _chars[i] = m_characters[nextInt(_buffer, size)];
+         }
+         return;
+      }
+      boolean wide = m_range == SHORT_RANGE;
+      for (int i = _offset, end = _offset + _length; i < end;) {
+         int value = wide ? (_buffer.nextByte() << 8) | _buffer.nextByte() : _buffer.nextByte();
+         if (value < m_limit) {
+            _chars[i++] = m_characters[value % size];
+         }
+      }
+   }
+
+   /**
+    * Takes a random integer from 0 to a bound, excluded, with every value
+    * equally likely.
+    *
+    * @param _buffer
+    *           the random source of the current thread
+    * @param _bound
+    *           the bound, which must be positive
+    * @return the integer
+    */
+   private static int nextInt(RandomBuffer _buffer, int _bound) {
+      int limit = Integer.MAX_VALUE - (Integer.MAX_VALUE % _bound);
+      while (true) {
+         int value = ((_buffer.nextByte() & 0x7F) << 24) | (_buffer.nextByte() << 16) | (_buffer.nextByte() << 8)
+               | _buffer.nextByte();
+         if (value < limit) {
+            return value % _bound;
+         }
+      }
+   }
+
+   /**
+    * Creates the random source of a thread. DRBG instances are independent of
+    * each other, whereas the platform default may share one lock across every
+    * instance.
+    *
+    * @return the random source
+    */
+   private static SecureRandom createRandom() {
+      try {
+         return SecureRandom.getInstance(ALGORITHM);
+      }
+      catch (NoSuchAlgorithmException _e) {
+         return new SecureRandom();
+      }
+   }
+}
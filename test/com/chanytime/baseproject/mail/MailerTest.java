@@ -0,0 +1,94 @@
+package com.chanytime.baseproject.mail;
+
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import javax.mail.MessagingException;
+
+/**
+ * MailerTest checks how Mailer reuses and retries its connections against an
+ * SmtpStandIn: emails share one connection, an email whose reused connection
+ * was dropped by the server is sent again over a new one, and an email whose
+ * reply was lost after the server received it is not sent again. Unless
+ * project.properties.file names a properties file, it writes a minimal one. It
+ * exits with a non-zero status if a check fails.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+public final class MailerTest {
+
+   private MailerTest() {
+   }
+
+   public static void main(String[] _args) throws Exception {
+      if (System.getProperty("project.properties.file") == null) {
+         Path file = Files.createTempFile("mailer-test", ".properties");
+         file.toFile().deleteOnExit();
+         Files.write(file, Arrays.asList("database_url_scheme=jdbc:mysql:///", "database_url_hostname=localhost",
+                                         "logger_identifier=mailer_test", "production=false",
+                                         "nonproduction_prefix=test", "smtp_host=localhost",
+                                         "email_from_field=root@localhost", "logger_email_destination=",
+                                         "sql_trace_enabled=false"));
+         System.setProperty("project.properties.file", file.toString());
+      }
+      try (SmtpStandIn server = new SmtpStandIn()) {
+         System.setProperty("project.smtp_host", InetAddress.getLoopbackAddress().getHostAddress());
+         System.setProperty("project.smtp_port", Integer.toString(server.getPort()));
+         Mailer mailer = Mailer.getInstance();
+         reusesConnection(mailer, server);
+         resendsOverDroppedConnection(mailer, server);
+         doesNotResendAfterLostReply(mailer, server);
+         mailer.close();
+      }
+      System.out.println("MailerTest passed");
+   }
+
+   private static void reusesConnection(Mailer _mailer, SmtpStandIn _server) throws MessagingException {
+      for (int i = 0; i < 3; i++) {
+         _mailer.send(email("reuse " + i));
+      }
+      expect("connections after three emails", 1, _server.getConnections());
+      expect("messages after three emails", 3, _server.getMessages());
+   }
+
+   private static void resendsOverDroppedConnection(Mailer _mailer, SmtpStandIn _server) throws Exception {
+      int connections = _server.getConnections();
+      int messages = _server.getMessages();
+      _server.dropConnections();
+      Thread.sleep(100);
+      _mailer.send(email("dropped"));
+      expect("new connections after a dropped connection", 1, _server.getConnections() - connections);
+      expect("messages after a dropped connection", 1, _server.getMessages() - messages);
+   }
+
+   private static void doesNotResendAfterLostReply(Mailer _mailer, SmtpStandIn _server) throws MessagingException {
+      int connections = _server.getConnections();
+      int messages = _server.getMessages();
+      _server.dropNextReply();
+      try {
+         _mailer.send(email("lost reply"));
+         throw new AssertionError("Sending with a lost reply succeeded!");
+      }
+      catch (MessagingException _e) {
+         // Expected: the server may have accepted the email.
+      }
+      expect("new connections after a lost reply", 0, _server.getConnections() - connections);
+      expect("messages after a lost reply", 1, _server.getMessages() - messages);
+      _mailer.send(email("after lost reply"));
+      expect("new connections after the failed connection", 1, _server.getConnections() - connections);
+      expect("messages after the failed connection", 2, _server.getMessages() - messages);
+   }
+
+   private static Email email(String _subject) {
+      return new Email("someone@example.com", _subject, "Body of " + _subject, System.currentTimeMillis());
+   }
+
+   private static void expect(String _what, int _expected, int _actual) {
+      if (_expected != _actual) {
+         throw new AssertionError("Expected " + _expected + " " + _what + " but got " + _actual + "!");
+      }
+   }
+}
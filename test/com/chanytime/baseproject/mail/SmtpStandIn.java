@@ -0,0 +1,212 @@
+package com.chanytime.baseproject.mail;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SmtpStandIn is a minimal SMTP server on the loopback interface, for tests
+ * and benchmarks that need a server to talk to. It accepts every command and
+ * every message, and counts the connections it accepted and the messages it
+ * received. It can also misbehave the way real servers and networks do: drop
+ * every open connection, as a server does with idle ones, or reset the
+ * connection after receiving a message instead of replying, as when the reply
+ * is lost.
+ *
+ * @author Bryant Chan
+ * @version %I%, %G%
+ */
+public final class SmtpStandIn implements Closeable {
+
+   private final ServerSocket m_server;
+   private final Set<Socket> m_sockets = ConcurrentHashMap.newKeySet();
+   private final AtomicInteger m_connections = new AtomicInteger();
+   private final AtomicInteger m_messages = new AtomicInteger();
+   private volatile boolean m_dropNextReply = false;
+   private volatile long m_replyDelayMillis = 0;
+
+   /**
+    * Starts the server on a free port.
+    *
+    * @throws IOException
+    *            if no port can be bound
+    */
+   public SmtpStandIn() throws IOException {
+      m_server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+      Thread acceptor = new Thread(this::accept, "smtp-stand-in");
+      acceptor.setDaemon(true);
+      acceptor.start();
+   }
+
+   /**
+    * Retrieves the port the server listens on.
+    *
+    * @return the port
+    */
+   public int getPort() {
+      return m_server.getLocalPort();
+   }
+
+   /**
+    * Retrieves the number of connections accepted so far.
+    *
+    * @return the number of connections
+    */
+   public int getConnections() {
+      return m_connections.get();
+   }
+
+   /**
+    * Retrieves the number of messages received so far, including those whose
+    * reply was dropped.
+    *
+    * @return the number of messages
+    */
+   public int getMessages() {
+      return m_messages.get();
+   }
+
+   /**
+    * Makes the server reset the connection after receiving the next message,
+    * without replying to it.
+    */
+   public void dropNextReply() {
+      m_dropNextReply = true;
+   }
+
+   /**
+    * Sets how long the server waits before every reply, to stand in for the
+    * round trip to a real server.
+    *
+    * @param _millis
+    *           the delay in milliseconds
+    */
+   public void setReplyDelayMillis(long _millis) {
+      m_replyDelayMillis = _millis;
+   }
+
+   /**
+    * Closes every open connection, without telling the clients.
+    */
+   public void dropConnections() {
+      for (Socket socket : m_sockets) {
+         close(socket);
+      }
+   }
+
+   /**
+    * Stops the server and closes every open connection.
+    */
+   @Override
+   public void close() {
+      try {
+         m_server.close();
+      }
+      catch (IOException _e) {
+         // Nothing more can be done.
+      }
+      dropConnections();
+   }
+
+   private void accept() {
+      while (!m_server.isClosed()) {
+         try {
+            Socket socket = m_server.accept();
+            m_connections.incrementAndGet();
+            m_sockets.add(socket);
+            Thread session = new Thread(() -> serve(socket), "smtp-stand-in-" + m_connections.get());
+            session.setDaemon(true);
+            session.start();
+         }
+         catch (IOException _e) {
+            // The server was closed.
+         }
+      }
+   }
+
+   /**
+    * Holds an SMTP conversation until the client quits or the connection is
+    * closed.
+    *
+    * @param _socket
+    *           the connection
+    */
+   private void serve(Socket _socket) {
+      try {
+         BufferedReader in = new BufferedReader(new InputStreamReader(_socket.getInputStream(),
+               StandardCharsets.ISO_8859_1));
+         OutputStream out = _socket.getOutputStream();
+         reply(out, "220 localhost SMTP stand-in");
+         String line;
+         while ((line = in.readLine()) != null) {
+            String command = line.length() < 4 ? line.toUpperCase() : line.substring(0, 4).toUpperCase();
+            if (command.equals("QUIT")) {
+               reply(out, "221 Bye");
+               break;
+            }
+            else if (command.equals("DATA")) {
+               reply(out, "354 End data with <CR><LF>.<CR><LF>");
+               while ((line = in.readLine()) != null && !line.equals(".")) {
+                  // The content is not kept.
+               }
+               if (line == null) {
+                  break;
+               }
+               m_messages.incrementAndGet();
+               if (m_dropNextReply) {
+                  m_dropNextReply = false;
+                  _socket.setSoLinger(true, 0);
+                  break;
+               }
+               reply(out, "250 OK");
+            }
+            else if (command.equals("EHLO") || command.equals("HELO") || command.equals("MAIL")
+                  || command.equals("RCPT") || command.equals("RSET") || command.equals("NOOP")) {
+               reply(out, "250 OK");
+            }
+            else {
+               reply(out, "502 Command not implemented");
+            }
+         }
+      }
+      catch (IOException _e) {
+         // The connection was dropped.
+      }
+      finally {
+         close(_socket);
+      }
+   }
+
+   private void reply(OutputStream _out, String _reply) throws IOException {
+      long delay = m_replyDelayMillis;
+      if (delay > 0) {
+         try {
+            Thread.sleep(delay);
+         }
+         catch (InterruptedException _e) {
+            Thread.currentThread().interrupt();
+         }
+      }
+      _out.write((_reply + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+      _out.flush();
+   }
+
+   private void close(Socket _socket) {
+      m_sockets.remove(_socket);
+      try {
+         _socket.close();
+      }
+      catch (IOException _e) {
+         // The connection is being discarded anyway.
+      }
+   }
+}